@@ -0,0 +1,82 @@
+package com.adyen.workshop.benchmark;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.adyen.workshop.util.WebhookSignatureVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SignatureException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the webhook HMAC check: the library's HMACValidator.validateHMAC against the WebhookSignatureVerifier
+ * the WebhookController uses. Add -prof gc (-PjmhArgs='-prof gc') to compare the allocation rate as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HmacValidationBenchmark {
+
+    private static final int ITEMS = 1024;
+
+    final HMACValidator hmacValidator = new HMACValidator();
+    final WebhookSignatureVerifier verifier = new WebhookSignatureVerifier(List.of(WebhookPayloads.HMAC_KEY));
+    // Key rotation: the items are signed with the previous key, so both keys are tried
+    final WebhookSignatureVerifier rotatingVerifier = new WebhookSignatureVerifier(List.of(
+            "0F1E2D3C4B5A69788796A5B4C3D2E1F00F1E2D3C4B5A69788796A5B4C3D2E1F0", WebhookPayloads.HMAC_KEY));
+    NotificationRequestItem[] items;
+
+    @Setup
+    public void setUp() {
+        items = new NotificationRequestItem[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = WebhookPayloads.item(i);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public boolean validateHMAC(Cursor cursor) throws SignatureException {
+        return hmacValidator.validateHMAC(items[cursor.next++ & (ITEMS - 1)], WebhookPayloads.HMAC_KEY);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean validateHMACConcurrently(Cursor cursor) throws SignatureException {
+        return hmacValidator.validateHMAC(items[cursor.next++ & (ITEMS - 1)], WebhookPayloads.HMAC_KEY);
+    }
+
+    @Benchmark
+    public boolean verify(Cursor cursor) {
+        return verifier.verify(items[cursor.next++ & (ITEMS - 1)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean verifyConcurrently(Cursor cursor) {
+        return verifier.verify(items[cursor.next++ & (ITEMS - 1)]);
+    }
+
+    @Benchmark
+    public boolean verifyWithPreviousKey(Cursor cursor) {
+        return rotatingVerifier.verify(items[cursor.next++ & (ITEMS - 1)]);
+    }
+}
@@ -0,0 +1,72 @@
+package com.adyen.workshop.benchmark;
+
+import com.adyen.workshop.util.PaymentLedger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PaymentLedger on a ledger holding 10^4 to 10^6 payments with two events each:
+ * get (the status on the result page), record (an API response or webhook), and a page of payments by creation time.
+ * record adds payments, so once the ledger is full it also covers dropping the oldest chunk and rebuilding the tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PaymentLedgerBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int payments;
+
+    private PaymentLedger ledger;
+    private String[] pspReferences;
+    private Instant middle;
+    private long next;
+
+    @Setup
+    public void fill() {
+        ledger = new PaymentLedger(payments, payments * 2);
+        pspReferences = new String[payments];
+        for (int i = 0; i < payments; i++) {
+            pspReferences[i] = pspReference(i);
+            ledger.record(pspReferences[i], "order-" + i, PaymentLedger.Status.AUTHORISED, PaymentLedger.Source.API, "EUR", 9998L);
+            ledger.record(pspReferences[i], null, PaymentLedger.Status.CAPTURED, PaymentLedger.Source.WEBHOOK, null, null);
+            if (i == payments / 2) {
+                middle = Instant.now();
+            }
+        }
+        next = payments;
+    }
+
+    @Benchmark
+    public PaymentLedger.Payment get() {
+        return ledger.get(pspReferences[ThreadLocalRandom.current().nextInt(payments)]);
+    }
+
+    @Benchmark
+    public void record() {
+        var i = next++;
+        ledger.record(pspReference(i), null, PaymentLedger.Status.AUTHORISED, PaymentLedger.Source.WEBHOOK, "EUR", 9998L);
+    }
+
+    @Benchmark
+    public List<PaymentLedger.Payment> page() {
+        return ledger.payments(null, middle, 50);
+    }
+
+    private static String pspReference(long i) {
+        return Long.toString(8_815_000_000_000_000L + i);
+    }
+}
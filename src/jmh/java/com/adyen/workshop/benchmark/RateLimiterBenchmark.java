@@ -0,0 +1,73 @@
+package com.adyen.workshop.benchmark;
+
+import com.adyen.workshop.util.RateLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RateLimiter.tryAcquire as CheckoutAdmission calls it, from 8 threads at once:
+ *
+ * <ul>
+ *     <li>sameKey: every thread takes permits of one bucket, the worst case for the compareAndSet loop;</li>
+ *     <li>manyKeys: requests spread over {@link #keys} shoppers or IP addresses; with 10^6 of them the map is
+ *     over maxKeys all the time, so this includes the cost of evicting buckets.</li>
+ * </ul>
+ * The rate is high enough that most calls are admitted, a refused call takes the same path minus the write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    private static final int MAX_KEYS = 100_000;
+
+    @Param({"1000", "1000000"})
+    int keys;
+
+    private RateLimiter rateLimiter;
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        rateLimiter = new RateLimiter(new RateLimiter.Settings(1_000_000, 1000, MAX_KEYS));
+        names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "10.0." + (i >>> 8) + "." + (i & 0xff);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        // A different starting point per thread, so the threads do not hit the same buckets in lockstep
+        @Setup
+        public void setUp(RateLimiterBenchmark benchmark) {
+            next = ThreadLocalRandom.current().nextInt(benchmark.keys);
+        }
+    }
+
+    @Benchmark
+    public long sameKey() {
+        return rateLimiter.tryAcquire(names[0]);
+    }
+
+    @Benchmark
+    public long manyKeys(Cursor cursor) {
+        cursor.next = (cursor.next + 7919) % keys;
+        return rateLimiter.tryAcquire(names[cursor.next]);
+    }
+}
@@ -0,0 +1,127 @@
+package com.adyen.workshop.benchmark;
+
+import com.adyen.workshop.util.Storage;
+import com.adyen.workshop.util.Token;
+import com.adyen.workshop.util.TokenPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage.add, Storage.remove, Storage.getAllTokens and Storage.getPage on a store holding 10^3 to 10^7 tokens.
+ *
+ * <p>add and remove change the size of the store, so they are measured as batches of {@link #BATCH} operations
+ * (single shot) and the store is put back to its original size after every iteration.
+ * The 10^7 store needs a few GB of heap, hence the larger -Xmx of the forked JVM.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class StorageBenchmark {
+
+    static final int BATCH = 1000;
+    private static final int TOKENS_PER_SHOPPER = 4;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int tokens;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        Storage.getRepository().clear();
+        for (int i = 0; i < tokens; i++) {
+            Storage.add(recurringReference(i), "visa", shopperReference(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void clear() {
+        Storage.getRepository().clear();
+    }
+
+    // Tokens added by an iteration of add, removed again afterwards
+    @State(Scope.Benchmark)
+    public static class Additions {
+        int next;
+
+        @TearDown(Level.Iteration)
+        public void undo(StorageBenchmark store) {
+            for (int i = 0; i < next; i++) {
+                Storage.remove(recurringReference(store.tokens + i), shopperReference(store.tokens + i));
+            }
+            next = 0;
+        }
+    }
+
+    // Tokens removed by an iteration of remove, added back afterwards
+    @State(Scope.Benchmark)
+    public static class Removals {
+        int next;
+
+        @TearDown(Level.Iteration)
+        public void undo(StorageBenchmark store) {
+            for (int i = 0; i < Math.min(next, store.tokens); i++) {
+                Storage.add(recurringReference(i), "visa", shopperReference(i));
+            }
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    public void add(Additions additions) {
+        var index = tokens + additions.next++;
+        Storage.add(recurringReference(index), "visa", shopperReference(index));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10, batchSize = BATCH)
+    @Measurement(iterations = 20, batchSize = BATCH)
+    public void remove(Removals removals) {
+        // Wraps around on the 10^3 store, removing a token that is already gone is measured too
+        var index = removals.next++ % tokens;
+        Storage.remove(recurringReference(index), shopperReference(index));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void getAllTokens(Blackhole blackhole) {
+        for (Token token : Storage.getAllTokens()) {
+            blackhole.consume(token);
+        }
+    }
+
+    // A page of the admin listing from the middle of the store, should not depend on the number of tokens
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public TokenPage getPage() {
+        return Storage.getPage(recurringReference(tokens / 2), 50, null, null);
+    }
+
+    static String recurringReference(int index) {
+        return String.format("RDR%013d", index);
+    }
+
+    static String shopperReference(int index) {
+        return "shopper-" + index / TOKENS_PER_SHOPPER;
+    }
+}
@@ -0,0 +1,76 @@
+package com.adyen.workshop.benchmark;
+
+import com.adyen.workshop.MainApplication;
+import com.adyen.workshop.controllers.WebhookController;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebhookController.webhooks end to end: parsing, deduplication, HMAC validation and handing the items to the pipeline.
+ * The controller is taken from a real application context (without a web server), so it runs with the production wiring.
+ *
+ * <p>Every delivery has new pspReferences, the deduplication index is kept small so that
+ * the payloads can be reused once the index has forgotten them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebhookControllerBenchmark {
+
+    private static final int DELIVERIES = 4096;
+
+    @Param({"1", "10"})
+    int items;
+
+    ConfigurableApplicationContext context;
+    WebhookController webhookController;
+    byte[][] deliveries;
+    int next;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(MainApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--ADYEN_HMAC_KEY=" + WebhookPayloads.HMAC_KEY,
+                        "--ADYEN_MERCHANT_ACCOUNT=" + WebhookPayloads.MERCHANT_ACCOUNT,
+                        "--webhook.dedup.max-entries=1024",
+                        "--logging.level.com.adyen.workshop=WARN");
+        webhookController = context.getBean(WebhookController.class);
+
+        deliveries = new byte[DELIVERIES][];
+        for (int i = 0; i < DELIVERIES; i++) {
+            deliveries[i] = WebhookPayloads.json(i * items, items).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<String> webhooks() throws Exception {
+        return webhookController.webhooks(new ByteArrayInputStream(deliveries[next++ & (DELIVERIES - 1)]));
+    }
+}
@@ -0,0 +1,61 @@
+package com.adyen.workshop.benchmark;
+
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.workshop.util.NotificationStreamParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NotificationRequest.fromJson on a single-item delivery and on batched deliveries, against the streaming
+ * NotificationStreamParser the WebhookController uses (reading the request bytes, as it does).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebhookParsingBenchmark {
+
+    @Param({"1", "10", "100"})
+    int items;
+
+    String json;
+    byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        json = WebhookPayloads.json(0, items);
+        bytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public NotificationRequest fromJson() throws IOException {
+        return NotificationRequest.fromJson(json);
+    }
+
+    @Benchmark
+    public NotificationRequest fromJsonBytes() throws IOException {
+        return NotificationRequest.fromJson(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public int stream(Blackhole blackhole) throws IOException {
+        return NotificationStreamParser.parse(new ByteArrayInputStream(bytes), blackhole::consume);
+    }
+}
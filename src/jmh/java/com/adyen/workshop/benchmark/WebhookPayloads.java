@@ -0,0 +1,85 @@
+package com.adyen.workshop.benchmark;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+
+import java.security.SignatureException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Signed webhook payloads shaped like the AUTHORISATION webhooks Adyen delivers.
+ */
+final class WebhookPayloads {
+
+    static final String HMAC_KEY = "44782DEF547AAA06C910C43932B1EB0C71FC68D9D0C057550C48EC2ACF6BA056";
+    static final String MERCHANT_ACCOUNT = "BenchmarkMerchant";
+
+    private static final HMACValidator HMAC_VALIDATOR = new HMACValidator();
+
+    private WebhookPayloads() {
+    }
+
+    static NotificationRequestItem item(int index) {
+        var amount = new Amount();
+        amount.setCurrency("EUR");
+        amount.setValue(1000L + index % 9000);
+
+        var item = new NotificationRequestItem();
+        item.setPspReference(pspReference(index));
+        item.setMerchantAccountCode(MERCHANT_ACCOUNT);
+        item.setMerchantReference("order-" + index);
+        item.setAmount(amount);
+        item.setEventCode("AUTHORISATION");
+        item.setSuccess(true);
+        item.setPaymentMethod("visa");
+        item.setAdditionalData(additionalData(item));
+        return item;
+    }
+
+    // A delivery with the given number of items, starting at item firstIndex
+    static String json(int firstIndex, int items) {
+        var json = new StringBuilder(1024 * items).append("{\"live\":\"false\",\"notificationItems\":[");
+        for (int i = 0; i < items; i++) {
+            var item = item(firstIndex + i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"NotificationRequestItem\":{\"additionalData\":{");
+            var first = true;
+            for (var entry : item.getAdditionalData().entrySet()) {
+                json.append(first ? "" : ",").append('"').append(entry.getKey()).append("\":\"").append(entry.getValue()).append('"');
+                first = false;
+            }
+            json.append("},\"amount\":{\"currency\":\"").append(item.getAmount().getCurrency())
+                    .append("\",\"value\":").append(item.getAmount().getValue())
+                    .append("},\"eventCode\":\"").append(item.getEventCode())
+                    .append("\",\"eventDate\":\"2024-10-01T12:00:00+02:00\",\"merchantAccountCode\":\"").append(item.getMerchantAccountCode())
+                    .append("\",\"merchantReference\":\"").append(item.getMerchantReference())
+                    .append("\",\"operations\":[\"CANCEL\",\"CAPTURE\",\"REFUND\"],\"paymentMethod\":\"").append(item.getPaymentMethod())
+                    .append("\",\"pspReference\":\"").append(item.getPspReference())
+                    .append("\",\"reason\":\"033899:1111:03/2030\",\"success\":\"true\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static Map<String, String> additionalData(NotificationRequestItem item) {
+        var additionalData = new LinkedHashMap<String, String>();
+        additionalData.put("authCode", "033899");
+        additionalData.put("cardSummary", "1111");
+        additionalData.put("expiryDate", "03/2030");
+        additionalData.put("threeds2.cardEnrolled", "false");
+        additionalData.put("checkout.cardAddedBrand", "visa");
+        try {
+            additionalData.put("hmacSignature", HMAC_VALIDATOR.calculateHMAC(item, HMAC_KEY));
+        } catch (SignatureException e) {
+            throw new IllegalStateException(e);
+        }
+        return additionalData;
+    }
+
+    private static String pspReference(int index) {
+        return String.format("BM%014d", index);
+    }
+}
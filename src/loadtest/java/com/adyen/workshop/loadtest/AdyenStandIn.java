@@ -0,0 +1,151 @@
+package com.adyen.workshop.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Adyen Checkout and Recurring APIs, so the application can be load tested offline.
+ * Point the application at it with adyen.endpoint.checkout and adyen.endpoint.recurring.
+ *
+ * <p>Supported endpoints: /paymentMethods, /payments, /payments/details, /sessions and /disable.
+ * Every call waits latencyMs (plus up to jitterMs), then fails with an injected HTTP 500 with probability errorRate.
+ * A payment made with a new card needs a 3DS redirect with probability redirectRate; stored tokens are always Authorised.
+ *
+ * <pre>
+ * ./gradlew adyenStandIn -Pport=8090 -PlatencyMs=150 -PerrorRate=0.01
+ * </pre>
+ */
+public class AdyenStandIn implements AutoCloseable {
+
+    public record Settings(long latencyMs, long jitterMs, double errorRate, double redirectRate) {
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Settings settings;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger injectedErrors = new AtomicInteger();
+
+    public AdyenStandIn(int port, Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 4096);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        var standIn = new AdyenStandIn(Integer.parseInt(System.getProperty("port", "8090")), new Settings(
+                Long.parseLong(System.getProperty("latencyMs", "150")),
+                Long.parseLong(System.getProperty("jitterMs", "50")),
+                Double.parseDouble(System.getProperty("errorRate", "0")),
+                Double.parseDouble(System.getProperty("redirectRate", "0.2"))));
+        System.out.println("Adyen stand-in running, start the application with:");
+        System.out.println("  --adyen.endpoint.checkout=" + standIn.getCheckoutEndpoint());
+        System.out.println("  --adyen.endpoint.recurring=" + standIn.getRecurringEndpoint());
+        Runtime.getRuntime().addShutdownHook(new Thread(standIn::close));
+        Thread.currentThread().join();
+    }
+
+    public String getCheckoutEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort() + "/checkout/v71";
+    }
+
+    public String getRecurringEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort() + "/pal/servlet/Recurring/v68";
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    public int getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public void reset() {
+        peakInFlight.set(0);
+        calls.set(0);
+        injectedErrors.set(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        var current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+        calls.incrementAndGet();
+        try {
+            var request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            var random = ThreadLocalRandom.current();
+            Thread.sleep(settings.latencyMs() + (settings.jitterMs() > 0 ? random.nextLong(settings.jitterMs()) : 0));
+
+            if (random.nextDouble() < settings.errorRate()) {
+                injectedErrors.incrementAndGet();
+                respond(exchange, 500, "{\"status\":500,\"errorCode\":\"905\",\"message\":\"Injected error\",\"errorType\":\"internal\"}");
+                return;
+            }
+
+            var path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/paymentMethods")) {
+                respond(exchange, 200, """
+                        {"paymentMethods":[{"name":"Cards","type":"scheme","brands":["visa","mc","amex"]},{"name":"iDEAL","type":"ideal"}]}""");
+            } else if (path.endsWith("/payments/details")) {
+                respond(exchange, 200, "{\"resultCode\":\"Authorised\",\"pspReference\":\"" + pspReference() + "\"}");
+            } else if (path.endsWith("/payments")) {
+                if (!request.contains("storedPaymentMethodId") && random.nextDouble() < settings.redirectRate()) {
+                    respond(exchange, 200, "{\"resultCode\":\"RedirectShopper\",\"action\":{\"type\":\"redirect\",\"method\":\"GET\","
+                            + "\"paymentMethodType\":\"scheme\",\"url\":\"http://localhost/3ds-challenge\"}}");
+                } else {
+                    respond(exchange, 200, "{\"resultCode\":\"Authorised\",\"pspReference\":\"" + pspReference() + "\"}");
+                }
+            } else if (path.endsWith("/sessions")) {
+                respond(exchange, 201, "{\"id\":\"CS" + pspReference() + "\",\"sessionData\":\"Ab02b4c0!standin\","
+                        + "\"amount\":{\"currency\":\"EUR\",\"value\":0},\"merchantAccount\":\"StandIn\",\"reference\":\"standin\","
+                        + "\"returnUrl\":\"http://localhost/redirect\",\"expiresAt\":\"" + OffsetDateTime.now().plusHours(1) + "\"}");
+            } else if (path.endsWith("/disable")) {
+                respond(exchange, 200, "{\"response\":\"[detail-successfully-disabled]\"}");
+            } else {
+                respond(exchange, 404, "{\"status\":404,\"errorCode\":\"000\",\"message\":\"Not supported by the stand-in\",\"errorType\":\"validation\"}");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        var body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static String pspReference() {
+        return UUID.randomUUID().toString().replace("-", "").substring(0, 16).toUpperCase();
+    }
+}
@@ -0,0 +1,112 @@
+package com.adyen.workshop.loadtest;
+
+import com.adyen.workshop.MainApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Compares the blocking /api/payments with the non-blocking /api/async/payments under the same load:
+ * concurrency shoppers pay at once against an {@link AdyenStandIn} that answers after latencyMs,
+ * while the application handles requests with only threads servlet threads.
+ *
+ * <p>The blocking endpoint holds a servlet thread for every call to Adyen, so at most threads payments are in
+ * flight upstream and throughput is capped at threads / latency. The non-blocking endpoint releases the thread
+ * while Adyen is called, and should keep about concurrency calls in flight.
+ *
+ * <pre>
+ * ./gradlew asyncLoadTest -Pconcurrency=500 -Prequests=5000 -Pthreads=20 -PlatencyMs=200
+ * </pre>
+ */
+public class AsyncCheckoutLoadTest {
+
+    private static final String PAYMENT_REQUEST = """
+            {"paymentMethod":{"type":"scheme","encryptedCardNumber":"test_4111111111111111","encryptedExpiryMonth":"test_03",\
+            "encryptedExpiryYear":"test_2030","encryptedSecurityCode":"test_737"}}""";
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        var concurrency = Integer.parseInt(System.getProperty("concurrency", "500"));
+        var requests = Integer.parseInt(System.getProperty("requests", "5000"));
+        var threads = Integer.parseInt(System.getProperty("threads", "20"));
+        var latencyMs = Long.parseLong(System.getProperty("latencyMs", "200"));
+
+        System.out.printf("concurrency=%d requests=%d servlet threads=%d upstream latency=%dms java=%s%n",
+                concurrency, requests, threads, latencyMs, Runtime.version());
+
+        try (var standIn = new AdyenStandIn(0, new AdyenStandIn.Settings(latencyMs, 0, 0, 0))) {
+            // Only the servlet threads may limit the blocking endpoint, not the connection pool or the bulkhead
+            var context = (ServletWebServerApplicationContext) SpringApplication.run(MainApplication.class,
+                    "--server.port=0",
+                    "--server.tomcat.threads.max=" + threads,
+                    "--server.tomcat.threads.min-spare=" + threads,
+                    "--server.tomcat.accept-count=" + concurrency,
+                    "--adyen.endpoint.checkout=" + standIn.getCheckoutEndpoint(),
+                    "--adyen.http.max-connections=" + concurrency * 2,
+                    "--adyen.http.max-connections-per-route=" + concurrency * 2,
+                    "--adyen.resilience.bulkhead.max-concurrent=" + concurrency * 2,
+                    "--ADYEN_API_KEY=loadtest",
+                    "--ADYEN_MERCHANT_ACCOUNT=LoadTestMerchant",
+                    "--logging.level.com.adyen.workshop=WARN");
+            try {
+                var loadTest = new AsyncCheckoutLoadTest();
+                var baseUrl = "http://localhost:" + context.getWebServer().getPort();
+
+                System.out.printf("%n%-20s %8s %8s %10s %8s %8s %8s %10s%n",
+                        "endpoint", "count", "errors", "req/s", "p50 ms", "p99 ms", "max ms", "upstream");
+                for (var path : new String[]{"/api/payments", "/api/async/payments"}) {
+                    // Warm up, then measure
+                    loadTest.run(baseUrl + path, concurrency, Math.min(requests, concurrency * 2));
+                    standIn.reset();
+                    var start = System.nanoTime();
+                    var recorder = loadTest.run(baseUrl + path, concurrency, requests);
+                    var seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%-20s %8d %8d %10.1f %8.1f %8.1f %8.1f %10d%n", path, recorder.count(), recorder.errors(),
+                            recorder.count() / seconds, recorder.percentile(0.50), recorder.percentile(0.99), recorder.percentile(1.0),
+                            standIn.getPeakInFlight());
+                }
+                System.out.println("\nupstream: the peak number of payments in flight at the Adyen stand-in");
+            } finally {
+                context.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    // Keeps concurrency requests in flight until requests have been sent
+    Recorder run(String url, int concurrency, int requests) throws InterruptedException {
+        var recorder = new Recorder();
+        var permits = new Semaphore(concurrency);
+        var done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            permits.acquire();
+            var request = HttpRequest.newBuilder(URI.create(url))
+                    .header("Content-Type", "application/json")
+                    .timeout(Duration.ofSeconds(60))
+                    .POST(HttpRequest.BodyPublishers.ofString(PAYMENT_REQUEST))
+                    .build();
+            var start = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+                if (e == null && response.statusCode() == 200) {
+                    recorder.record(System.nanoTime() - start);
+                } else {
+                    recorder.error();
+                }
+                permits.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        return recorder;
+    }
+}
@@ -0,0 +1,260 @@
+package com.adyen.workshop.loadtest;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.adyen.workshop.MainApplication;
+import com.adyen.workshop.util.Storage;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the full shopper journey against the application, with Adyen replaced by an {@link AdyenStandIn}:
+ * payment methods, payment, 3DS redirect, tokenization session, signed RECURRING_CONTRACT webhook and a charge
+ * on the stored token. Reports throughput and latency percentiles per step.
+ *
+ * <p>The application runs in-process, so the run needs no network access and no Adyen credentials.
+ * The process exits with status 1 when more than maxErrorRate of the flows failed, so it can gate a CI build.
+ *
+ * <pre>
+ * ./gradlew loadTest -Pusers=50 -Pflows=2000 -PlatencyMs=100 -PerrorRate=0.001 -PmaxErrorRate=0.01
+ * </pre>
+ */
+public class EndToEndLoadTest {
+
+    enum Step {
+        PAYMENT_METHODS,
+        PAYMENT,
+        REDIRECT,
+        SESSION,
+        WEBHOOK,
+        TOKEN_STORED,
+        TOKEN_CHARGE
+    }
+
+    private static final String PAYMENT_REQUEST = """
+            {"paymentMethod":{"type":"scheme","encryptedCardNumber":"test_4111111111111111","encryptedExpiryMonth":"test_03",\
+            "encryptedExpiryYear":"test_2030","encryptedSecurityCode":"test_737"},\
+            "browserInfo":{"userAgent":"loadtest","acceptHeader":"*/*","language":"en-US","colorDepth":24,\
+            "screenHeight":1080,"screenWidth":1920,"timeZoneOffset":0,"javaEnabled":false}}""";
+
+    private static final String MERCHANT_ACCOUNT = "LoadTestMerchant";
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    private final HMACValidator hmacValidator = new HMACValidator();
+    private final String baseUrl;
+    private final String hmacKey;
+    private final Duration tokenTimeout;
+
+    private final Recorder[] recorders = new Recorder[Step.values().length];
+
+    EndToEndLoadTest(String baseUrl, String hmacKey, Duration tokenTimeout) {
+        this.baseUrl = baseUrl;
+        this.hmacKey = hmacKey;
+        this.tokenTimeout = tokenTimeout;
+        for (var step : Step.values()) {
+            recorders[step.ordinal()] = new Recorder();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var users = Integer.parseInt(System.getProperty("users", "50"));
+        var flows = Integer.parseInt(System.getProperty("flows", "1000"));
+        var maxErrorRate = Double.parseDouble(System.getProperty("maxErrorRate", "0.01"));
+        var settings = new AdyenStandIn.Settings(
+                Long.parseLong(System.getProperty("latencyMs", "100")),
+                Long.parseLong(System.getProperty("jitterMs", "50")),
+                Double.parseDouble(System.getProperty("errorRate", "0")),
+                Double.parseDouble(System.getProperty("redirectRate", "0.2")));
+
+        var key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        var hmacKey = HexFormat.of().formatHex(key);
+
+        System.out.printf("users=%d flows=%d stand-in=%s java=%s%n", users, flows, settings, Runtime.version());
+
+        int failed;
+        try (var standIn = new AdyenStandIn(0, settings)) {
+            var context = (ServletWebServerApplicationContext) SpringApplication.run(MainApplication.class,
+                    "--server.port=0",
+                    "--adyen.endpoint.checkout=" + standIn.getCheckoutEndpoint(),
+                    "--adyen.endpoint.recurring=" + standIn.getRecurringEndpoint(),
+                    "--ADYEN_API_KEY=loadtest",
+                    "--ADYEN_MERCHANT_ACCOUNT=" + MERCHANT_ACCOUNT,
+                    "--ADYEN_HMAC_KEY=" + hmacKey,
+                    "--logging.level.com.adyen.workshop=WARN");
+            try {
+                var loadTest = new EndToEndLoadTest("http://localhost:" + context.getWebServer().getPort(), hmacKey, Duration.ofSeconds(10));
+                failed = loadTest.run(users, flows);
+                System.out.printf("upstream: calls=%d injected errors=%d peak in-flight=%d%n",
+                        standIn.getCalls(), standIn.getInjectedErrors(), standIn.getPeakInFlight());
+            } finally {
+                context.close();
+            }
+        }
+
+        var errorRate = (double) failed / flows;
+        if (errorRate > maxErrorRate) {
+            System.out.printf("FAILED: %.2f%% of the flows failed, the maximum is %.2f%%%n", errorRate * 100, maxErrorRate * 100);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return the number of flows that failed
+     */
+    int run(int users, int flows) throws InterruptedException {
+        var next = new AtomicInteger();
+        var failed = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(users);
+
+        var start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            executor.execute(() -> {
+                int flow;
+                while ((flow = next.getAndIncrement()) < flows) {
+                    try {
+                        flow(flow);
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        var seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%n%-16s %8s %8s %8s %8s %8s%n", "step", "count", "errors", "p50 ms", "p99 ms", "max ms");
+        for (var step : Step.values()) {
+            var recorder = recorders[step.ordinal()];
+            System.out.printf("%-16s %8d %8d %8.1f %8.1f %8.1f%n", step, recorder.count(), recorder.errors(),
+                    recorder.percentile(0.50), recorder.percentile(0.99), recorder.percentile(1.0));
+        }
+        System.out.printf("%nflows=%d failed=%d elapsed=%.2fs throughput=%.1f flows/s%n",
+                flows, failed.get(), seconds, (flows - failed.get()) / seconds);
+        return failed.get();
+    }
+
+    // One shopper: pay (with a 3DS redirect when asked for), tokenize, receive the token by webhook and get charged with it
+    private void flow(int flow) throws Exception {
+        timed(Step.PAYMENT_METHODS, () -> expect(post("/api/paymentMethods", "{}"), 200));
+
+        var payment = timed(Step.PAYMENT, () -> expect(post("/api/payments", PAYMENT_REQUEST), 200));
+        if (payment.body().contains("RedirectShopper")) {
+            timed(Step.REDIRECT, () -> expect(get("/handleShopperRedirect?redirectResult=loadtest-" + flow), 302));
+        }
+
+        timed(Step.SESSION, () -> expect(post("/api/subscription-create", "{}"), 200));
+
+        var recurringDetailReference = String.format("LT%014d", flow);
+        var webhook = recurringContractWebhook(flow, recurringDetailReference);
+        timed(Step.WEBHOOK, () -> expect(post("/webhooks", webhook), 202));
+
+        // Webhooks are processed asynchronously, the token is usable once it is in Storage
+        timed(Step.TOKEN_STORED, () -> {
+            var deadline = System.nanoTime() + tokenTimeout.toNanos();
+            while (Storage.get(recurringDetailReference) == null) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Token " + recurringDetailReference + " was not stored within " + tokenTimeout);
+                }
+                Thread.sleep(1);
+            }
+            return null;
+        });
+
+        timed(Step.TOKEN_CHARGE, () -> {
+            var response = expect(get("/admin/makepayment/" + recurringDetailReference), 200);
+            if (!response.body().contains("Successfully authorised")) {
+                throw new IllegalStateException("Charge on token " + recurringDetailReference + " failed");
+            }
+            return response;
+        });
+    }
+
+    private String recurringContractWebhook(int flow, String recurringDetailReference) throws Exception {
+        var pspReference = String.format("LTPSP%011d", flow);
+        var shopperReference = "loadtest-shopper-" + flow;
+
+        var amount = new Amount();
+        amount.setCurrency("EUR");
+        amount.setValue(0L);
+
+        var item = new NotificationRequestItem();
+        item.setPspReference(pspReference);
+        item.setMerchantAccountCode(MERCHANT_ACCOUNT);
+        item.setMerchantReference("loadtest-" + flow);
+        item.setAmount(amount);
+        item.setEventCode("RECURRING_CONTRACT");
+        item.setSuccess(true);
+        var signature = hmacValidator.calculateHMAC(item, hmacKey);
+
+        var additionalData = Map.of(
+                "recurring.recurringDetailReference", recurringDetailReference,
+                "recurring.shopperReference", shopperReference,
+                "hmacSignature", signature);
+        var additionalDataJson = new StringBuilder();
+        additionalData.forEach((name, value) -> additionalDataJson
+                .append(additionalDataJson.isEmpty() ? "" : ",")
+                .append('"').append(name).append("\":\"").append(value).append('"'));
+
+        return """
+                {"live":"false","notificationItems":[{"NotificationRequestItem":{\
+                "additionalData":{%s},"amount":{"currency":"EUR","value":0},"eventCode":"RECURRING_CONTRACT",\
+                "merchantAccountCode":"%s","merchantReference":"loadtest-%d","paymentMethod":"visa",\
+                "pspReference":"%s","success":"true"}}]}""".formatted(additionalDataJson, MERCHANT_ACCOUNT, flow, pspReference);
+    }
+
+    private HttpResponse<String> post(String path, String json) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> expect(HttpResponse<String> response, int status) {
+        if (response.statusCode() != status) {
+            throw new IllegalStateException(response.request().uri().getPath() + " answered " + response.statusCode() + ", expected " + status);
+        }
+        return response;
+    }
+
+    private <T> T timed(Step step, StepAction<T> action) throws Exception {
+        var recorder = recorders[step.ordinal()];
+        var start = System.nanoTime();
+        try {
+            var result = action.run();
+            recorder.record(System.nanoTime() - start);
+            return result;
+        } catch (Exception e) {
+            recorder.error();
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface StepAction<T> {
+        T run() throws Exception;
+    }
+}
@@ -0,0 +1,89 @@
+package com.adyen.workshop.loadtest;
+
+import com.adyen.workshop.MainApplication;
+import com.adyen.workshop.util.Threads;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shows how many /api/payments calls can be waiting on Adyen at the same time, with platform and with virtual threads.
+ * The application is started against a {@link AdyenStandIn} with a fixed latency and a deliberately small Tomcat pool,
+ * then the given number of payments is fired at once.
+ *
+ * <pre>
+ * ./gradlew inFlightBenchmark -Pconcurrency=1000 -PlatencyMs=500 -PtomcatThreads=50
+ * </pre>
+ * The virtual thread run needs a Java 21+ runtime, pass -PloadtestJavaVersion=21 to use a toolchain.
+ */
+public class InFlightPaymentsBenchmark {
+
+    private static final String PAYMENT_REQUEST = """
+            {"paymentMethod":{"type":"scheme","encryptedCardNumber":"test_4111111111111111","encryptedExpiryMonth":"test_03",\
+            "encryptedExpiryYear":"test_2030","encryptedSecurityCode":"test_737"}}""";
+
+    public static void main(String[] args) throws Exception {
+        var concurrency = Integer.parseInt(System.getProperty("concurrency", "1000"));
+        var latencyMs = Long.parseLong(System.getProperty("latencyMs", "500"));
+        var tomcatThreads = Integer.parseInt(System.getProperty("tomcatThreads", "50"));
+
+        System.out.printf("concurrency=%d upstream latency=%dms tomcat threads=%d java=%s%n",
+                concurrency, latencyMs, tomcatThreads, Runtime.version());
+
+        try (var upstream = new AdyenStandIn(0, new AdyenStandIn.Settings(latencyMs, 0, 0, 0))) {
+            run("platform threads", false, upstream, concurrency, tomcatThreads);
+            if (Threads.isVirtualThreadsSupported()) {
+                run("virtual threads", true, upstream, concurrency, tomcatThreads);
+            } else {
+                System.out.println("virtual threads: skipped, requires Java 21+");
+            }
+        }
+    }
+
+    private static void run(String mode, boolean virtualThreads, AdyenStandIn upstream, int concurrency, int tomcatThreads) throws Exception {
+        upstream.reset();
+        var context = (ServletWebServerApplicationContext) SpringApplication.run(MainApplication.class,
+                "--server.port=0",
+                "--server.tomcat.threads.max=" + tomcatThreads,
+                "--server.tomcat.max-connections=" + (concurrency * 2),
+                "--server.tomcat.accept-count=" + (concurrency * 2),
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--adyen.endpoint.checkout=" + upstream.getCheckoutEndpoint(),
+                "--ADYEN_API_KEY=loadtest",
+                "--ADYEN_MERCHANT_ACCOUNT=LoadTestMerchant",
+                "--logging.level.com.adyen.workshop=WARN");
+        try {
+            var url = URI.create("http://localhost:" + context.getWebServer().getPort() + "/api/payments");
+            var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+            var start = System.nanoTime();
+            var responses = new ArrayList<CompletableFuture<HttpResponse<Void>>>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                var request = HttpRequest.newBuilder(url)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(PAYMENT_REQUEST))
+                        .build();
+                responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+            }
+            var ok = 0;
+            for (var response : responses) {
+                if (response.join().statusCode() == 200) {
+                    ok++;
+                }
+            }
+            var seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%-17s ok=%d/%d peak in-flight upstream=%d elapsed=%.2fs throughput=%.0f payments/s%n",
+                    mode + ":", ok, concurrency, upstream.getPeakInFlight(), seconds, ok / seconds);
+        } finally {
+            context.close();
+        }
+    }
+}
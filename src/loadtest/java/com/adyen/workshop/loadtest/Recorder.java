@@ -0,0 +1,42 @@
+package com.adyen.workshop.loadtest;
+
+import java.util.Arrays;
+
+// Latencies of one step, kept in full: a run produces at most a few hundred thousand samples
+final class Recorder {
+    private long[] nanos = new long[1024];
+    private int count;
+    private int errors;
+
+    synchronized void record(long latencyNanos) {
+        if (count == nanos.length) {
+            nanos = Arrays.copyOf(nanos, count * 2);
+        }
+        nanos[count++] = latencyNanos;
+    }
+
+    synchronized void error() {
+        errors++;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized int errors() {
+        return errors;
+    }
+
+    /**
+     * @return the latency at the percentile (0.5 for the median, 1.0 for the maximum) in milliseconds
+     */
+    synchronized double percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        var sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        var index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1e6;
+    }
+}
@@ -0,0 +1,200 @@
+package com.adyen.workshop.loadtest;
+
+import com.adyen.workshop.util.Token;
+import com.adyen.workshop.util.TokenJournal;
+import com.adyen.workshop.util.TokenReplicator;
+import com.adyen.workshop.util.TokenRepository;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs three token replicators in this process, each with its own repository, journal and versions file, and checks
+ * that removals survive a rolling restart:
+ *
+ * <ol>
+ *     <li>tokens added on the first instance reach the others;</li>
+ *     <li>the last instance is stopped, and a share of the tokens is removed on the first one;</li>
+ *     <li>the first two instances are restarted on their journals, then the last one rejoins with the removed tokens
+ *     still in its journal.</li>
+ * </ol>
+ * After each step every instance has to hold exactly the expected tokens, and still hold them a few anti-entropy
+ * rounds later. Fast enough to run with every build (see the check task); ReplicationTest covers whole instances.
+ * The process exits with status 1 when the instances do not converge.
+ */
+public class ReplicationCheck {
+
+    private static final String SECRET = "replication-check";
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofMillis(100);
+    private static final Duration ANTI_ENTROPY_INTERVAL = Duration.ofMillis(300);
+    private static final Duration CONVERGE_TIMEOUT = Duration.ofSeconds(30);
+
+    private final Path directory;
+    private final List<Node> nodes = new ArrayList<>();
+    private final Set<Token> expected = new HashSet<>();
+
+    ReplicationCheck(Path directory) {
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var tokens = Integer.parseInt(System.getProperty("tokens", "2000"));
+        var check = new ReplicationCheck(Files.createTempDirectory("replication-check"));
+        var converged = false;
+        try {
+            converged = check.run(tokens);
+        } finally {
+            check.stop();
+        }
+        System.out.println(converged ? "Token replication converged" : "Token replication did not converge, see " + check.directory);
+        System.exit(converged ? 0 : 1);
+    }
+
+    boolean run(int tokens) throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new Node("node-" + i, directory.resolve("node-" + i), freePort()));
+        }
+        for (var node : nodes) {
+            node.start();
+        }
+
+        var first = nodes.get(0);
+        for (int i = 0; i < tokens; i++) {
+            var token = new Token("token-" + i, "scheme", "shopper-" + i % 100);
+            first.repository.add(token);
+            expected.add(token);
+        }
+        if (!converge("added", nodes)) {
+            return false;
+        }
+
+        var last = nodes.get(2);
+        last.stop();
+        for (int i = 0; i < tokens; i += 5) {
+            var token = new Token("token-" + i, "scheme", "shopper-" + i % 100);
+            first.repository.remove(token.recurringReference(), token.shopperReference());
+            expected.remove(token);
+        }
+        if (!converge("removed while the last instance is down", nodes.subList(0, 2))) {
+            return false;
+        }
+
+        // A rolling restart: the removed tokens are only known as tombstones, the last instance still has them
+        for (var node : nodes.subList(0, 2)) {
+            node.stop();
+            node.start();
+        }
+        last.start();
+        return converge("last instance rejoined after a rolling restart", nodes);
+    }
+
+    void stop() {
+        for (var node : nodes) {
+            node.stop();
+        }
+    }
+
+    private boolean converge(String step, List<Node> running) throws InterruptedException {
+        var start = System.nanoTime();
+        var deadline = start + CONVERGE_TIMEOUT.toNanos();
+        while (!matches(running)) {
+            if (System.nanoTime() - deadline > 0) {
+                report(step, running);
+                return false;
+            }
+            Thread.sleep(50);
+        }
+        var millis = (System.nanoTime() - start) / 1_000_000;
+        // A resurrected token would come back with one of the next anti-entropy rounds
+        Thread.sleep(ANTI_ENTROPY_INTERVAL.toMillis() * 3);
+        if (!matches(running)) {
+            report(step, running);
+            return false;
+        }
+        System.out.printf("%s: %d tokens on %d instances after %d ms%n", step, expected.size(), running.size(), millis);
+        return true;
+    }
+
+    private boolean matches(List<Node> running) {
+        for (var node : running) {
+            if (!expected.equals(new HashSet<>(node.repository.getAll()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void report(String step, List<Node> running) {
+        System.out.printf("%s: not converged within %s%n", step, CONVERGE_TIMEOUT);
+        for (var node : running) {
+            var tokens = new HashSet<>(node.repository.getAll());
+            var missing = new HashSet<>(expected);
+            missing.removeAll(tokens);
+            tokens.removeAll(expected);
+            System.out.printf("  %s: %d missing, %d unexpected%n", node.name, missing.size(), tokens.size());
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private final class Node {
+        private final String name;
+        private final Path directory;
+        private final int port;
+
+        private TokenRepository repository;
+        private TokenJournal journal;
+        private TokenReplicator replicator;
+
+        private Node(String name, Path directory, int port) {
+            this.name = name;
+            this.directory = directory;
+            this.port = port;
+        }
+
+        void start() throws IOException {
+            var peers = new ArrayList<InetSocketAddress>();
+            for (var node : nodes) {
+                if (node != this) {
+                    peers.add(InetSocketAddress.createUnresolved("127.0.0.1", node.port));
+                }
+            }
+            repository = new TokenRepository();
+            journal = new TokenJournal(directory, repository, 10, 64 * 1024 * 1024);
+            journal.open();
+            replicator = new TokenReplicator(new TokenReplicator.Settings(name, new InetSocketAddress("127.0.0.1", port), peers,
+                    SECRET, HEARTBEAT_INTERVAL, ANTI_ENTROPY_INTERVAL, 100_000, Duration.ofHours(1),
+                    directory.resolve("tokens.versions")), repository);
+            replicator.open();
+        }
+
+        // Like a shutdown of the instance: replication stops first, the journal is forced last
+        void stop() {
+            try {
+                if (replicator != null) {
+                    replicator.close();
+                }
+                if (journal != null) {
+                    journal.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Stopping " + name, e);
+            } finally {
+                replicator = null;
+                journal = null;
+            }
+        }
+    }
+}
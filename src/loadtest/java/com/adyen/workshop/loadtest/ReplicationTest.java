@@ -0,0 +1,380 @@
+package com.adyen.workshop.loadtest;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.util.HMACValidator;
+import com.adyen.workshop.MainApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs several instances of the application as separate processes on this machine, each with its own token journal
+ * and with token replication between them (storage.replication.*), and checks that their tokens converge:
+ *
+ * <ol>
+ *     <li>tokens are added by signed RECURRING_CONTRACT webhooks to one instance, and a share of them is disabled
+ *     through /admin/disable on another instance once it lists them there;</li>
+ *     <li>the last instance is killed while tokens keep being added and disabled on the others;</li>
+ *     <li>it is restarted on its journal and catches up through anti-entropy;</li>
+ *     <li>tokens are added and disabled on all instances again.</li>
+ * </ol>
+ * After each phase every instance has to export exactly the expected tokens (GET /admin/api/tokens/export) within
+ * convergeTimeoutSeconds. Reports the replication lag, from the webhook being accepted by one instance until the token
+ * is listed by another, and how long the restarted instance took to catch up.
+ * The process exits with status 1 when the instances do not converge; their logs are kept in the printed directory.
+ *
+ * <pre>
+ * ./gradlew replicationTest -Pnodes=3 -Ptokens=1000 -PremoveRate=0.2
+ * </pre>
+ */
+public class ReplicationTest {
+
+    private static final String MERCHANT_ACCOUNT = "LoadTestMerchant";
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final HMACValidator hmacValidator = new HMACValidator();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String hmacKey;
+    private final List<Node> nodes;
+
+    // recurringReference -> shopperReference of the tokens every instance should have
+    private final Map<String, String> expected = new ConcurrentHashMap<>();
+    private final Recorder lag = new Recorder();
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReplicationTest(String hmacKey, List<Node> nodes) {
+        this.hmacKey = hmacKey;
+        this.nodes = nodes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        var nodeCount = Integer.parseInt(System.getProperty("nodes", "3"));
+        var tokens = Integer.parseInt(System.getProperty("tokens", "1000"));
+        var removeRate = Double.parseDouble(System.getProperty("removeRate", "0.2"));
+        var users = Integer.parseInt(System.getProperty("users", "4"));
+        var convergeTimeout = Duration.ofSeconds(Long.parseLong(System.getProperty("convergeTimeoutSeconds", "60")));
+
+        var key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        var hmacKey = HexFormat.of().formatHex(key);
+        var secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        var directory = Files.createTempDirectory("replication-test");
+
+        System.out.printf("nodes=%d tokens per phase=%d removeRate=%.2f users=%d logs=%s java=%s%n",
+                nodeCount, tokens, removeRate, users, directory, Runtime.version());
+
+        var converged = false;
+        try (var standIn = new AdyenStandIn(0, new AdyenStandIn.Settings(0, 0, 0, 0))) {
+            var nodes = new ArrayList<Node>();
+            for (int i = 1; i <= nodeCount; i++) {
+                nodes.add(new Node("node-" + i, freePort(), freePort(), directory));
+            }
+            var common = List.of(
+                    "--adyen.endpoint.checkout=" + standIn.getCheckoutEndpoint(),
+                    "--adyen.endpoint.recurring=" + standIn.getRecurringEndpoint(),
+                    "--ADYEN_API_KEY=loadtest",
+                    "--ADYEN_MERCHANT_ACCOUNT=" + MERCHANT_ACCOUNT,
+                    "--ADYEN_HMAC_KEY=" + hmacKey,
+                    "--storage.replication.secret=" + HexFormat.of().formatHex(secret),
+                    "--logging.level.root=WARN",
+                    "--logging.level.com.adyen.workshop.util.TokenReplicator=INFO");
+            var test = new ReplicationTest(hmacKey, nodes);
+            try {
+                for (var node : nodes) {
+                    node.start(nodes, common);
+                }
+                for (var node : nodes) {
+                    test.awaitReady(node);
+                }
+
+                test.phase("all nodes", tokens, removeRate, users);
+                converged = test.awaitConvergence(nodes, convergeTimeout);
+
+                var restarted = nodes.get(nodes.size() - 1);
+                if (converged && nodes.size() > 1) {
+                    restarted.kill();
+                    test.phase(restarted.name + " down", tokens, removeRate, users);
+                    converged = test.awaitConvergence(nodes.subList(0, nodes.size() - 1), convergeTimeout);
+                }
+                if (converged && nodes.size() > 1) {
+                    var start = System.nanoTime();
+                    restarted.start(nodes, common);
+                    test.awaitReady(restarted);
+                    var started = System.nanoTime();
+                    converged = test.awaitConvergence(List.of(restarted), convergeTimeout);
+                    System.out.printf("%s restarted in %.0f ms, caught up %.0f ms later%n", restarted.name,
+                            (started - start) / 1e6, (System.nanoTime() - started) / 1e6);
+                }
+                if (converged) {
+                    test.phase("all nodes again", tokens, removeRate, users);
+                    converged = test.awaitConvergence(nodes, convergeTimeout);
+                }
+            } finally {
+                for (var node : nodes) {
+                    node.stop();
+                }
+            }
+
+            System.out.printf("%nreplication lag: count=%d errors=%d p50=%.1f ms p99=%.1f ms max=%.1f ms%n",
+                    test.lag.count(), test.lag.errors(), test.lag.percentile(0.5), test.lag.percentile(0.99), test.lag.percentile(1.0));
+        }
+
+        if (!converged) {
+            System.out.printf("FAILED: the instances did not converge, see the logs in %s%n", directory);
+            System.exit(1);
+        }
+        System.out.println("All instances converged");
+        System.exit(0);
+    }
+
+    // Adds tokens on the running instances, each one is listed and possibly disabled on another instance
+    void phase(String name, int tokens, double removeRate, int users) throws InterruptedException {
+        var running = nodes.stream().filter(Node::isRunning).toList();
+        var failed = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(users);
+        var start = System.nanoTime();
+        for (int i = 0; i < tokens; i++) {
+            executor.execute(() -> {
+                try {
+                    token(running, removeRate);
+                } catch (Exception e) {
+                    if (failed.getAndIncrement() < 5) {
+                        System.out.println("Token operation failed: " + e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        System.out.printf("phase '%s': %d tokens, %d failed, %.2fs, %d tokens expected%n",
+                name, tokens, failed.get(), (System.nanoTime() - start) / 1e9, expected.size());
+    }
+
+    private void token(List<Node> running, double removeRate) throws Exception {
+        var random = ThreadLocalRandom.current();
+        var id = next.incrementAndGet();
+        var recurringReference = String.format("RT%014d", id);
+        var shopperReference = "replication-shopper-" + id;
+        var origin = running.get(random.nextInt(running.size()));
+        var other = running.size() == 1 ? origin : running.get((running.indexOf(origin) + 1 + random.nextInt(running.size() - 1)) % running.size());
+
+        var accepted = System.nanoTime();
+        expect(post(origin, "/webhooks", recurringContractWebhook(id, recurringReference, shopperReference)), 202);
+        expected.put(recurringReference, shopperReference);
+
+        // Webhooks are processed asynchronously, then replicated
+        var deadline = accepted + TimeUnit.SECONDS.toNanos(10);
+        while (!expect(get(other, "/admin/api/tokens?shopperReference=" + shopperReference), 200).body().contains(recurringReference)) {
+            if (System.nanoTime() > deadline) {
+                lag.error();
+                throw new IllegalStateException(recurringReference + " accepted by " + origin.name + " not listed by " + other.name + " within 10s");
+            }
+            Thread.sleep(1);
+        }
+        lag.record(System.nanoTime() - accepted);
+
+        if (random.nextDouble() < removeRate) {
+            expected.remove(recurringReference);
+            var response = expect(get(other, "/admin/disable/" + recurringReference), 200);
+            if (!response.body().contains("success")) {
+                throw new IllegalStateException("Disabling " + recurringReference + " on " + other.name + " failed");
+            }
+        }
+    }
+
+    boolean awaitConvergence(List<Node> checked, Duration timeout) throws Exception {
+        var expectedTokens = new TreeSet<>(expected.entrySet().stream().map(e -> e.getKey() + " " + e.getValue()).toList());
+        var start = System.nanoTime();
+        var deadline = start + timeout.toNanos();
+        while (true) {
+            var diverging = new ArrayList<String>();
+            for (var node : checked) {
+                var tokens = export(node);
+                if (!tokens.equals(expectedTokens)) {
+                    var missing = expectedTokens.stream().filter(token -> !tokens.contains(token)).count();
+                    var unexpected = tokens.stream().filter(token -> !expectedTokens.contains(token)).count();
+                    diverging.add(node.name + " (" + missing + " missing, " + unexpected + " unexpected)");
+                }
+            }
+            if (diverging.isEmpty()) {
+                System.out.printf("converged: %s list the same %d tokens after %.0f ms%n",
+                        checked.stream().map(node -> node.name).collect(Collectors.joining(", ")), expectedTokens.size(),
+                        (System.nanoTime() - start) / 1e6);
+                return true;
+            }
+            if (System.nanoTime() > deadline) {
+                System.out.println("not converged: " + String.join(", ", diverging));
+                return false;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private Set<String> export(Node node) throws Exception {
+        var body = expect(get(node, "/admin/api/tokens/export"), 200).body();
+        var tokens = new TreeSet<String>();
+        for (var line : body.split("\n")) {
+            if (!line.isBlank()) {
+                var token = objectMapper.readTree(line);
+                tokens.add(token.get("recurringReference").asText() + " " + token.get("shopperReference").asText());
+            }
+        }
+        return tokens;
+    }
+
+    void awaitReady(Node node) throws Exception {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        while (System.nanoTime() < deadline) {
+            if (!node.isRunning()) {
+                throw new IllegalStateException(node.name + " exited before it was ready, see " + node.log);
+            }
+            try {
+                if (get(node, "/hello-world").statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(20);
+        }
+        throw new IllegalStateException(node.name + " did not start within 120s");
+    }
+
+    private String recurringContractWebhook(int id, String recurringReference, String shopperReference) throws Exception {
+        var pspReference = String.format("RTPSP%011d", id);
+
+        var amount = new Amount();
+        amount.setCurrency("EUR");
+        amount.setValue(0L);
+
+        var item = new NotificationRequestItem();
+        item.setPspReference(pspReference);
+        item.setMerchantAccountCode(MERCHANT_ACCOUNT);
+        item.setMerchantReference("replication-" + id);
+        item.setAmount(amount);
+        item.setEventCode("RECURRING_CONTRACT");
+        item.setSuccess(true);
+        var signature = hmacValidator.calculateHMAC(item, hmacKey);
+
+        return """
+                {"live":"false","notificationItems":[{"NotificationRequestItem":{\
+                "additionalData":{"recurring.recurringDetailReference":"%s","recurring.shopperReference":"%s","hmacSignature":"%s"},\
+                "amount":{"currency":"EUR","value":0},"eventCode":"RECURRING_CONTRACT",\
+                "merchantAccountCode":"%s","merchantReference":"replication-%d","paymentMethod":"visa",\
+                "pspReference":"%s","success":"true"}}]}""".formatted(recurringReference, shopperReference, signature,
+                MERCHANT_ACCOUNT, id, pspReference);
+    }
+
+    private HttpResponse<String> post(Node node, String path, String json) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create(node.baseUrl() + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(Node node, String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(node.baseUrl() + path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> expect(HttpResponse<String> response, int status) {
+        if (response.statusCode() != status) {
+            throw new IllegalStateException(response.request().uri() + " answered " + response.statusCode() + ", expected " + status);
+        }
+        return response;
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // One instance of the application, restarted on the same ports and journal
+    static final class Node {
+        final String name;
+        final int httpPort;
+        final int replicationPort;
+        final Path journal;
+        final Path log;
+        private volatile Process process;
+
+        Node(String name, int httpPort, int replicationPort, Path directory) {
+            this.name = name;
+            this.httpPort = httpPort;
+            this.replicationPort = replicationPort;
+            this.journal = directory.resolve(name);
+            this.log = directory.resolve(name + ".log");
+        }
+
+        String baseUrl() {
+            return "http://localhost:" + httpPort;
+        }
+
+        boolean isRunning() {
+            return process != null && process.isAlive();
+        }
+
+        void start(List<Node> nodes, List<String> common) throws IOException {
+            var peers = nodes.stream().filter(node -> node != this).map(node -> "localhost:" + node.replicationPort).collect(Collectors.joining(","));
+            var command = new ArrayList<>(List.of(
+                    Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Xmx512m",
+                    "-cp", System.getProperty("java.class.path"),
+                    MainApplication.class.getName(),
+                    "--server.port=" + httpPort,
+                    "--storage.journal.enabled=true",
+                    "--storage.journal.directory=" + journal,
+                    "--storage.replication.enabled=true",
+                    "--storage.replication.node-id=" + name,
+                    "--storage.replication.bind-address=127.0.0.1",
+                    "--storage.replication.port=" + replicationPort,
+                    "--storage.replication.peers=" + peers));
+            command.addAll(common);
+            process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()))
+                    .start();
+        }
+
+        // Like a crash: no shutdown hooks, the journal keeps what it had forced to disk
+        void kill() throws InterruptedException {
+            process.destroyForcibly();
+            process.waitFor(30, TimeUnit.SECONDS);
+            System.out.printf("%s killed%n", name);
+        }
+
+        void stop() throws InterruptedException {
+            if (process == null) {
+                return;
+            }
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.adyen.workshop.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+/**
+ * Compares how fast the application becomes useful in each deployment mode: the plain jar, the AOT processed jar,
+ * the extracted jar with an AppCDS archive and the GraalVM native image (see the aot and native profiles in build.gradle).
+ * Every run starts the application as a separate process against an {@link AdyenStandIn} and measures
+ *
+ * <ul>
+ *     <li>startup: from launching the process until GET /hello-world answers,</li>
+ *     <li>the latency of the first GET / (Thymeleaf), POST /api/paymentMethods and POST /api/payments,
+ *     which still pay for class loading, JIT warm-up and the first connection to Adyen.</li>
+ * </ul>
+ *
+ * <pre>
+ * ./gradlew cdsArchive nativeCompile startupBenchmark -Paot -Pnative -Pruns=5
+ * </pre>
+ * Modes whose artefact has not been built are skipped, select modes with e.g. -Pmodes=jvm,cds.
+ */
+public class StartupBenchmark {
+
+    private static final String AOT_INITIALIZER = "com/adyen/workshop/MainApplication__ApplicationContextInitializer.class";
+
+    private static final String PAYMENT_METHODS_REQUEST = "{}";
+    private static final String PAYMENT_REQUEST = """
+            {"paymentMethod":{"type":"scheme","encryptedCardNumber":"test_4111111111111111","encryptedExpiryMonth":"test_03",\
+            "encryptedExpiryYear":"test_2030","encryptedSecurityCode":"test_737"}}""";
+
+    private static final String[] METRICS = {"startup", "GET /", "paymentMethods", "payments"};
+
+    private record Mode(String name, Path workingDirectory, List<String> command) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var runs = Integer.parseInt(System.getProperty("runs", "5"));
+        var selected = System.getProperty("modes");
+        var modes = modes(Path.of(System.getProperty("jar")), Path.of(System.getProperty("cdsDirectory")),
+                Path.of(System.getProperty("nativeImage")));
+        if (selected != null) {
+            var names = Arrays.asList(selected.split(","));
+            modes.removeIf(mode -> !names.contains(mode.name()));
+        }
+        System.out.printf("runs=%d modes=%s java=%s%n", runs, modes.stream().map(Mode::name).toList(), Runtime.version());
+
+        var client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        try (var upstream = new AdyenStandIn(0, new AdyenStandIn.Settings(0, 0, 0, 0))) {
+            System.out.printf("%-8s %12s %12s %16s %12s   (medians in ms)%n", "mode", METRICS[0], METRICS[1], METRICS[2], METRICS[3]);
+            for (var mode : modes) {
+                var samples = new LinkedHashMap<String, List<Double>>();
+                for (int i = 0; i < runs; i++) {
+                    run(mode, upstream, client).forEach((metric, millis) -> samples.computeIfAbsent(metric, key -> new ArrayList<>()).add(millis));
+                }
+                System.out.printf("%-8s %12.0f %12.1f %16.1f %12.1f%n", mode.name(),
+                        median(samples.get(METRICS[0])), median(samples.get(METRICS[1])),
+                        median(samples.get(METRICS[2])), median(samples.get(METRICS[3])));
+            }
+        }
+    }
+
+    private static List<Mode> modes(Path jar, Path cdsDirectory, Path nativeImage) throws IOException {
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var modes = new ArrayList<Mode>();
+        modes.add(new Mode("jvm", jar.getParent(), List.of(java, "-jar", jar.toString())));
+        if (isAotProcessed(jar)) {
+            modes.add(new Mode("aot", jar.getParent(), List.of(java, "-Dspring.aot.enabled=true", "-jar", jar.toString())));
+        } else {
+            System.out.println("aot: skipped, build the jar with -Paot");
+        }
+
+        // The archive only applies to the JVM that created it, cdsArchive uses the java on the PATH
+        var cdsJar = cdsDirectory.resolve("application.jar");
+        if (Files.exists(cdsDirectory.resolve("application.jsa"))) {
+            var command = new ArrayList<>(List.of(java, "-XX:SharedArchiveFile=application.jsa", "-Xlog:cds=off", "-Xlog:cds+dynamic=off"));
+            if (isAotProcessed(cdsJar)) {
+                command.add("-Dspring.aot.enabled=true");
+            }
+            command.addAll(List.of("-jar", "application.jar"));
+            modes.add(new Mode("cds", cdsDirectory, command));
+        } else {
+            System.out.println("cds: skipped, run ./gradlew cdsArchive first");
+        }
+
+        if (Files.isExecutable(nativeImage)) {
+            modes.add(new Mode("native", nativeImage.getParent(), List.of(nativeImage.toString())));
+        } else {
+            System.out.println("native: skipped, run ./gradlew nativeCompile -Pnative first");
+        }
+        return modes;
+    }
+
+    private static LinkedHashMap<String, Double> run(Mode mode, AdyenStandIn upstream, HttpClient client) throws Exception {
+        var port = freePort();
+        var command = new ArrayList<>(mode.command());
+        command.addAll(List.of(
+                "--server.port=" + port,
+                "--adyen.endpoint.checkout=" + upstream.getCheckoutEndpoint(),
+                "--adyen.endpoint.recurring=" + upstream.getRecurringEndpoint(),
+                "--ADYEN_API_KEY=loadtest",
+                "--ADYEN_MERCHANT_ACCOUNT=LoadTestMerchant",
+                "--logging.level.root=WARN"));
+        var base = "http://localhost:" + port;
+
+        var start = System.nanoTime();
+        var process = new ProcessBuilder(command)
+                .directory(mode.workingDirectory().toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            var results = new LinkedHashMap<String, Double>();
+            awaitReady(process, client, base + "/hello-world");
+            results.put(METRICS[0], millisSince(start));
+            results.put(METRICS[1], time(client, HttpRequest.newBuilder(URI.create(base + "/")).GET().build()));
+            results.put(METRICS[2], time(client, post(base + "/api/paymentMethods", PAYMENT_METHODS_REQUEST)));
+            results.put(METRICS[3], time(client, post(base + "/api/payments", PAYMENT_REQUEST)));
+            return results;
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static void awaitReady(Process process, HttpClient client, String url) throws Exception {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        var request = HttpRequest.newBuilder(URI.create(url)).GET().build();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited with " + process.exitValue() + " before it was ready");
+            }
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException("Application did not start within 120s");
+    }
+
+    private static double time(HttpClient client, HttpRequest request) throws Exception {
+        var start = System.nanoTime();
+        var status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        var millis = millisSince(start);
+        if (status != 200) {
+            throw new IllegalStateException(request.uri() + " answered " + status);
+        }
+        return millis;
+    }
+
+    private static HttpRequest post(String url, String json) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private static boolean isAotProcessed(Path jar) throws IOException {
+        if (!Files.exists(jar)) {
+            return false;
+        }
+        try (var zip = new ZipFile(jar.toFile())) {
+            return zip.getEntry("BOOT-INF/classes/" + AOT_INITIALIZER) != null || zip.getEntry(AOT_INITIALIZER) != null;
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static double median(List<Double> values) {
+        var sorted = values.stream().sorted().toList();
+        var middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+}
@@ -1,13 +1,17 @@
 package com.adyen.workshop;
 
+import com.adyen.workshop.configurations.AdyenRuntimeHints;
 import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.Threads;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
 
 @SpringBootApplication
+@ImportRuntimeHints(AdyenRuntimeHints.class)
 public class MainApplication {
     private final ApplicationConfiguration applicationConfiguration;
 
@@ -28,6 +32,7 @@ public class MainApplication {
                 "\nAdyen API Key: " + (applicationConfiguration.getAdyenApiKey() != null) +
                 "\nAdyen Merchant Account: " + (applicationConfiguration.getAdyenMerchantAccount() != null) +
                 "\nAdyen Client Key:" + (applicationConfiguration.getAdyenClientKey() != null) +
+                "\nVirtual threads: " + (applicationConfiguration.isVirtualThreadsEnabled() ? (Threads.isVirtualThreadsSupported() ? "enabled" : "requested, but Java 21+ is required") : "disabled") +
                 "\n----------------------------------------------------------");
     }
 }
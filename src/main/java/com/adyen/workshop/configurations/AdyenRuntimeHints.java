@@ -0,0 +1,100 @@
+package com.adyen.workshop.configurations;
+
+import com.adyen.model.ApiError;
+import com.adyen.model.checkout.CreateCheckoutSessionRequest;
+import com.adyen.model.checkout.CreateCheckoutSessionResponse;
+import com.adyen.model.checkout.PaymentDetailsRequest;
+import com.adyen.model.checkout.PaymentDetailsResponse;
+import com.adyen.model.checkout.PaymentMethodsRequest;
+import com.adyen.model.checkout.PaymentMethodsResponse;
+import com.adyen.model.checkout.PaymentRequest;
+import com.adyen.model.checkout.PaymentResponse;
+import com.adyen.model.notification.NotificationRequest;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.model.recurring.DisableRequest;
+import com.adyen.model.recurring.DisableResult;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.ExecutableMode;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+Reflection hints for the native image, used when the application is AOT processed (see the aot and native profiles in build.gradle).
+The Adyen models are (de)serialized by Jackson through reflection: the ones ApiController, AsyncApiController,
+SubscriptionController and WebhookController exchange with Adyen and the browser, plus every model reachable from them.
+The oneOf types (e.g. CheckoutPaymentMethod) only reference their alternatives through their getters, so those are followed as well.
+ */
+public class AdyenRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final String MODEL_PACKAGE = "com.adyen.model.";
+
+    private static final List<Class<?>> MODELS = List.of(
+            PaymentMethodsRequest.class, PaymentMethodsResponse.class,
+            PaymentRequest.class, PaymentResponse.class,
+            PaymentDetailsRequest.class, PaymentDetailsResponse.class,
+            CreateCheckoutSessionRequest.class, CreateCheckoutSessionResponse.class,
+            DisableRequest.class, DisableResult.class,
+            NotificationRequest.class, NotificationRequestItem.class,
+            ApiError.class);
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(), reachableModels().toArray(Type[]::new));
+
+        // Threads looks up virtual threads reflectively, they exist on Java 21+
+        hints.reflection().registerType(Thread.class, type -> type.withMethod("ofVirtual", List.of(), ExecutableMode.INVOKE));
+        hints.reflection().registerTypeIfPresent(classLoader, "java.lang.Thread$Builder", MemberCategory.INVOKE_PUBLIC_METHODS);
+        hints.reflection().registerTypeIfPresent(classLoader, "java.lang.Thread$Builder$OfVirtual", MemberCategory.INVOKE_PUBLIC_METHODS);
+
+        hints.resources().registerPattern("templates/*.html");
+        hints.resources().registerPattern("logback/*.xml");
+    }
+
+    static Set<Class<?>> reachableModels() {
+        var models = new LinkedHashSet<Class<?>>();
+        var pending = new ArrayDeque<Class<?>>(MODELS);
+        while (!pending.isEmpty()) {
+            var model = pending.poll();
+            if (!models.add(model)) {
+                continue;
+            }
+            for (var nested : model.getDeclaredClasses()) {
+                enqueue(nested, pending);
+            }
+            for (var field : model.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    enqueue(field.getGenericType(), pending);
+                }
+            }
+            for (var method : model.getMethods()) {
+                if (method.getParameterCount() == 0 && method.getName().startsWith("get")) {
+                    enqueue(method.getGenericReturnType(), pending);
+                }
+            }
+        }
+        return models;
+    }
+
+    private static void enqueue(Type type, ArrayDeque<Class<?>> pending) {
+        if (type instanceof ParameterizedType parameterized) {
+            enqueue(parameterized.getRawType(), pending);
+            for (var argument : parameterized.getActualTypeArguments()) {
+                enqueue(argument, pending);
+            }
+        } else if (type instanceof Class<?> clazz) {
+            var component = clazz.isArray() ? clazz.getComponentType() : clazz;
+            if (component.getName().startsWith(MODEL_PACKAGE)) {
+                pending.add(component);
+            }
+        }
+    }
+}
@@ -20,6 +20,264 @@ public class ApplicationConfiguration {
     @Value("${ADYEN_HMAC_KEY:#{null}}") // Don't edit @Value(...)
     private String adyenHmacKey; // We'll cover this in step 16.
 
+    @Value("${storage.journal.enabled:false}")
+    private boolean storageJournalEnabled;
+
+    @Value("${storage.journal.directory:data}")
+    private String storageJournalDirectory;
+
+    @Value("${storage.journal.commit-interval-ms:10}")
+    private long storageJournalCommitIntervalMs;
+
+    @Value("${storage.journal.compaction-threshold-mb:64}")
+    private long storageJournalCompactionThresholdMb;
+
+    @Value("${webhook.pipeline.queue-capacity:10000}")
+    private int webhookQueueCapacity;
+
+    @Value("${webhook.pipeline.workers:4}")
+    private int webhookWorkers;
+
+    @Value("${webhook.pipeline.batch-size:100}")
+    private int webhookBatchSize;
+
+    @Value("${webhook.pipeline.enqueue-timeout-ms:50}")
+    private long webhookEnqueueTimeoutMs;
+
+    @Value("${webhook.pipeline.drain-timeout-ms:30000}")
+    private long webhookDrainTimeoutMs;
+
+    @Value("${webhook.validation.threads:4}")
+    private int webhookValidationThreads;
+
+    @Value("${webhook.validation.queue-capacity:1000}")
+    private int webhookValidationQueueCapacity;
+
+    @Value("${webhook.dedup.max-entries:100000}")
+    private int webhookDedupMaxEntries;
+
+    @Value("${webhook.dedup.ttl-minutes:1440}")
+    private long webhookDedupTtlMinutes;
+
+    @Value("${checkout.payment-methods-cache.enabled:true}")
+    private boolean paymentMethodsCacheEnabled;
+
+    @Value("${checkout.payment-methods-cache.ttl-seconds:300}")
+    private long paymentMethodsCacheTtlSeconds;
+
+    @Value("${checkout.payment-methods-cache.refresh-ahead-seconds:240}")
+    private long paymentMethodsCacheRefreshAheadSeconds;
+
+    @Value("${checkout.payment-methods-cache.amount-bucket:1000}")
+    private long paymentMethodsCacheAmountBucket;
+
+    @Value("${checkout.payment-methods-cache.max-entries:1000}")
+    private int paymentMethodsCacheMaxEntries;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${adyen.endpoint.checkout:#{null}}")
+    private String adyenCheckoutEndpoint;
+
+    @Value("${adyen.endpoint.recurring:#{null}}")
+    private String adyenRecurringEndpoint;
+
+    @Value("${adyen.http.pooled:true}")
+    private boolean adyenHttpPooled;
+
+    @Value("${adyen.http.max-connections:200}")
+    private int adyenHttpMaxConnections;
+
+    @Value("${adyen.http.max-connections-per-route:100}")
+    private int adyenHttpMaxConnectionsPerRoute;
+
+    @Value("${adyen.http.connect-timeout-ms:5000}")
+    private int adyenHttpConnectTimeoutMs;
+
+    @Value("${adyen.http.read-timeout-ms:30000}")
+    private int adyenHttpReadTimeoutMs;
+
+    @Value("${adyen.http.connection-request-timeout-ms:5000}")
+    private int adyenHttpConnectionRequestTimeoutMs;
+
+    @Value("${adyen.http.http2:false}")
+    private boolean adyenHttp2;
+
+    @Value("${billing.max-concurrency:20}")
+    private int billingMaxConcurrency;
+
+    @Value("${billing.rate-per-second:50}")
+    private double billingRatePerSecond;
+
+    @Value("${ADYEN_HMAC_PREVIOUS_KEYS:}")
+    private String[] adyenHmacPreviousKeys;
+
+    @Value("${webhook.log.sample-rate:0.01}")
+    private double webhookLogSampleRate;
+
+    @Value("${checkout.payments.idempotency.ttl-minutes:60}")
+    private long paymentsIdempotencyTtlMinutes;
+
+    @Value("${checkout.payments.idempotency.max-entries:10000}")
+    private int paymentsIdempotencyMaxEntries;
+
+    @Value("${adyen.resilience.enabled:true}")
+    private boolean adyenResilienceEnabled;
+
+    @Value("${adyen.resilience.bulkhead.max-concurrent:50}")
+    private int adyenBulkheadMaxConcurrent;
+
+    @Value("${adyen.resilience.bulkhead.max-wait-ms:20}")
+    private long adyenBulkheadMaxWaitMs;
+
+    @Value("${adyen.resilience.circuit-breaker.window:50}")
+    private int adyenCircuitBreakerWindow;
+
+    @Value("${adyen.resilience.circuit-breaker.minimum-calls:20}")
+    private int adyenCircuitBreakerMinimumCalls;
+
+    @Value("${adyen.resilience.circuit-breaker.failure-rate:0.5}")
+    private double adyenCircuitBreakerFailureRate;
+
+    @Value("${adyen.resilience.circuit-breaker.open-ms:10000}")
+    private long adyenCircuitBreakerOpenMs;
+
+    @Value("${adyen.resilience.circuit-breaker.half-open-calls:5}")
+    private int adyenCircuitBreakerHalfOpenCalls;
+
+    @Value("${adyen.resilience.timeout.percentile:0.99}")
+    private double adyenTimeoutPercentile;
+
+    @Value("${adyen.resilience.timeout.multiplier:3}")
+    private double adyenTimeoutMultiplier;
+
+    @Value("${adyen.resilience.timeout.min-ms:2000}")
+    private long adyenTimeoutMinMs;
+
+    @Value("${checkout.sessions.pool.enabled:false}")
+    private boolean sessionPoolEnabled;
+
+    @Value("${checkout.sessions.pool.min-size:0}")
+    private int sessionPoolMinSize;
+
+    @Value("${checkout.sessions.pool.max-size:50}")
+    private int sessionPoolMaxSize;
+
+    @Value("${checkout.sessions.pool.lead-seconds:10}")
+    private double sessionPoolLeadSeconds;
+
+    @Value("${checkout.sessions.pool.evict-before-expiry-seconds:900}")
+    private long sessionPoolEvictBeforeExpirySeconds;
+
+    @Value("${checkout.sessions.pool.refill-interval-ms:1000}")
+    private long sessionPoolRefillIntervalMs;
+
+    @Value("${checkout.sessions.pool.refill-threads:4}")
+    private int sessionPoolRefillThreads;
+
+    @Value("${checkout.sessions.pool.max-keys:16}")
+    private int sessionPoolMaxKeys;
+
+    @Value("${webhook.event-log.enabled:false}")
+    private boolean webhookEventLogEnabled;
+
+    @Value("${webhook.event-log.directory:data/webhooks}")
+    private String webhookEventLogDirectory;
+
+    @Value("${webhook.event-log.commit-interval-ms:10}")
+    private long webhookEventLogCommitIntervalMs;
+
+    @Value("${webhook.event-log.segment-size-mb:256}")
+    private long webhookEventLogSegmentSizeMb;
+
+    @Value("${webhook.event-log.replay-on-startup:false}")
+    private boolean webhookEventLogReplayOnStartup;
+
+    @Value("${webhook.event-log.replay-lanes:8}")
+    private int webhookEventLogReplayLanes;
+
+    @Value("${logging.sample-rate.payment-methods:0.01}")
+    private double loggingSampleRatePaymentMethods;
+
+    @Value("${logging.sample-rate.payments:0.01}")
+    private double loggingSampleRatePayments;
+
+    @Value("${logging.sample-rate.payment-details:0.01}")
+    private double loggingSampleRatePaymentDetails;
+
+    @Value("${logging.sample-rate.admin-payment:1.0}")
+    private double loggingSampleRateAdminPayment;
+
+    @Value("${logging.redaction.additional-fields:}")
+    private String[] loggingRedactionAdditionalFields;
+
+    @Value("${checkout.rate-limit.enabled:true}")
+    private boolean rateLimitEnabled;
+
+    @Value("${checkout.rate-limit.max-keys:100000}")
+    private int rateLimitMaxKeys;
+
+    @Value("${checkout.rate-limit.payments.ip.per-minute:60}")
+    private int rateLimitPaymentsIpPerMinute;
+
+    @Value("${checkout.rate-limit.payments.ip.burst:20}")
+    private int rateLimitPaymentsIpBurst;
+
+    @Value("${checkout.rate-limit.payment-details.ip.per-minute:60}")
+    private int rateLimitPaymentDetailsIpPerMinute;
+
+    @Value("${checkout.rate-limit.payment-details.ip.burst:20}")
+    private int rateLimitPaymentDetailsIpBurst;
+
+    @Value("${checkout.rate-limit.subscription-create.ip.per-minute:20}")
+    private int rateLimitSubscriptionCreateIpPerMinute;
+
+    @Value("${checkout.rate-limit.subscription-create.ip.burst:10}")
+    private int rateLimitSubscriptionCreateIpBurst;
+
+    @Value("${payments.ledger.max-payments:1000000}")
+    private int paymentLedgerMaxPayments;
+
+    @Value("${payments.ledger.max-events:4000000}")
+    private int paymentLedgerMaxEvents;
+
+    @Value("${storage.replication.enabled:false}")
+    private boolean storageReplicationEnabled;
+
+    @Value("${storage.replication.node-id:}")
+    private String storageReplicationNodeId;
+
+    @Value("${storage.replication.bind-address:0.0.0.0}")
+    private String storageReplicationBindAddress;
+
+    @Value("${storage.replication.port:7701}")
+    private int storageReplicationPort;
+
+    @Value("${storage.replication.peers:}")
+    private String[] storageReplicationPeers;
+
+    @Value("${storage.replication.secret:}")
+    private String storageReplicationSecret;
+
+    @Value("${storage.replication.heartbeat-interval-ms:1000}")
+    private long storageReplicationHeartbeatIntervalMs;
+
+    @Value("${storage.replication.anti-entropy-interval-seconds:30}")
+    private long storageReplicationAntiEntropyIntervalSeconds;
+
+    @Value("${storage.replication.max-pending-changes:100000}")
+    private int storageReplicationMaxPendingChanges;
+
+    @Value("${storage.replication.tombstone-retention-hours:168}")
+    private long storageReplicationTombstoneRetentionHours;
+
+    @Value("${storage.replication.versions-file:${storage.journal.directory:data}/tokens.versions}")
+    private String storageReplicationVersionsFile;
+
+    @Value("${checkout.sessions.base-url:}")
+    private String sessionBaseUrl;
+
     public int getServerPort() {
         return serverPort;
     }
@@ -59,4 +317,692 @@ public class ApplicationConfiguration {
     public void setAdyenHmacKey(String adyenHmacKey) {
         this.adyenHmacKey = adyenHmacKey;
     }
+
+    public boolean isStorageJournalEnabled() {
+        return storageJournalEnabled;
+    }
+
+    public void setStorageJournalEnabled(boolean storageJournalEnabled) {
+        this.storageJournalEnabled = storageJournalEnabled;
+    }
+
+    public String getStorageJournalDirectory() {
+        return storageJournalDirectory;
+    }
+
+    public void setStorageJournalDirectory(String storageJournalDirectory) {
+        this.storageJournalDirectory = storageJournalDirectory;
+    }
+
+    public long getStorageJournalCommitIntervalMs() {
+        return storageJournalCommitIntervalMs;
+    }
+
+    public void setStorageJournalCommitIntervalMs(long storageJournalCommitIntervalMs) {
+        this.storageJournalCommitIntervalMs = storageJournalCommitIntervalMs;
+    }
+
+    public long getStorageJournalCompactionThresholdMb() {
+        return storageJournalCompactionThresholdMb;
+    }
+
+    public void setStorageJournalCompactionThresholdMb(long storageJournalCompactionThresholdMb) {
+        this.storageJournalCompactionThresholdMb = storageJournalCompactionThresholdMb;
+    }
+
+    public int getWebhookQueueCapacity() {
+        return webhookQueueCapacity;
+    }
+
+    public void setWebhookQueueCapacity(int webhookQueueCapacity) {
+        this.webhookQueueCapacity = webhookQueueCapacity;
+    }
+
+    public int getWebhookWorkers() {
+        return webhookWorkers;
+    }
+
+    public void setWebhookWorkers(int webhookWorkers) {
+        this.webhookWorkers = webhookWorkers;
+    }
+
+    public int getWebhookBatchSize() {
+        return webhookBatchSize;
+    }
+
+    public void setWebhookBatchSize(int webhookBatchSize) {
+        this.webhookBatchSize = webhookBatchSize;
+    }
+
+    public long getWebhookEnqueueTimeoutMs() {
+        return webhookEnqueueTimeoutMs;
+    }
+
+    public void setWebhookEnqueueTimeoutMs(long webhookEnqueueTimeoutMs) {
+        this.webhookEnqueueTimeoutMs = webhookEnqueueTimeoutMs;
+    }
+
+    public long getWebhookDrainTimeoutMs() {
+        return webhookDrainTimeoutMs;
+    }
+
+    public void setWebhookDrainTimeoutMs(long webhookDrainTimeoutMs) {
+        this.webhookDrainTimeoutMs = webhookDrainTimeoutMs;
+    }
+
+    public int getWebhookValidationThreads() {
+        return webhookValidationThreads;
+    }
+
+    public void setWebhookValidationThreads(int webhookValidationThreads) {
+        this.webhookValidationThreads = webhookValidationThreads;
+    }
+
+    public int getWebhookValidationQueueCapacity() {
+        return webhookValidationQueueCapacity;
+    }
+
+    public void setWebhookValidationQueueCapacity(int webhookValidationQueueCapacity) {
+        this.webhookValidationQueueCapacity = webhookValidationQueueCapacity;
+    }
+
+    public int getWebhookDedupMaxEntries() {
+        return webhookDedupMaxEntries;
+    }
+
+    public void setWebhookDedupMaxEntries(int webhookDedupMaxEntries) {
+        this.webhookDedupMaxEntries = webhookDedupMaxEntries;
+    }
+
+    public long getWebhookDedupTtlMinutes() {
+        return webhookDedupTtlMinutes;
+    }
+
+    public void setWebhookDedupTtlMinutes(long webhookDedupTtlMinutes) {
+        this.webhookDedupTtlMinutes = webhookDedupTtlMinutes;
+    }
+
+    public boolean isPaymentMethodsCacheEnabled() {
+        return paymentMethodsCacheEnabled;
+    }
+
+    public void setPaymentMethodsCacheEnabled(boolean paymentMethodsCacheEnabled) {
+        this.paymentMethodsCacheEnabled = paymentMethodsCacheEnabled;
+    }
+
+    public long getPaymentMethodsCacheTtlSeconds() {
+        return paymentMethodsCacheTtlSeconds;
+    }
+
+    public void setPaymentMethodsCacheTtlSeconds(long paymentMethodsCacheTtlSeconds) {
+        this.paymentMethodsCacheTtlSeconds = paymentMethodsCacheTtlSeconds;
+    }
+
+    public long getPaymentMethodsCacheRefreshAheadSeconds() {
+        return paymentMethodsCacheRefreshAheadSeconds;
+    }
+
+    public void setPaymentMethodsCacheRefreshAheadSeconds(long paymentMethodsCacheRefreshAheadSeconds) {
+        this.paymentMethodsCacheRefreshAheadSeconds = paymentMethodsCacheRefreshAheadSeconds;
+    }
+
+    public long getPaymentMethodsCacheAmountBucket() {
+        return paymentMethodsCacheAmountBucket;
+    }
+
+    public void setPaymentMethodsCacheAmountBucket(long paymentMethodsCacheAmountBucket) {
+        this.paymentMethodsCacheAmountBucket = paymentMethodsCacheAmountBucket;
+    }
+
+    public int getPaymentMethodsCacheMaxEntries() {
+        return paymentMethodsCacheMaxEntries;
+    }
+
+    public void setPaymentMethodsCacheMaxEntries(int paymentMethodsCacheMaxEntries) {
+        this.paymentMethodsCacheMaxEntries = paymentMethodsCacheMaxEntries;
+    }
+
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+        this.virtualThreadsEnabled = virtualThreadsEnabled;
+    }
+
+    public String getAdyenCheckoutEndpoint() {
+        return adyenCheckoutEndpoint;
+    }
+
+    public void setAdyenCheckoutEndpoint(String adyenCheckoutEndpoint) {
+        this.adyenCheckoutEndpoint = adyenCheckoutEndpoint;
+    }
+
+    public String getAdyenRecurringEndpoint() {
+        return adyenRecurringEndpoint;
+    }
+
+    public void setAdyenRecurringEndpoint(String adyenRecurringEndpoint) {
+        this.adyenRecurringEndpoint = adyenRecurringEndpoint;
+    }
+
+    public boolean isAdyenHttpPooled() {
+        return adyenHttpPooled;
+    }
+
+    public void setAdyenHttpPooled(boolean adyenHttpPooled) {
+        this.adyenHttpPooled = adyenHttpPooled;
+    }
+
+    public int getAdyenHttpMaxConnections() {
+        return adyenHttpMaxConnections;
+    }
+
+    public void setAdyenHttpMaxConnections(int adyenHttpMaxConnections) {
+        this.adyenHttpMaxConnections = adyenHttpMaxConnections;
+    }
+
+    public int getAdyenHttpMaxConnectionsPerRoute() {
+        return adyenHttpMaxConnectionsPerRoute;
+    }
+
+    public void setAdyenHttpMaxConnectionsPerRoute(int adyenHttpMaxConnectionsPerRoute) {
+        this.adyenHttpMaxConnectionsPerRoute = adyenHttpMaxConnectionsPerRoute;
+    }
+
+    public int getAdyenHttpConnectTimeoutMs() {
+        return adyenHttpConnectTimeoutMs;
+    }
+
+    public void setAdyenHttpConnectTimeoutMs(int adyenHttpConnectTimeoutMs) {
+        this.adyenHttpConnectTimeoutMs = adyenHttpConnectTimeoutMs;
+    }
+
+    public int getAdyenHttpReadTimeoutMs() {
+        return adyenHttpReadTimeoutMs;
+    }
+
+    public void setAdyenHttpReadTimeoutMs(int adyenHttpReadTimeoutMs) {
+        this.adyenHttpReadTimeoutMs = adyenHttpReadTimeoutMs;
+    }
+
+    public int getAdyenHttpConnectionRequestTimeoutMs() {
+        return adyenHttpConnectionRequestTimeoutMs;
+    }
+
+    public void setAdyenHttpConnectionRequestTimeoutMs(int adyenHttpConnectionRequestTimeoutMs) {
+        this.adyenHttpConnectionRequestTimeoutMs = adyenHttpConnectionRequestTimeoutMs;
+    }
+
+    public boolean isAdyenHttp2() {
+        return adyenHttp2;
+    }
+
+    public void setAdyenHttp2(boolean adyenHttp2) {
+        this.adyenHttp2 = adyenHttp2;
+    }
+
+    public int getBillingMaxConcurrency() {
+        return billingMaxConcurrency;
+    }
+
+    public void setBillingMaxConcurrency(int billingMaxConcurrency) {
+        this.billingMaxConcurrency = billingMaxConcurrency;
+    }
+
+    public double getBillingRatePerSecond() {
+        return billingRatePerSecond;
+    }
+
+    public void setBillingRatePerSecond(double billingRatePerSecond) {
+        this.billingRatePerSecond = billingRatePerSecond;
+    }
+
+    public String[] getAdyenHmacPreviousKeys() {
+        return adyenHmacPreviousKeys;
+    }
+
+    public void setAdyenHmacPreviousKeys(String[] adyenHmacPreviousKeys) {
+        this.adyenHmacPreviousKeys = adyenHmacPreviousKeys;
+    }
+
+    public double getWebhookLogSampleRate() {
+        return webhookLogSampleRate;
+    }
+
+    public void setWebhookLogSampleRate(double webhookLogSampleRate) {
+        this.webhookLogSampleRate = webhookLogSampleRate;
+    }
+
+    public long getPaymentsIdempotencyTtlMinutes() {
+        return paymentsIdempotencyTtlMinutes;
+    }
+
+    public void setPaymentsIdempotencyTtlMinutes(long paymentsIdempotencyTtlMinutes) {
+        this.paymentsIdempotencyTtlMinutes = paymentsIdempotencyTtlMinutes;
+    }
+
+    public int getPaymentsIdempotencyMaxEntries() {
+        return paymentsIdempotencyMaxEntries;
+    }
+
+    public void setPaymentsIdempotencyMaxEntries(int paymentsIdempotencyMaxEntries) {
+        this.paymentsIdempotencyMaxEntries = paymentsIdempotencyMaxEntries;
+    }
+
+    public boolean isAdyenResilienceEnabled() {
+        return adyenResilienceEnabled;
+    }
+
+    public void setAdyenResilienceEnabled(boolean adyenResilienceEnabled) {
+        this.adyenResilienceEnabled = adyenResilienceEnabled;
+    }
+
+    public int getAdyenBulkheadMaxConcurrent() {
+        return adyenBulkheadMaxConcurrent;
+    }
+
+    public void setAdyenBulkheadMaxConcurrent(int adyenBulkheadMaxConcurrent) {
+        this.adyenBulkheadMaxConcurrent = adyenBulkheadMaxConcurrent;
+    }
+
+    public long getAdyenBulkheadMaxWaitMs() {
+        return adyenBulkheadMaxWaitMs;
+    }
+
+    public void setAdyenBulkheadMaxWaitMs(long adyenBulkheadMaxWaitMs) {
+        this.adyenBulkheadMaxWaitMs = adyenBulkheadMaxWaitMs;
+    }
+
+    public int getAdyenCircuitBreakerWindow() {
+        return adyenCircuitBreakerWindow;
+    }
+
+    public void setAdyenCircuitBreakerWindow(int adyenCircuitBreakerWindow) {
+        this.adyenCircuitBreakerWindow = adyenCircuitBreakerWindow;
+    }
+
+    public int getAdyenCircuitBreakerMinimumCalls() {
+        return adyenCircuitBreakerMinimumCalls;
+    }
+
+    public void setAdyenCircuitBreakerMinimumCalls(int adyenCircuitBreakerMinimumCalls) {
+        this.adyenCircuitBreakerMinimumCalls = adyenCircuitBreakerMinimumCalls;
+    }
+
+    public double getAdyenCircuitBreakerFailureRate() {
+        return adyenCircuitBreakerFailureRate;
+    }
+
+    public void setAdyenCircuitBreakerFailureRate(double adyenCircuitBreakerFailureRate) {
+        this.adyenCircuitBreakerFailureRate = adyenCircuitBreakerFailureRate;
+    }
+
+    public long getAdyenCircuitBreakerOpenMs() {
+        return adyenCircuitBreakerOpenMs;
+    }
+
+    public void setAdyenCircuitBreakerOpenMs(long adyenCircuitBreakerOpenMs) {
+        this.adyenCircuitBreakerOpenMs = adyenCircuitBreakerOpenMs;
+    }
+
+    public int getAdyenCircuitBreakerHalfOpenCalls() {
+        return adyenCircuitBreakerHalfOpenCalls;
+    }
+
+    public void setAdyenCircuitBreakerHalfOpenCalls(int adyenCircuitBreakerHalfOpenCalls) {
+        this.adyenCircuitBreakerHalfOpenCalls = adyenCircuitBreakerHalfOpenCalls;
+    }
+
+    public double getAdyenTimeoutPercentile() {
+        return adyenTimeoutPercentile;
+    }
+
+    public void setAdyenTimeoutPercentile(double adyenTimeoutPercentile) {
+        this.adyenTimeoutPercentile = adyenTimeoutPercentile;
+    }
+
+    public double getAdyenTimeoutMultiplier() {
+        return adyenTimeoutMultiplier;
+    }
+
+    public void setAdyenTimeoutMultiplier(double adyenTimeoutMultiplier) {
+        this.adyenTimeoutMultiplier = adyenTimeoutMultiplier;
+    }
+
+    public long getAdyenTimeoutMinMs() {
+        return adyenTimeoutMinMs;
+    }
+
+    public void setAdyenTimeoutMinMs(long adyenTimeoutMinMs) {
+        this.adyenTimeoutMinMs = adyenTimeoutMinMs;
+    }
+
+    public boolean isSessionPoolEnabled() {
+        return sessionPoolEnabled;
+    }
+
+    public void setSessionPoolEnabled(boolean sessionPoolEnabled) {
+        this.sessionPoolEnabled = sessionPoolEnabled;
+    }
+
+    public int getSessionPoolMinSize() {
+        return sessionPoolMinSize;
+    }
+
+    public void setSessionPoolMinSize(int sessionPoolMinSize) {
+        this.sessionPoolMinSize = sessionPoolMinSize;
+    }
+
+    public int getSessionPoolMaxSize() {
+        return sessionPoolMaxSize;
+    }
+
+    public void setSessionPoolMaxSize(int sessionPoolMaxSize) {
+        this.sessionPoolMaxSize = sessionPoolMaxSize;
+    }
+
+    public double getSessionPoolLeadSeconds() {
+        return sessionPoolLeadSeconds;
+    }
+
+    public void setSessionPoolLeadSeconds(double sessionPoolLeadSeconds) {
+        this.sessionPoolLeadSeconds = sessionPoolLeadSeconds;
+    }
+
+    public long getSessionPoolEvictBeforeExpirySeconds() {
+        return sessionPoolEvictBeforeExpirySeconds;
+    }
+
+    public void setSessionPoolEvictBeforeExpirySeconds(long sessionPoolEvictBeforeExpirySeconds) {
+        this.sessionPoolEvictBeforeExpirySeconds = sessionPoolEvictBeforeExpirySeconds;
+    }
+
+    public long getSessionPoolRefillIntervalMs() {
+        return sessionPoolRefillIntervalMs;
+    }
+
+    public void setSessionPoolRefillIntervalMs(long sessionPoolRefillIntervalMs) {
+        this.sessionPoolRefillIntervalMs = sessionPoolRefillIntervalMs;
+    }
+
+    public int getSessionPoolRefillThreads() {
+        return sessionPoolRefillThreads;
+    }
+
+    public void setSessionPoolRefillThreads(int sessionPoolRefillThreads) {
+        this.sessionPoolRefillThreads = sessionPoolRefillThreads;
+    }
+
+    public int getSessionPoolMaxKeys() {
+        return sessionPoolMaxKeys;
+    }
+
+    public void setSessionPoolMaxKeys(int sessionPoolMaxKeys) {
+        this.sessionPoolMaxKeys = sessionPoolMaxKeys;
+    }
+
+    public boolean isWebhookEventLogEnabled() {
+        return webhookEventLogEnabled;
+    }
+
+    public void setWebhookEventLogEnabled(boolean webhookEventLogEnabled) {
+        this.webhookEventLogEnabled = webhookEventLogEnabled;
+    }
+
+    public String getWebhookEventLogDirectory() {
+        return webhookEventLogDirectory;
+    }
+
+    public void setWebhookEventLogDirectory(String webhookEventLogDirectory) {
+        this.webhookEventLogDirectory = webhookEventLogDirectory;
+    }
+
+    public long getWebhookEventLogCommitIntervalMs() {
+        return webhookEventLogCommitIntervalMs;
+    }
+
+    public void setWebhookEventLogCommitIntervalMs(long webhookEventLogCommitIntervalMs) {
+        this.webhookEventLogCommitIntervalMs = webhookEventLogCommitIntervalMs;
+    }
+
+    public long getWebhookEventLogSegmentSizeMb() {
+        return webhookEventLogSegmentSizeMb;
+    }
+
+    public void setWebhookEventLogSegmentSizeMb(long webhookEventLogSegmentSizeMb) {
+        this.webhookEventLogSegmentSizeMb = webhookEventLogSegmentSizeMb;
+    }
+
+    public boolean isWebhookEventLogReplayOnStartup() {
+        return webhookEventLogReplayOnStartup;
+    }
+
+    public void setWebhookEventLogReplayOnStartup(boolean webhookEventLogReplayOnStartup) {
+        this.webhookEventLogReplayOnStartup = webhookEventLogReplayOnStartup;
+    }
+
+    public int getWebhookEventLogReplayLanes() {
+        return webhookEventLogReplayLanes;
+    }
+
+    public void setWebhookEventLogReplayLanes(int webhookEventLogReplayLanes) {
+        this.webhookEventLogReplayLanes = webhookEventLogReplayLanes;
+    }
+
+    public double getLoggingSampleRatePaymentMethods() {
+        return loggingSampleRatePaymentMethods;
+    }
+
+    public void setLoggingSampleRatePaymentMethods(double loggingSampleRatePaymentMethods) {
+        this.loggingSampleRatePaymentMethods = loggingSampleRatePaymentMethods;
+    }
+
+    public double getLoggingSampleRatePayments() {
+        return loggingSampleRatePayments;
+    }
+
+    public void setLoggingSampleRatePayments(double loggingSampleRatePayments) {
+        this.loggingSampleRatePayments = loggingSampleRatePayments;
+    }
+
+    public double getLoggingSampleRatePaymentDetails() {
+        return loggingSampleRatePaymentDetails;
+    }
+
+    public void setLoggingSampleRatePaymentDetails(double loggingSampleRatePaymentDetails) {
+        this.loggingSampleRatePaymentDetails = loggingSampleRatePaymentDetails;
+    }
+
+    public double getLoggingSampleRateAdminPayment() {
+        return loggingSampleRateAdminPayment;
+    }
+
+    public void setLoggingSampleRateAdminPayment(double loggingSampleRateAdminPayment) {
+        this.loggingSampleRateAdminPayment = loggingSampleRateAdminPayment;
+    }
+
+    public String[] getLoggingRedactionAdditionalFields() {
+        return loggingRedactionAdditionalFields;
+    }
+
+    public void setLoggingRedactionAdditionalFields(String[] loggingRedactionAdditionalFields) {
+        this.loggingRedactionAdditionalFields = loggingRedactionAdditionalFields;
+    }
+
+    public boolean isRateLimitEnabled() {
+        return rateLimitEnabled;
+    }
+
+    public void setRateLimitEnabled(boolean rateLimitEnabled) {
+        this.rateLimitEnabled = rateLimitEnabled;
+    }
+
+    public int getRateLimitMaxKeys() {
+        return rateLimitMaxKeys;
+    }
+
+    public void setRateLimitMaxKeys(int rateLimitMaxKeys) {
+        this.rateLimitMaxKeys = rateLimitMaxKeys;
+    }
+
+    public int getRateLimitPaymentsIpPerMinute() {
+        return rateLimitPaymentsIpPerMinute;
+    }
+
+    public void setRateLimitPaymentsIpPerMinute(int rateLimitPaymentsIpPerMinute) {
+        this.rateLimitPaymentsIpPerMinute = rateLimitPaymentsIpPerMinute;
+    }
+
+    public int getRateLimitPaymentsIpBurst() {
+        return rateLimitPaymentsIpBurst;
+    }
+
+    public void setRateLimitPaymentsIpBurst(int rateLimitPaymentsIpBurst) {
+        this.rateLimitPaymentsIpBurst = rateLimitPaymentsIpBurst;
+    }
+
+    public int getRateLimitPaymentDetailsIpPerMinute() {
+        return rateLimitPaymentDetailsIpPerMinute;
+    }
+
+    public void setRateLimitPaymentDetailsIpPerMinute(int rateLimitPaymentDetailsIpPerMinute) {
+        this.rateLimitPaymentDetailsIpPerMinute = rateLimitPaymentDetailsIpPerMinute;
+    }
+
+    public int getRateLimitPaymentDetailsIpBurst() {
+        return rateLimitPaymentDetailsIpBurst;
+    }
+
+    public void setRateLimitPaymentDetailsIpBurst(int rateLimitPaymentDetailsIpBurst) {
+        this.rateLimitPaymentDetailsIpBurst = rateLimitPaymentDetailsIpBurst;
+    }
+
+    public int getRateLimitSubscriptionCreateIpPerMinute() {
+        return rateLimitSubscriptionCreateIpPerMinute;
+    }
+
+    public void setRateLimitSubscriptionCreateIpPerMinute(int rateLimitSubscriptionCreateIpPerMinute) {
+        this.rateLimitSubscriptionCreateIpPerMinute = rateLimitSubscriptionCreateIpPerMinute;
+    }
+
+    public int getRateLimitSubscriptionCreateIpBurst() {
+        return rateLimitSubscriptionCreateIpBurst;
+    }
+
+    public void setRateLimitSubscriptionCreateIpBurst(int rateLimitSubscriptionCreateIpBurst) {
+        this.rateLimitSubscriptionCreateIpBurst = rateLimitSubscriptionCreateIpBurst;
+    }
+
+    public int getPaymentLedgerMaxPayments() {
+        return paymentLedgerMaxPayments;
+    }
+
+    public void setPaymentLedgerMaxPayments(int paymentLedgerMaxPayments) {
+        this.paymentLedgerMaxPayments = paymentLedgerMaxPayments;
+    }
+
+    public int getPaymentLedgerMaxEvents() {
+        return paymentLedgerMaxEvents;
+    }
+
+    public void setPaymentLedgerMaxEvents(int paymentLedgerMaxEvents) {
+        this.paymentLedgerMaxEvents = paymentLedgerMaxEvents;
+    }
+
+    public boolean isStorageReplicationEnabled() {
+        return storageReplicationEnabled;
+    }
+
+    public void setStorageReplicationEnabled(boolean storageReplicationEnabled) {
+        this.storageReplicationEnabled = storageReplicationEnabled;
+    }
+
+    public String getStorageReplicationNodeId() {
+        return storageReplicationNodeId;
+    }
+
+    public void setStorageReplicationNodeId(String storageReplicationNodeId) {
+        this.storageReplicationNodeId = storageReplicationNodeId;
+    }
+
+    public String getStorageReplicationBindAddress() {
+        return storageReplicationBindAddress;
+    }
+
+    public void setStorageReplicationBindAddress(String storageReplicationBindAddress) {
+        this.storageReplicationBindAddress = storageReplicationBindAddress;
+    }
+
+    public int getStorageReplicationPort() {
+        return storageReplicationPort;
+    }
+
+    public void setStorageReplicationPort(int storageReplicationPort) {
+        this.storageReplicationPort = storageReplicationPort;
+    }
+
+    public String[] getStorageReplicationPeers() {
+        return storageReplicationPeers;
+    }
+
+    public void setStorageReplicationPeers(String[] storageReplicationPeers) {
+        this.storageReplicationPeers = storageReplicationPeers;
+    }
+
+    public String getStorageReplicationSecret() {
+        return storageReplicationSecret;
+    }
+
+    public void setStorageReplicationSecret(String storageReplicationSecret) {
+        this.storageReplicationSecret = storageReplicationSecret;
+    }
+
+    public long getStorageReplicationHeartbeatIntervalMs() {
+        return storageReplicationHeartbeatIntervalMs;
+    }
+
+    public void setStorageReplicationHeartbeatIntervalMs(long storageReplicationHeartbeatIntervalMs) {
+        this.storageReplicationHeartbeatIntervalMs = storageReplicationHeartbeatIntervalMs;
+    }
+
+    public long getStorageReplicationAntiEntropyIntervalSeconds() {
+        return storageReplicationAntiEntropyIntervalSeconds;
+    }
+
+    public void setStorageReplicationAntiEntropyIntervalSeconds(long storageReplicationAntiEntropyIntervalSeconds) {
+        this.storageReplicationAntiEntropyIntervalSeconds = storageReplicationAntiEntropyIntervalSeconds;
+    }
+
+    public int getStorageReplicationMaxPendingChanges() {
+        return storageReplicationMaxPendingChanges;
+    }
+
+    public void setStorageReplicationMaxPendingChanges(int storageReplicationMaxPendingChanges) {
+        this.storageReplicationMaxPendingChanges = storageReplicationMaxPendingChanges;
+    }
+
+    public long getStorageReplicationTombstoneRetentionHours() {
+        return storageReplicationTombstoneRetentionHours;
+    }
+
+    public void setStorageReplicationTombstoneRetentionHours(long storageReplicationTombstoneRetentionHours) {
+        this.storageReplicationTombstoneRetentionHours = storageReplicationTombstoneRetentionHours;
+    }
+
+    public String getStorageReplicationVersionsFile() {
+        return storageReplicationVersionsFile;
+    }
+
+    public void setStorageReplicationVersionsFile(String storageReplicationVersionsFile) {
+        this.storageReplicationVersionsFile = storageReplicationVersionsFile;
+    }
+
+    public String getSessionBaseUrl() {
+        return sessionBaseUrl;
+    }
+
+    public void setSessionBaseUrl(String sessionBaseUrl) {
+        this.sessionBaseUrl = sessionBaseUrl;
+    }
 }
\ No newline at end of file
@@ -4,10 +4,43 @@ import com.adyen.Client;
 import com.adyen.Config;
 import com.adyen.enums.Environment;
 import com.adyen.service.RecurringApi;
-import com.adyen.service.checkout.PaymentsApi;
-import com.adyen.util.HMACValidator;
+import com.adyen.workshop.services.AdyenApiMetrics;
+import com.adyen.workshop.services.AdyenResilience;
+import com.adyen.workshop.services.InstrumentedPaymentsApi;
+import com.adyen.workshop.services.InstrumentedRecurringApi;
+import com.adyen.workshop.util.AdyenHttpTransport;
+import com.adyen.workshop.util.DeduplicationIndex;
+import com.adyen.workshop.util.LogRedactor;
+import com.adyen.workshop.util.PaymentLedger;
+import com.adyen.workshop.util.Storage;
+import com.adyen.workshop.util.Threads;
+import com.adyen.workshop.util.TokenJournal;
+import com.adyen.workshop.util.TokenReplicator;
+import com.adyen.workshop.util.TokenRepository;
+import com.adyen.workshop.util.WebhookEventLog;
+import com.adyen.workshop.util.WebhookSignatureVerifier;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class DependencyInjectionConfiguration {
@@ -18,26 +51,202 @@ public class DependencyInjectionConfiguration {
     }
 
     @Bean
-    Client client() {
+    Client client(AdyenHttpTransport adyenHttpTransport) {
         // Step 4
         var config = new Config();
         config.setApiKey(applicationConfiguration.getAdyenApiKey());
         config.setEnvironment(Environment.TEST);
-        return new Client(config);
+        config.setConnectionTimeoutMillis(applicationConfiguration.getAdyenHttpConnectTimeoutMs());
+        config.setReadTimeoutMillis(applicationConfiguration.getAdyenHttpReadTimeoutMs());
+        var client = new Client(config);
+        if (applicationConfiguration.isAdyenHttpPooled()) {
+            client.setHttpClient(adyenHttpTransport);
+        }
+        return client;
+    }
+
+    // Shared, pooled HTTP transport for all Adyen API calls, see adyen.http.* in application.properties
+    @Bean(destroyMethod = "close")
+    AdyenHttpTransport adyenHttpTransport(MeterRegistry meterRegistry) {
+        var settings = new AdyenHttpTransport.Settings(
+                applicationConfiguration.getAdyenHttpMaxConnections(),
+                applicationConfiguration.getAdyenHttpMaxConnectionsPerRoute(),
+                Duration.ofMillis(applicationConfiguration.getAdyenHttpConnectTimeoutMs()),
+                Duration.ofMillis(applicationConfiguration.getAdyenHttpReadTimeoutMs()),
+                Duration.ofMillis(applicationConfiguration.getAdyenHttpConnectionRequestTimeoutMs()),
+                applicationConfiguration.isAdyenHttp2());
+        var executor = Executors.newCachedThreadPool(Threads.blocking("adyen-http", applicationConfiguration.isVirtualThreadsEnabled()));
+        return new AdyenHttpTransport(settings, executor, meterRegistry);
     }
 
     @Bean
-    PaymentsApi paymentsApi(){
-        return new PaymentsApi(client());
+    InstrumentedPaymentsApi paymentsApi(Client client, AdyenApiMetrics adyenApiMetrics, AdyenResilience adyenResilience) {
+        // adyen.endpoint.checkout points the Checkout API elsewhere, e.g. to a local stand-in when load testing
+        var checkoutEndpoint = applicationConfiguration.getAdyenCheckoutEndpoint();
+        if (checkoutEndpoint != null && !checkoutEndpoint.isBlank()) {
+            return new InstrumentedPaymentsApi(client, checkoutEndpoint, adyenApiMetrics, adyenResilience);
+        }
+        return new InstrumentedPaymentsApi(client, adyenApiMetrics, adyenResilience);
     }
 
     @Bean
-    RecurringApi recurringApi() {
-        return new RecurringApi(client());
+    RecurringApi recurringApi(Client client, AdyenApiMetrics adyenApiMetrics, AdyenResilience adyenResilience) {
+        // adyen.endpoint.recurring does the same for the Recurring API
+        var recurringEndpoint = applicationConfiguration.getAdyenRecurringEndpoint();
+        if (recurringEndpoint != null && !recurringEndpoint.isBlank()) {
+            return new InstrumentedRecurringApi(client, recurringEndpoint, adyenApiMetrics, adyenResilience);
+        }
+        return new InstrumentedRecurringApi(client, adyenApiMetrics, adyenResilience);
     }
 
+    // Accepts webhooks signed with ADYEN_HMAC_KEY, or during a key rotation with one of ADYEN_HMAC_PREVIOUS_KEYS
     @Bean
-    HMACValidator hmacValidator() {
-        return new HMACValidator();
+    WebhookSignatureVerifier webhookSignatureVerifier(MeterRegistry meterRegistry) {
+        var keys = new ArrayList<String>();
+        keys.add(applicationConfiguration.getAdyenHmacKey());
+        keys.addAll(Arrays.asList(applicationConfiguration.getAdyenHmacPreviousKeys()));
+        var verifier = new WebhookSignatureVerifier(keys);
+        FunctionCounter.builder("webhook.hmac.previous-key", verifier, WebhookSignatureVerifier::getPreviousKeyMatches)
+                .description("Webhook items signed with a previous HMAC key")
+                .register(meterRegistry);
+        return verifier;
+    }
+
+    // Validates the items of a batched webhook concurrently, runs the task on the request thread once the queue is full.
+    // Once shut down it throws instead, CallerRunsPolicy would silently discard the task
+    @Bean(destroyMethod = "shutdown")
+    ExecutorService webhookExecutor() {
+        var threads = applicationConfiguration.getWebhookValidationThreads();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(applicationConfiguration.getWebhookValidationQueueCapacity()),
+                Threads.daemon("webhook-validation"),
+                (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Webhook executor is shut down");
+                    }
+                    task.run();
+                });
+    }
+
+    // Remembers recently processed webhook items, Adyen delivers webhooks at least once
+    @Bean
+    DeduplicationIndex webhookDeduplicationIndex(MeterRegistry meterRegistry) {
+        var index = new DeduplicationIndex(applicationConfiguration.getWebhookDedupMaxEntries(),
+                applicationConfiguration.getWebhookDedupTtlMinutes(), TimeUnit.MINUTES);
+        FunctionCounter.builder("webhook.dedup", index, DeduplicationIndex::getHits).tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("webhook.dedup", index, DeduplicationIndex::getMisses).tag("result", "miss").register(meterRegistry);
+        Gauge.builder("webhook.dedup.size", index, DeduplicationIndex::size).register(meterRegistry);
+        return index;
+    }
+
+    // Masks card and personal data in logged requests and responses, see logging.redaction.additional-fields
+    @Bean
+    LogRedactor logRedactor(ObjectMapper objectMapper) {
+        return new LogRedactor(objectMapper, Arrays.asList(applicationConfiguration.getLoggingRedactionAdditionalFields()));
+    }
+
+    // State of the payments as reported by Adyen, fed by PaymentTracker; the oldest are dropped beyond payments.ledger.max-*
+    @Bean
+    PaymentLedger paymentLedger() {
+        return new PaymentLedger(applicationConfiguration.getPaymentLedgerMaxPayments(), applicationConfiguration.getPaymentLedgerMaxEvents());
+    }
+
+    // Number of tokens in Storage, as the gauge storage.tokens
+    @Bean
+    MeterBinder storageMetrics() {
+        return registry -> Gauge.builder("storage.tokens", Storage.getRepository(), TokenRepository::size)
+                .description("Stored recurring tokens")
+                .register(registry);
+    }
+
+    // Persists the tokens in Storage across restarts, enable with storage.journal.enabled=true.
+    // Checked here rather than with @ConditionalOnProperty, which AOT processing would evaluate once at build time
+    @Bean(destroyMethod = "close")
+    TokenJournal tokenJournal(MeterRegistry meterRegistry) throws IOException {
+        if (!applicationConfiguration.isStorageJournalEnabled()) {
+            return null;
+        }
+        var journal = new TokenJournal(
+                Path.of(applicationConfiguration.getStorageJournalDirectory()),
+                Storage.getRepository(),
+                applicationConfiguration.getStorageJournalCommitIntervalMs(),
+                applicationConfiguration.getStorageJournalCompactionThresholdMb() * 1024 * 1024);
+        journal.open();
+        Gauge.builder("storage.journal.pending", journal, TokenJournal::getPendingCount).register(meterRegistry);
+        // 1 once the writer has stopped on an error: token changes are no longer persisted
+        Gauge.builder("storage.journal.failed", journal, j -> j.isFailed() ? 1 : 0).register(meterRegistry);
+        return journal;
+    }
+
+    // Replicates the tokens in Storage to the other instances, enable with storage.replication.enabled=true.
+    // Opened after the journal, so the tokens it replays are in Storage before replication starts
+    @Bean(destroyMethod = "close")
+    @DependsOn("tokenJournal")
+    TokenReplicator tokenReplicator(MeterRegistry meterRegistry) throws IOException {
+        if (!applicationConfiguration.isStorageReplicationEnabled()) {
+            return null;
+        }
+        var secret = applicationConfiguration.getStorageReplicationSecret();
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalStateException("storage.replication.secret must be set when storage.replication.enabled=true");
+        }
+        var port = applicationConfiguration.getStorageReplicationPort();
+        var nodeId = applicationConfiguration.getStorageReplicationNodeId();
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = InetAddress.getLocalHost().getHostName() + ":" + port;
+        }
+        var peers = Arrays.stream(applicationConfiguration.getStorageReplicationPeers())
+                .map(String::trim)
+                .filter(peer -> !peer.isEmpty())
+                .map(DependencyInjectionConfiguration::peerAddress)
+                .toList();
+        var versionsFile = applicationConfiguration.getStorageReplicationVersionsFile();
+        var settings = new TokenReplicator.Settings(
+                nodeId,
+                new InetSocketAddress(applicationConfiguration.getStorageReplicationBindAddress(), port),
+                peers,
+                secret,
+                Duration.ofMillis(applicationConfiguration.getStorageReplicationHeartbeatIntervalMs()),
+                Duration.ofSeconds(applicationConfiguration.getStorageReplicationAntiEntropyIntervalSeconds()),
+                applicationConfiguration.getStorageReplicationMaxPendingChanges(),
+                Duration.ofHours(applicationConfiguration.getStorageReplicationTombstoneRetentionHours()),
+                versionsFile == null || versionsFile.isBlank() ? null : Path.of(versionsFile));
+        var replicator = new TokenReplicator(settings, Storage.getRepository());
+        replicator.open();
+        Gauge.builder("storage.replication.peers.connected", replicator, TokenReplicator::getConnectedPeerCount).register(meterRegistry);
+        Gauge.builder("storage.replication.pending", replicator, TokenReplicator::getPendingCount).register(meterRegistry);
+        FunctionCounter.builder("storage.replication.sent", replicator, TokenReplicator::getSentCount).register(meterRegistry);
+        FunctionCounter.builder("storage.replication.applied", replicator, TokenReplicator::getAppliedCount).tag("source", "stream").register(meterRegistry);
+        FunctionCounter.builder("storage.replication.applied", replicator, TokenReplicator::getRepairedCount).tag("source", "anti-entropy").register(meterRegistry);
+        // 1 once the versions writer has stopped on an error: versions and tombstones are no longer saved
+        Gauge.builder("storage.replication.versions.failed", replicator, r -> r.isVersionsWriterFailed() ? 1 : 0).register(meterRegistry);
+        return replicator;
+    }
+
+    // host:port, resolved when connecting
+    private static InetSocketAddress peerAddress(String peer) {
+        var colon = peer.lastIndexOf(':');
+        if (colon <= 0 || colon == peer.length() - 1) {
+            throw new IllegalArgumentException("storage.replication.peers: expected host:port, got " + peer);
+        }
+        return InetSocketAddress.createUnresolved(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)));
+    }
+
+    // Records every accepted webhook item, enable with webhook.event-log.enabled=true (checked at runtime, like the journal)
+    @Bean(destroyMethod = "close")
+    WebhookEventLog webhookEventLog(MeterRegistry meterRegistry) throws IOException {
+        if (!applicationConfiguration.isWebhookEventLogEnabled()) {
+            return null;
+        }
+        var eventLog = new WebhookEventLog(
+                Path.of(applicationConfiguration.getWebhookEventLogDirectory()),
+                applicationConfiguration.getWebhookEventLogCommitIntervalMs(),
+                applicationConfiguration.getWebhookEventLogSegmentSizeMb() * 1024 * 1024);
+        eventLog.open();
+        FunctionCounter.builder("webhook.event-log.appended", eventLog, WebhookEventLog::getAppendedCount).register(meterRegistry);
+        Gauge.builder("webhook.event-log.pending", eventLog, WebhookEventLog::getPendingCount).register(meterRegistry);
+        // 1 once the writer has stopped on an error: webhooks are no longer logged
+        Gauge.builder("webhook.event-log.failed", eventLog, l -> l.isFailed() ? 1 : 0).register(meterRegistry);
+        return eventLog;
     }
 }
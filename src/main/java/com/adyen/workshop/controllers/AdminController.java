@@ -10,15 +10,23 @@ import com.adyen.service.RecurringApi;
 import com.adyen.service.checkout.PaymentsApi;
 import com.adyen.service.exception.ApiException;
 import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.services.PaymentLogger;
+import com.adyen.workshop.services.PaymentTracker;
+import com.adyen.workshop.util.PaymentLedger;
 import com.adyen.workshop.util.Storage;
+import com.adyen.workshop.util.WebhookEventLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 
+import java.time.Instant;
 import java.util.UUID;
 
 @Controller
@@ -29,20 +37,60 @@ public class AdminController {
     private final ApplicationConfiguration applicationConfiguration;
     private final PaymentsApi paymentsApi;
     private final RecurringApi recurringApi;
+    private final PaymentLogger paymentLogger;
+    private final PaymentTracker paymentTracker;
+    private final PaymentLedger paymentLedger;
+    private final WebhookEventLog webhookEventLog;
 
     @Autowired
-    public AdminController(ApplicationConfiguration applicationConfiguration, PaymentsApi paymentsApi, RecurringApi recurringApi) {
+    public AdminController(ApplicationConfiguration applicationConfiguration, PaymentsApi paymentsApi, RecurringApi recurringApi,
+                           PaymentLogger paymentLogger, PaymentTracker paymentTracker, PaymentLedger paymentLedger,
+                           ObjectProvider<WebhookEventLog> webhookEventLog) {
         this.applicationConfiguration = applicationConfiguration;
         this.paymentsApi = paymentsApi;
         this.recurringApi = recurringApi;
+        this.paymentLogger = paymentLogger;
+        this.paymentTracker = paymentTracker;
+        this.paymentLedger = paymentLedger;
+        this.webhookEventLog = webhookEventLog.getIfAvailable();
     }
 
-    @GetMapping
-    public String index(Model model) {
-        model.addAttribute("tokens", Storage.getAllTokens());
+    // One page of tokens at a time, see AdminTokenApiController for the JSON API and the full export
+    @GetMapping("/admin")
+    public String index(@RequestParam(required = false) String cursor,
+                        @RequestParam(defaultValue = "" + AdminTokenApiController.DEFAULT_PAGE_SIZE) int limit,
+                        @RequestParam(required = false) String shopperReference,
+                        @RequestParam(required = false) String paymentMethod,
+                        Model model) {
+        var page = AdminTokenApiController.page(cursor, limit, shopperReference, paymentMethod);
+        model.addAttribute("tokens", page.tokens());
+        model.addAttribute("nextCursor", page.nextCursor());
+        model.addAttribute("firstPage", cursor == null || cursor.isBlank());
+        model.addAttribute("limit", limit);
+        model.addAttribute("shopperReference", shopperReference);
+        model.addAttribute("paymentMethod", paymentMethod);
         return "admin/index";
     }
 
+    // Payments as recorded in the PaymentLedger, newest first, or a single payment with its events; no calls to Adyen
+    @GetMapping("/admin/payments")
+    public String payments(@RequestParam(required = false) String reference,
+                           @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+                           @RequestParam(defaultValue = "" + AdminPaymentApiController.DEFAULT_PAGE_SIZE) int limit,
+                           Model model) {
+        if (reference != null && !reference.isBlank()) {
+            model.addAttribute("payment", paymentLedger.get(reference.trim()));
+            model.addAttribute("events", paymentLedger.history(reference.trim()));
+        }
+        var page = AdminPaymentApiController.page(paymentLedger, null, to, limit);
+        model.addAttribute("reference", reference);
+        model.addAttribute("payments", page.payments());
+        model.addAttribute("next", page.next());
+        model.addAttribute("firstPage", to == null);
+        model.addAttribute("limit", limit);
+        return "admin/payments";
+    }
+
     @GetMapping(
             value = {
                     "/admin/makepayment/{recurringDetailReference}",
@@ -54,6 +102,7 @@ public class AdminController {
         log.info("/admin/makepayment/{}", recurringDetailReference);
 
         String result;
+        String pspReference = null;
 
         try {
             var orderRef = UUID.randomUUID().toString();
@@ -63,13 +112,15 @@ public class AdminController {
             paymentRequest.setAmount(new Amount().currency("EUR").value(500L));
             paymentRequest.setReference(orderRef);
             paymentRequest.setShopperInteraction(PaymentRequest.ShopperInteractionEnum.CONTAUTH);
-            paymentRequest.setShopperReference(Storage.SHOPPER_REFERENCE);
+            paymentRequest.setShopperReference(Storage.getShopperReference(recurringDetailReference));
             paymentRequest.setRecurringProcessingModel(PaymentRequest.RecurringProcessingModelEnum.SUBSCRIPTION);
             paymentRequest.setPaymentMethod(new CheckoutPaymentMethod(new StoredPaymentMethodDetails().storedPaymentMethodId(recurringDetailReference)));
 
 
             var response = this.paymentsApi.payments(paymentRequest);
-            log.info("payment response {}", response);
+            paymentLogger.exchange(PaymentLogger.Endpoint.ADMIN_PAYMENT, paymentRequest, response);
+            paymentTracker.paymentResponse(paymentRequest, response);
+            pspReference = response.getPspReference();
 
             if (response.getResultCode().equals(PaymentResponse.ResultCodeEnum.AUTHORISED)) {
                 result = "success";
@@ -87,6 +138,7 @@ public class AdminController {
 
         model.addAttribute("result", result);
         model.addAttribute("recurringDetailReference", recurringDetailReference);
+        model.addAttribute("pspReference", pspReference);
 
         return "admin/makepayment";
     }
@@ -103,15 +155,21 @@ public class AdminController {
         String result;
 
         try {
+            var shopperReference = Storage.getShopperReference(recurringDetailReference);
+
             var disableRequest = new DisableRequest();
             disableRequest.setMerchantAccount(this.applicationConfiguration.getAdyenMerchantAccount());
-            disableRequest.setShopperReference(Storage.SHOPPER_REFERENCE);
+            disableRequest.setShopperReference(shopperReference);
             disableRequest.setRecurringDetailReference(recurringDetailReference);
 
             var response = this.recurringApi.disable(disableRequest);
-            log.info("disable response {}", response);
+            log.debug("disable response {}", response);
 
-            Storage.remove(recurringDetailReference, Storage.SHOPPER_REFERENCE);
+            Storage.remove(recurringDetailReference, shopperReference);
+            // No webhook reports the removal, so it is logged for a replay not to bring the token back
+            if (webhookEventLog != null) {
+                webhookEventLog.appendTokenRemoval(recurringDetailReference, shopperReference);
+            }
 
             log.info("remove token {}", recurringDetailReference);
             result = "success";
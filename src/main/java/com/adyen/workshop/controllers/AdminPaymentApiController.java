@@ -0,0 +1,90 @@
+package com.adyen.workshop.controllers;
+
+import com.adyen.workshop.util.PaymentLedger;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * JSON API for the payment ledger, answered from memory without calling Adyen.
+ *
+ * <ul>
+ *     <li>GET /admin/api/payments returns the payments created in [from, to), newest first: {"payments": [...], "next": "..."}.
+ *     Pass next as to for the next page, it is absent on the last page.</li>
+ *     <li>GET /admin/api/payments/{reference} returns a payment by pspReference or merchantReference, with its events.</li>
+ *     <li>GET /admin/api/payments/events returns the events of all payments in [from, to), oldest first;
+ *     pass next as from for the next page.</li>
+ * </ul>
+ * from, to and next are ISO-8601 instants, e.g. 2024-05-01T12:00:00Z; both bounds are optional.
+ */
+@RestController
+public class AdminPaymentApiController {
+
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    public record PaymentPage(List<PaymentLedger.Payment> payments, Instant next) {
+    }
+
+    public record EventPage(List<PaymentLedger.Event> events, Instant next) {
+    }
+
+    public record PaymentHistory(PaymentLedger.Payment payment, List<PaymentLedger.Event> events) {
+    }
+
+    private final PaymentLedger paymentLedger;
+
+    public AdminPaymentApiController(PaymentLedger paymentLedger) {
+        this.paymentLedger = paymentLedger;
+    }
+
+    @GetMapping("/admin/api/payments")
+    public PaymentPage payments(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+                                @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+        return page(paymentLedger, from, to, limit);
+    }
+
+    @GetMapping("/admin/api/payments/events")
+    public EventPage events(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+                            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
+        var size = pageSize(limit);
+        var events = paymentLedger.events(from, to, size);
+        // Event times are unique, so the page after the last event starts one microsecond later
+        var next = events.size() == size ? events.get(events.size() - 1).time().plus(1, ChronoUnit.MICROS) : null;
+        return new EventPage(events, next);
+    }
+
+    @GetMapping("/admin/api/payments/{reference}")
+    public PaymentHistory payment(@PathVariable String reference) {
+        var payment = paymentLedger.get(reference);
+        if (payment == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No payment with reference " + reference);
+        }
+        return new PaymentHistory(payment, paymentLedger.history(reference));
+    }
+
+    /**
+     * A page of payments, newest first, shared with the admin panel.
+     */
+    static PaymentPage page(PaymentLedger paymentLedger, Instant from, Instant to, int limit) {
+        var size = pageSize(limit);
+        var payments = paymentLedger.payments(from, to, size);
+        // Creation times are unique, so the next page ends right before the last payment of this one
+        var next = payments.size() == size ? payments.get(payments.size() - 1).createdAt() : null;
+        return new PaymentPage(payments, next);
+    }
+
+    private static int pageSize(int limit) {
+        return Math.max(1, Math.min(MAX_PAGE_SIZE, limit));
+    }
+}
@@ -0,0 +1,102 @@
+package com.adyen.workshop.controllers;
+
+import com.adyen.workshop.util.Storage;
+import com.adyen.workshop.util.Token;
+import com.adyen.workshop.util.TokenPage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * JSON API for the stored tokens, the alternative to the admin panel.
+ *
+ * <ul>
+ *     <li>GET /admin/api/tokens returns one page: {"tokens": [...], "nextCursor": "..."}. Pass nextCursor as cursor
+ *     to get the next page, it is absent on the last page.</li>
+ *     <li>GET /admin/api/tokens/export streams every token as newline delimited JSON, page by page,
+ *     so neither the application nor the client holds the whole set in memory.</li>
+ * </ul>
+ * Both take the optional filters shopperReference and paymentMethod.
+ */
+@RestController
+public class AdminTokenApiController {
+
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private final ObjectMapper objectMapper;
+
+    public AdminTokenApiController(ObjectMapper objectMapper) {
+        // One token per line, written to the response stream without closing it
+        this.objectMapper = objectMapper.copy()
+                .disable(SerializationFeature.INDENT_OUTPUT)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @GetMapping("/admin/api/tokens")
+    public TokenPage tokens(@RequestParam(required = false) String cursor,
+                            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+                            @RequestParam(required = false) String shopperReference,
+                            @RequestParam(required = false) String paymentMethod) {
+        return page(cursor, limit, shopperReference, paymentMethod);
+    }
+
+    @GetMapping("/admin/api/tokens/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(required = false) String shopperReference,
+                                                        @RequestParam(required = false) String paymentMethod) {
+        StreamingResponseBody body = out -> {
+            String after = null;
+            do {
+                var page = Storage.getPage(after, MAX_PAGE_SIZE, blankToNull(shopperReference), blankToNull(paymentMethod));
+                for (Token token : page.tokens()) {
+                    objectMapper.writeValue(out, token);
+                    out.write('\n');
+                }
+                out.flush();
+                after = page.nextCursor();
+            } while (after != null);
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    /**
+     * A page with an opaque cursor, shared with the admin panel.
+     *
+     * @throws ResponseStatusException (400) for a cursor that was not handed out by a previous page
+     */
+    static TokenPage page(String cursor, int limit, String shopperReference, String paymentMethod) {
+        var page = Storage.getPage(decodeCursor(cursor), Math.max(1, Math.min(MAX_PAGE_SIZE, limit)),
+                blankToNull(shopperReference), blankToNull(paymentMethod));
+        return page.nextCursor() == null ? page : new TokenPage(page.tokens(), encodeCursor(page.nextCursor()));
+    }
+
+    private static String encodeCursor(String recurringReference) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(recurringReference.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+}
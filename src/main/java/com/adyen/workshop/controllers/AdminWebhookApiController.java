@@ -0,0 +1,33 @@
+package com.adyen.workshop.controllers;
+
+import com.adyen.workshop.services.WebhookReplay;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+
+/**
+ * POST /admin/api/webhooks/replay replays the webhook event log (webhook.event-log.directory), to catch up
+ * after the instance was down. The payment ledger is not fed again. Answers with the number of replayed and failed items once the replay is done,
+ * or 409 when a replay is already running.
+ */
+@RestController
+public class AdminWebhookApiController {
+
+    private final WebhookReplay webhookReplay;
+
+    public AdminWebhookApiController(WebhookReplay webhookReplay) {
+        this.webhookReplay = webhookReplay;
+    }
+
+    @PostMapping("/admin/api/webhooks/replay")
+    public WebhookReplay.Result replay() throws IOException, InterruptedException {
+        try {
+            return webhookReplay.replay();
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+}
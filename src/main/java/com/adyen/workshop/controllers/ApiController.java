@@ -5,9 +5,15 @@ import com.adyen.model.checkout.*;
 import com.adyen.workshop.configurations.ApplicationConfiguration;
 import com.adyen.service.checkout.PaymentsApi;
 import com.adyen.service.exception.ApiException;
+import com.adyen.workshop.services.CheckoutAdmission;
+import com.adyen.workshop.services.PaymentIdempotencyCache;
+import com.adyen.workshop.services.PaymentLogger;
+import com.adyen.workshop.services.PaymentMethodsCache;
+import com.adyen.workshop.services.PaymentTracker;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.view.RedirectView;
@@ -26,12 +32,27 @@ import java.util.UUID;
 public class ApiController {
     private final Logger log = LoggerFactory.getLogger(ApiController.class);
 
+    // Adyen accepts idempotency keys of up to 64 characters
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 64;
+
     private final ApplicationConfiguration applicationConfiguration;
     private final PaymentsApi paymentsApi;
-
-    public ApiController(ApplicationConfiguration applicationConfiguration, PaymentsApi paymentsApi) {
+    private final PaymentMethodsCache paymentMethodsCache;
+    private final PaymentIdempotencyCache paymentIdempotencyCache;
+    private final PaymentLogger paymentLogger;
+    private final CheckoutAdmission checkoutAdmission;
+    private final PaymentTracker paymentTracker;
+
+    public ApiController(ApplicationConfiguration applicationConfiguration, PaymentsApi paymentsApi, PaymentMethodsCache paymentMethodsCache,
+                         PaymentIdempotencyCache paymentIdempotencyCache, PaymentLogger paymentLogger, CheckoutAdmission checkoutAdmission,
+                         PaymentTracker paymentTracker) {
         this.applicationConfiguration = applicationConfiguration;
         this.paymentsApi = paymentsApi;
+        this.paymentMethodsCache = paymentMethodsCache;
+        this.paymentIdempotencyCache = paymentIdempotencyCache;
+        this.paymentLogger = paymentLogger;
+        this.checkoutAdmission = checkoutAdmission;
+        this.paymentTracker = paymentTracker;
     }
 
     // Step 0
@@ -42,26 +63,98 @@ public class ApiController {
 
     // Step 7
     @PostMapping("/api/paymentMethods")
-    public ResponseEntity<PaymentMethodsResponse> paymentMethods() throws IOException, ApiException {
-        var paymentMethodsRequest = new PaymentMethodsRequest();
-        paymentMethodsRequest.setMerchantAccount(applicationConfiguration.getAdyenMerchantAccount());
-
-        log.info("Retrieving available Payment Methods from Adyen {}", paymentMethodsRequest);
-        var response = paymentsApi.paymentMethods(paymentMethodsRequest);
-        log.info("Payment Methods response from Adyen {}", response);
-        return ResponseEntity.ok().body(response);
+    public ResponseEntity<byte[]> paymentMethods(@RequestBody(required = false) PaymentMethodsRequest body) throws IOException, ApiException {
+        var paymentMethodsRequest = createPaymentMethodsRequest(applicationConfiguration.getAdyenMerchantAccount(), body);
+
+        // A sample of the requests is logged, redacted (see PaymentLogger)
+        paymentLogger.exchange(PaymentLogger.Endpoint.PAYMENT_METHODS, paymentMethodsRequest, null);
+        // The response rarely changes, so it is served from a cache of pre-serialized JSON (see PaymentMethodsCache)
+        var response = paymentMethodsCache.get(paymentMethodsRequest);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(response);
     }
 
     // Step 9 - Implement the /payments call to Adyen.
     @PostMapping("/api/payments")
-    public ResponseEntity<PaymentResponse> payments(@RequestBody PaymentRequest body) throws IOException, ApiException {
+    public ResponseEntity<PaymentResponse> payments(@RequestBody PaymentRequest body,
+                                                    @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                                    HttpServletRequest request) throws IOException, ApiException {
+        if (!isValidIdempotencyKey(idempotencyKey)) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Card-testing bots and retry storms are turned away before Adyen is called (see CheckoutAdmission)
+        var retryAfter = checkoutAdmission.admit(CheckoutAdmission.Endpoint.PAYMENTS, request.getRemoteAddr());
+        if (retryAfter > 0) {
+            return CheckoutAdmission.tooManyRequests(retryAfter);
+        }
+
+        var paymentRequest = createPaymentRequest(applicationConfiguration.getAdyenMerchantAccount(), body, "/handleShopperRedirect");
+
+        // Step 11 - Optionally add the idempotency key
+        // With an Idempotency-Key from the client, a retried or double-clicked payment is answered with the first response
+        var requestOptions = new RequestOptions();
+        requestOptions.setIdempotencyKey(idempotencyKey != null ? idempotencyKey : UUID.randomUUID().toString());
+
+        PaymentResponse response;
+        try {
+            response = idempotencyKey != null
+                    ? paymentIdempotencyCache.execute(idempotencyKey, PaymentIdempotencyCache.fingerprint(body), () -> paymentsApi.payments(paymentRequest, requestOptions))
+                    : paymentsApi.payments(paymentRequest, requestOptions); // add RequestOptions here
+        } catch (PaymentIdempotencyCache.IdempotencyKeyReusedException e) {
+            log.warn(e.getMessage());
+            return ResponseEntity.unprocessableEntity().build();
+        }
+        paymentLogger.exchange(PaymentLogger.Endpoint.PAYMENTS, paymentRequest, response);
+        paymentTracker.paymentResponse(paymentRequest, response);
+
+        return ResponseEntity.ok().body(response);
+    }
+
+    // Step 13 - Handle details call (triggered after the Native 3DS2 flow, called from the frontend in step 14)
+    @PostMapping("/api/payments/details")
+    public ResponseEntity<PaymentDetailsResponse> paymentsDetails(@RequestBody PaymentDetailsRequest detailsRequest, HttpServletRequest request) throws IOException, ApiException
+    {
+        var retryAfter = checkoutAdmission.admit(CheckoutAdmission.Endpoint.PAYMENT_DETAILS, request.getRemoteAddr());
+        if (retryAfter > 0) {
+            return CheckoutAdmission.tooManyRequests(retryAfter);
+        }
+        var response = paymentsApi.paymentsDetails(detailsRequest);
+        paymentLogger.exchange(PaymentLogger.Endpoint.PAYMENT_DETAILS, detailsRequest, response);
+        paymentTracker.paymentDetailsResponse(response);
+        return ResponseEntity.ok().body(response);
+    }
+
+    // Step 14 - Handle Redirect 3DS2 during payment.
+    @GetMapping("/handleShopperRedirect")
+    public RedirectView redirect(@RequestParam(required = false) String payload, @RequestParam(required = false) String redirectResult) throws IOException, ApiException {
+        var paymentDetailsRequest = createPaymentDetailsRequest(payload, redirectResult);
+        var paymentsDetailsResponse = paymentsApi.paymentsDetails(paymentDetailsRequest);
+        paymentLogger.exchange(PaymentLogger.Endpoint.PAYMENT_DETAILS, paymentDetailsRequest, paymentsDetailsResponse);
+        paymentTracker.paymentDetailsResponse(paymentsDetailsResponse);
+
+        return resultPage(paymentsDetailsResponse);
+    }
+
+    // Shared with the non-blocking variants of these endpoints in AsyncApiController
+    static PaymentMethodsRequest createPaymentMethodsRequest(String merchantAccount, PaymentMethodsRequest body) {
+        var paymentMethodsRequest = new PaymentMethodsRequest();
+        paymentMethodsRequest.setMerchantAccount(merchantAccount);
+        if (body != null) {
+            // Optionally narrow down the payment methods to the shopper's country and basket
+            paymentMethodsRequest.setCountryCode(body.getCountryCode());
+            paymentMethodsRequest.setAmount(body.getAmount());
+        }
+        return paymentMethodsRequest;
+    }
+
+    // returnPath: the endpoint that completes a redirect, so the blocking and the async flow each come back to their own
+    static PaymentRequest createPaymentRequest(String merchantAccount, PaymentRequest body, String returnPath) {
         var paymentRequest = new PaymentRequest();
 
         var amount = new Amount()
                 .currency("EUR")
                 .value(9998L);
         paymentRequest.setAmount(amount);
-        paymentRequest.setMerchantAccount(applicationConfiguration.getAdyenMerchantAccount());
+        paymentRequest.setMerchantAccount(merchantAccount);
         paymentRequest.setChannel(PaymentRequest.ChannelEnum.WEB);
 
         paymentRequest.setPaymentMethod(body.getPaymentMethod());
@@ -69,7 +162,7 @@ public class ApiController {
         var orderRef = UUID.randomUUID().toString();
         paymentRequest.setReference(orderRef);
         // The returnUrl field basically means: Once done with the payment, where should the application redirect you?
-        paymentRequest.setReturnUrl("http://localhost:8080/handleShopperRedirect");
+        paymentRequest.setReturnUrl("http://localhost:8080" + returnPath);
 
 
         // Step 12 3DS2 Redirect - Add the following additional parameters to your existing payment request for 3DS2 Redirect:
@@ -95,31 +188,10 @@ public class ApiController {
         billingAddress.setStreet("Rokin");
         billingAddress.setHouseNumberOrName("49");
         paymentRequest.setBillingAddress(billingAddress);
-
-        // Step 11 - Optionally add the idempotency key
-        var requestOptions = new RequestOptions();
-        requestOptions.setIdempotencyKey(UUID.randomUUID().toString());
-
-        log.info("PaymentsRequest {}", paymentRequest);
-        var response = paymentsApi.payments(paymentRequest, requestOptions); // add RequestOptions here
-        log.info("PaymentsResponse {}", response);
-
-        return ResponseEntity.ok().body(response);
-    }
-
-    // Step 13 - Handle details call (triggered after the Native 3DS2 flow, called from the frontend in step 14)
-    @PostMapping("/api/payments/details")
-    public ResponseEntity<PaymentDetailsResponse> paymentsDetails(@RequestBody PaymentDetailsRequest detailsRequest) throws IOException, ApiException
-    {
-        log.info("PaymentDetailsRequest {}", detailsRequest);
-        var response = paymentsApi.paymentsDetails(detailsRequest);
-        log.info("PaymentDetailsResponse {}", response);
-        return ResponseEntity.ok().body(response);
+        return paymentRequest;
     }
 
-    // Step 14 - Handle Redirect 3DS2 during payment.
-    @GetMapping("/handleShopperRedirect")
-    public RedirectView redirect(@RequestParam(required = false) String payload, @RequestParam(required = false) String redirectResult) throws IOException, ApiException {
+    static PaymentDetailsRequest createPaymentDetailsRequest(String payload, String redirectResult) {
         var paymentDetailsRequest = new PaymentDetailsRequest();
 
         PaymentCompletionDetails paymentCompletionDetails = new PaymentCompletionDetails();
@@ -135,13 +207,13 @@ public class ApiController {
         }
 
         paymentDetailsRequest.setDetails(paymentCompletionDetails);
+        return paymentDetailsRequest;
+    }
 
-        var paymentsDetailsResponse = paymentsApi.paymentsDetails(paymentDetailsRequest);
-        log.info("PaymentsDetailsResponse {}", paymentsDetailsResponse);
-
+    static RedirectView resultPage(PaymentDetailsResponse response) {
         // Handle response and redirect user accordingly
         var redirectURL = "http://localhost:8080/result/"; // Update your url here by replacing `http://localhost:8080` with where your application is hosted (if needed)
-        switch (paymentsDetailsResponse.getResultCode()) {
+        switch (response.getResultCode()) {
             case AUTHORISED:
                 redirectURL += "success";
                 break;
@@ -156,6 +228,11 @@ public class ApiController {
                 redirectURL += "error";
                 break;
         }
-        return new RedirectView(redirectURL + "?reason=" + paymentsDetailsResponse.getResultCode());
+        var reference = response.getPspReference() != null ? "&reference=" + response.getPspReference() : "";
+        return new RedirectView(redirectURL + "?reason=" + response.getResultCode() + reference);
+    }
+
+    static boolean isValidIdempotencyKey(String idempotencyKey) {
+        return idempotencyKey == null || (!idempotencyKey.isBlank() && idempotencyKey.length() <= MAX_IDEMPOTENCY_KEY_LENGTH);
     }
 }
@@ -0,0 +1,123 @@
+package com.adyen.workshop.controllers;
+
+import com.adyen.model.RequestOptions;
+import com.adyen.model.checkout.PaymentDetailsRequest;
+import com.adyen.model.checkout.PaymentDetailsResponse;
+import com.adyen.model.checkout.PaymentMethodsRequest;
+import com.adyen.model.checkout.PaymentRequest;
+import com.adyen.model.checkout.PaymentResponse;
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.services.CheckoutAdmission;
+import com.adyen.workshop.services.InstrumentedPaymentsApi;
+import com.adyen.workshop.services.PaymentIdempotencyCache;
+import com.adyen.workshop.services.PaymentLogger;
+import com.adyen.workshop.services.PaymentMethodsCache;
+import com.adyen.workshop.services.PaymentTracker;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.view.RedirectView;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Non-blocking variants of the checkout endpoints of {@link ApiController}, under /api/async and /async.
+ * They return a CompletableFuture: the servlet thread is released while Adyen is called, and the response is written
+ * when the call completes. Many concurrent checkouts then need no more than a small pool of request threads.
+ * Requires adyen.http.pooled=true, otherwise the Adyen calls block the request thread all the same.
+ */
+@RestController
+public class AsyncApiController {
+    private final Logger log = LoggerFactory.getLogger(AsyncApiController.class);
+
+    private final ApplicationConfiguration applicationConfiguration;
+    private final InstrumentedPaymentsApi paymentsApi;
+    private final PaymentMethodsCache paymentMethodsCache;
+    private final PaymentIdempotencyCache paymentIdempotencyCache;
+    private final PaymentLogger paymentLogger;
+    private final CheckoutAdmission checkoutAdmission;
+    private final PaymentTracker paymentTracker;
+
+    public AsyncApiController(ApplicationConfiguration applicationConfiguration, InstrumentedPaymentsApi paymentsApi,
+                              PaymentMethodsCache paymentMethodsCache, PaymentIdempotencyCache paymentIdempotencyCache,
+                              PaymentLogger paymentLogger, CheckoutAdmission checkoutAdmission, PaymentTracker paymentTracker) {
+        this.applicationConfiguration = applicationConfiguration;
+        this.paymentsApi = paymentsApi;
+        this.paymentMethodsCache = paymentMethodsCache;
+        this.paymentIdempotencyCache = paymentIdempotencyCache;
+        this.paymentLogger = paymentLogger;
+        this.checkoutAdmission = checkoutAdmission;
+        this.paymentTracker = paymentTracker;
+    }
+
+    @PostMapping("/api/async/paymentMethods")
+    public CompletableFuture<ResponseEntity<byte[]>> paymentMethods(@RequestBody(required = false) PaymentMethodsRequest body) {
+        var paymentMethodsRequest = ApiController.createPaymentMethodsRequest(applicationConfiguration.getAdyenMerchantAccount(), body);
+        paymentLogger.exchange(PaymentLogger.Endpoint.PAYMENT_METHODS, paymentMethodsRequest, null);
+        return paymentMethodsCache.getAsync(paymentMethodsRequest)
+                .thenApply(response -> ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(response));
+    }
+
+    @PostMapping("/api/async/payments")
+    public CompletableFuture<ResponseEntity<PaymentResponse>> payments(@RequestBody PaymentRequest body,
+                                                                       @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                                                       HttpServletRequest request) {
+        if (!ApiController.isValidIdempotencyKey(idempotencyKey)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+        var retryAfter = checkoutAdmission.admit(CheckoutAdmission.Endpoint.PAYMENTS, request.getRemoteAddr());
+        if (retryAfter > 0) {
+            return CompletableFuture.completedFuture(CheckoutAdmission.tooManyRequests(retryAfter));
+        }
+
+        // 3DS redirects come back to /async/handleShopperRedirect, which completes them without blocking a thread
+        var paymentRequest = ApiController.createPaymentRequest(applicationConfiguration.getAdyenMerchantAccount(), body, "/async/handleShopperRedirect");
+        var requestOptions = new RequestOptions();
+        requestOptions.setIdempotencyKey(idempotencyKey != null ? idempotencyKey : UUID.randomUUID().toString());
+
+        var response = idempotencyKey != null
+                ? paymentIdempotencyCache.executeAsync(idempotencyKey, PaymentIdempotencyCache.fingerprint(body), () -> paymentsApi.paymentsAsync(paymentRequest, requestOptions))
+                : paymentsApi.paymentsAsync(paymentRequest, requestOptions);
+        return response.handle((paymentResponse, e) -> {
+            if (e == null) {
+                paymentLogger.exchange(PaymentLogger.Endpoint.PAYMENTS, paymentRequest, paymentResponse);
+                paymentTracker.paymentResponse(paymentRequest, paymentResponse);
+                return ResponseEntity.ok().body(paymentResponse);
+            }
+            var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof PaymentIdempotencyCache.IdempotencyKeyReusedException) {
+                log.warn(cause.getMessage());
+                return ResponseEntity.unprocessableEntity().build();
+            }
+            throw e instanceof CompletionException completionException ? completionException : new CompletionException(e);
+        });
+    }
+
+    @PostMapping("/api/async/payments/details")
+    public CompletableFuture<ResponseEntity<PaymentDetailsResponse>> paymentsDetails(@RequestBody PaymentDetailsRequest detailsRequest, HttpServletRequest request) {
+        var retryAfter = checkoutAdmission.admit(CheckoutAdmission.Endpoint.PAYMENT_DETAILS, request.getRemoteAddr());
+        if (retryAfter > 0) {
+            return CompletableFuture.completedFuture(CheckoutAdmission.tooManyRequests(retryAfter));
+        }
+        return paymentsApi.paymentsDetailsAsync(detailsRequest).thenApply(response -> {
+            paymentLogger.exchange(PaymentLogger.Endpoint.PAYMENT_DETAILS, detailsRequest, response);
+            paymentTracker.paymentDetailsResponse(response);
+            return ResponseEntity.ok().body(response);
+        });
+    }
+
+    @GetMapping("/async/handleShopperRedirect")
+    public CompletableFuture<RedirectView> redirect(@RequestParam(required = false) String payload, @RequestParam(required = false) String redirectResult) {
+        var paymentDetailsRequest = ApiController.createPaymentDetailsRequest(payload, redirectResult);
+        return paymentsApi.paymentsDetailsAsync(paymentDetailsRequest).thenApply(response -> {
+            paymentLogger.exchange(PaymentLogger.Endpoint.PAYMENT_DETAILS, paymentDetailsRequest, response);
+            paymentTracker.paymentDetailsResponse(response);
+            return ApiController.resultPage(response);
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package com.adyen.workshop.controllers;
+
+import com.adyen.workshop.services.BillingEngine;
+import com.adyen.workshop.services.BillingRun;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * REST controller for the monthly subscription billing runs, see {@link BillingEngine}.
+ */
+@RestController
+public class BillingController {
+    private final Logger log = LoggerFactory.getLogger(BillingController.class);
+
+    private final BillingEngine billingEngine;
+
+    public BillingController(BillingEngine billingEngine) {
+        this.billingEngine = billingEngine;
+    }
+
+    // Starts charging all stored tokens, e.g. POST /admin/billing-runs/2024-10?amount=500&currency=EUR
+    // Posting the same runId again resumes the run without charging anyone twice; 409 while it runs or for another amount or currency
+    @PostMapping("/admin/billing-runs/{runId}")
+    public ResponseEntity<BillingRun.Summary> start(@PathVariable String runId,
+                                                    @RequestParam(defaultValue = "500") long amount,
+                                                    @RequestParam(defaultValue = "EUR") String currency) {
+        log.info("/admin/billing-runs/{} amount {} {}", runId, amount, currency);
+        try {
+            var run = billingEngine.start(runId, amount, currency);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(run.getSummary());
+        } catch (IllegalStateException e) {
+            log.warn(e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(billingEngine.get(runId).getSummary());
+        }
+    }
+
+    @GetMapping("/admin/billing-runs")
+    public ResponseEntity<List<BillingRun.Summary>> runs() {
+        return ResponseEntity.ok().body(billingEngine.getAll().stream().map(BillingRun::getSummary).toList());
+    }
+
+    @GetMapping("/admin/billing-runs/{runId}")
+    public ResponseEntity<BillingRun.Summary> run(@PathVariable String runId) {
+        var run = billingEngine.get(runId);
+        return run == null ? ResponseEntity.notFound().build() : ResponseEntity.ok().body(run.getSummary());
+    }
+
+    // The outcome of every charge of the run
+    @GetMapping("/admin/billing-runs/{runId}/outcomes")
+    public ResponseEntity<List<BillingRun.ChargeOutcome>> outcomes(@PathVariable String runId) {
+        var run = billingEngine.get(runId);
+        return run == null ? ResponseEntity.notFound().build() : ResponseEntity.ok().body(run.getOutcomes());
+    }
+}
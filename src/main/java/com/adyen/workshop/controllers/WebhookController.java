@@ -1,20 +1,30 @@
 package com.adyen.workshop.controllers;
 
-import com.adyen.model.notification.NotificationRequest;
 import com.adyen.model.notification.NotificationRequestItem;
-import com.adyen.util.HMACValidator;
-import com.adyen.workshop.configurations.ApplicationConfiguration;
-import com.adyen.workshop.util.Storage;
+import com.adyen.workshop.services.PaymentLogger;
+import com.adyen.workshop.services.WebhookPipeline;
+import com.adyen.workshop.util.DeduplicationIndex;
+import com.adyen.workshop.util.NotificationStreamParser;
+import com.adyen.workshop.util.WebhookEventLog;
+import com.adyen.workshop.util.WebhookSignatureVerifier;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.security.SignatureException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * REST controller for receiving Adyen webhook notifications
@@ -23,65 +33,177 @@ import java.security.SignatureException;
 public class WebhookController {
     private final Logger log = LoggerFactory.getLogger(WebhookController.class);
 
-    private final ApplicationConfiguration applicationConfiguration;
+    private enum ItemOutcome {
+        ACCEPTED,
+        DUPLICATE,
+        INVALID_SIGNATURE,
+        REJECTED,
+        FAILED
+    }
+
+    private final WebhookSignatureVerifier webhookSignatureVerifier;
+
+    private final WebhookPipeline webhookPipeline;
+
+    private final ExecutorService webhookExecutor;
 
-    private final HMACValidator hmacValidator;
+    private final DeduplicationIndex webhookDeduplicationIndex;
+
+    // Null unless webhook.event-log.enabled=true
+    private final WebhookEventLog webhookEventLog;
+
+    private final PaymentLogger paymentLogger;
+
+    private final Counter hmacFailureCounter;
 
     @Autowired
-    public WebhookController(ApplicationConfiguration applicationConfiguration, HMACValidator hmacValidator) {
-        this.applicationConfiguration = applicationConfiguration;
-        this.hmacValidator = hmacValidator;
+    public WebhookController(WebhookSignatureVerifier webhookSignatureVerifier,
+                             WebhookPipeline webhookPipeline, @Qualifier("webhookExecutor") ExecutorService webhookExecutor,
+                             DeduplicationIndex webhookDeduplicationIndex, ObjectProvider<WebhookEventLog> webhookEventLog,
+                             PaymentLogger paymentLogger, MeterRegistry meterRegistry) {
+        this.webhookSignatureVerifier = webhookSignatureVerifier;
+        this.webhookPipeline = webhookPipeline;
+        this.webhookExecutor = webhookExecutor;
+        this.webhookDeduplicationIndex = webhookDeduplicationIndex;
+        this.webhookEventLog = webhookEventLog.getIfAvailable();
+        this.paymentLogger = paymentLogger;
+        this.hmacFailureCounter = Counter.builder("webhook.hmac.failures")
+                .description("Webhook items rejected because of an invalid HMAC signature")
+                .register(meterRegistry);
     }
 
-    // Step 16 - Validate the HMAC signature using the ADYEN_HMAC_KEY
+    // Step 16 - Validate the HMAC signature using the ADYEN_HMAC_KEY (see WebhookSignatureVerifier)
     @PostMapping("/webhooks")
-    public ResponseEntity<String> webhooks(@RequestBody String json) throws Exception {
-        log.info("Received: {}", json);
-        var notificationRequest = NotificationRequest.fromJson(json);
-        var notificationRequestItem = notificationRequest.getNotificationItems().stream().findFirst();
-
-        if (notificationRequestItem.isPresent()) {
+    public ResponseEntity<String> webhooks(InputStream body) throws IOException {
+        // Only a sample of the deliveries is logged, item by item and redacted (see PaymentLogger)
+        var sampled = paymentLogger.isSampled(PaymentLogger.Endpoint.WEBHOOKS);
+
+        // Items are accepted while the delivery is still being read, so the payload is never held in memory as a whole
+        var batch = new Batch();
+        var count = NotificationStreamParser.parse(body, sampled ? item -> {
+            paymentLogger.log(PaymentLogger.Endpoint.WEBHOOKS, item, null);
+            batch.add(item);
+        } : batch::add);
+        log.debug("Received webhook with {} items", count);
+
+        // A single acknowledgement for the whole batch: ask Adyen to retry when any item could not be taken in
+        var status = batch.await();
+        if (status != HttpStatus.ACCEPTED) {
+            log.warn("Not acknowledging webhook with {} items, Adyen will retry the delivery", count);
+        }
+        return ResponseEntity.status(status).build();
+    }
 
-            NotificationRequestItem item = notificationRequestItem.get();
+    /*
+    Outcome of one delivery. Adyen can batch several items in one delivery, those are validated and enqueued concurrently
+    on the webhookExecutor, whose bounded queue also bounds the number of parsed items waiting for it.
+    The first item is held back until a second one shows up, so a delivery with a single item is accepted on the request thread.
+     */
+    private final class Batch {
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final AtomicInteger rejected = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private NotificationRequestItem first;
+        private int items;
+
+        void add(NotificationRequestItem item) {
+            if (items++ == 0) {
+                first = item;
+                return;
+            }
+            if (first != null) {
+                dispatch(first);
+                first = null;
+            }
+            dispatch(item);
+        }
 
+        HttpStatus await() {
+            if (first != null) {
+                record(accept(first));
+            }
+            arrive();
+            done.join();
+            if (rejected.get() > 0) {
+                return HttpStatus.SERVICE_UNAVAILABLE;
+            }
+            return failed.get() > 0 ? HttpStatus.INTERNAL_SERVER_ERROR : HttpStatus.ACCEPTED;
+        }
 
+        private void dispatch(NotificationRequestItem item) {
+            pending.incrementAndGet();
             try {
-                if (!hmacValidator.validateHMAC(item, this.applicationConfiguration.getAdyenHmacKey())) {
-                    log.warn("Could not validate HMAC signature for incoming webhook message: {}", item);
-                    return ResponseEntity.ok().build();
-                }
-
-                log.info("Received webhook success:{} eventCode:{}", item.isSuccess(), item.getEventCode());
-
-                if(item.isSuccess()) {
-                    // read about eventcode "RECURRING_CONTRACT" here: https://docs.adyen.com/online-payments/tokenization/create-and-use-tokens?tab=subscriptions_2#pending-and-refusal-result-codes-1
-                    if (item.getEventCode().equals("RECURRING_CONTRACT") && item.getAdditionalData() != null && item.getAdditionalData().get("recurring.shopperReference") != null) {
-                        // webhook with recurring token
-                        log.info("Recurring authorized - recurringDetailReference {}", item.getAdditionalData().get("recurring.recurringDetailReference"));
-
-                        // save token
-                        Storage.add(item.getAdditionalData().get("recurring.recurringDetailReference"), item.getPaymentMethod(), item.getAdditionalData().get("recurring.shopperReference"));
-                    } else if (item.getEventCode().equals("AUTHORISATION")) {
-                        // webhook with payment authorisation
-                        log.info("Payment authorized - PspReference {}", item.getPspReference());
-                    } else {
-                        // unexpected eventCode
-                        log.warn("Unexpected eventCode: {}", item.getEventCode());
+                webhookExecutor.execute(() -> {
+                    try {
+                        record(accept(item));
+                    } finally {
+                        arrive();
                     }
-                } else {
-                    // Operation has failed: check the reason field for failure information.
-                    log.info("Operation has failed: {}", item.getReason());
-                }
-
-            } catch (SignatureException e) {
-                // Unexpected error during HMAC validation
-                log.error("Error while validating HMAC Key", e);
-                throw new RuntimeException(e.getMessage());
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down: the task never runs, so it has to arrive here or the batch would never finish
+                record(ItemOutcome.REJECTED);
+                arrive();
             }
+        }
+
+        private void record(ItemOutcome outcome) {
+            if (outcome == ItemOutcome.REJECTED) {
+                rejected.incrementAndGet();
+            } else if (outcome == ItemOutcome.FAILED) {
+                failed.incrementAndGet();
+            }
+        }
+
+        private void arrive() {
+            if (pending.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+        }
+    }
 
+    // Failures are contained per item, so one bad item does not stop the rest of the batch from being processed
+    private ItemOutcome accept(NotificationRequestItem item) {
+        // Adyen delivers webhooks at least once: acknowledge a redelivery without processing it again
+        var deduplicationKey = item.getPspReference() + ":" + item.getEventCode() + ":" + item.isSuccess();
+        if (webhookDeduplicationIndex.contains(deduplicationKey)) {
+            log.debug("Duplicate webhook - PspReference {} eventCode {}", item.getPspReference(), item.getEventCode());
+            return ItemOutcome.DUPLICATE;
         }
 
-        // Acknowledge event has been consumed
-        return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+        try {
+            if (!webhookSignatureVerifier.verify(item)) {
+                hmacFailureCounter.increment();
+                log.warn("Could not validate HMAC signature for incoming webhook message - PspReference {}", item.getPspReference());
+                return ItemOutcome.INVALID_SIGNATURE;
+            }
+
+            // Only one of two concurrent deliveries of the same item gets through
+            if (!webhookDeduplicationIndex.add(deduplicationKey)) {
+                return ItemOutcome.DUPLICATE;
+            }
+
+            // The item is processed asynchronously by the WebhookPipeline workers, see WebhookProcessor
+            if (!webhookPipeline.submit(item)) {
+                // Queue is full (or we're shutting down): don't acknowledge, Adyen will retry the delivery later
+                log.warn("Webhook queue is full, rejecting webhook - PspReference {}", item.getPspReference());
+                webhookDeduplicationIndex.remove(deduplicationKey);
+                return ItemOutcome.REJECTED;
+            }
+            // Only accepted items are logged, a rejected one is logged when Adyen redelivers it
+            if (webhookEventLog != null) {
+                webhookEventLog.append(item);
+            }
+            return ItemOutcome.ACCEPTED;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            webhookDeduplicationIndex.remove(deduplicationKey);
+            return ItemOutcome.REJECTED;
+        } catch (RuntimeException e) {
+            log.error("Unexpected error while accepting webhook item {}", item.getPspReference(), e);
+            return ItemOutcome.FAILED;
+        }
     }
-}
\ No newline at end of file
+}
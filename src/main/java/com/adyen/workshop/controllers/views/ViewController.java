@@ -1,6 +1,7 @@
 package com.adyen.workshop.controllers.views;
 
 import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.PaymentLedger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
@@ -15,9 +16,11 @@ public class ViewController {
     private final Logger log = LoggerFactory.getLogger(ViewController.class);
 
     private final ApplicationConfiguration applicationConfiguration;
+    private final PaymentLedger paymentLedger;
 
-    public ViewController(ApplicationConfiguration applicationConfiguration) {
+    public ViewController(ApplicationConfiguration applicationConfiguration, PaymentLedger paymentLedger) {
         this.applicationConfiguration = applicationConfiguration;
+        this.paymentLedger = paymentLedger;
     }
 
     @GetMapping("/")
@@ -39,8 +42,13 @@ public class ViewController {
     }
 
     @GetMapping("/result/{type}")
-    public String result(@PathVariable String type, Model model) {
+    public String result(@PathVariable String type, @RequestParam(required = false) String reference, Model model) {
         model.addAttribute("type", type);
+        // The state of the payment as far as we know it, from the payment ledger rather than from Adyen
+        if (reference != null && !reference.isBlank()) {
+            model.addAttribute("reference", reference);
+            model.addAttribute("payment", paymentLedger.get(reference));
+        }
         return "result";
     }
 
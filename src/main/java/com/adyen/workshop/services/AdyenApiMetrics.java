@@ -0,0 +1,92 @@
+package com.adyen.workshop.services;
+
+import com.adyen.service.exception.ApiException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Times every call to the Adyen API, as the Micrometer timer adyen.api.requests tagged with the operation
+ * (payments, paymentsDetails, ...), the resultCode of the response and, when the call failed, the exception.
+ * Timers publish a histogram, so percentiles can be computed per operation and resultCode on /actuator/prometheus.
+ */
+@Service
+public class AdyenApiMetrics {
+
+    /**
+     * A call to the Adyen API.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T execute() throws ApiException, IOException;
+    }
+
+    private record Key(String operation, String resultCode, String exception) {
+    }
+
+    private final MeterRegistry meterRegistry;
+    // Timers are looked up once per tag combination instead of building a Meter.Id on every call
+    private final ConcurrentHashMap<Key, Timer> timers = new ConcurrentHashMap<>();
+
+    public AdyenApiMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Executes the call and records its latency.
+     *
+     * @param resultCode extracts the resultCode tag from the response
+     */
+    public <T> T record(String operation, Call<T> call, Function<T, String> resultCode) throws ApiException, IOException {
+        var start = System.nanoTime();
+        try {
+            var response = call.execute();
+            var code = response != null ? resultCode.apply(response) : null;
+            timer(operation, code != null ? code : "none", "none").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return response;
+        } catch (ApiException e) {
+            timer(operation, "Error", "ApiException-" + e.getStatusCode()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            timer(operation, "Error", e.getClass().getSimpleName()).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    /**
+     * Records the latency of a call that completes asynchronously, see {@link #record}.
+     */
+    public <T> CompletableFuture<T> recordAsync(String operation, Supplier<CompletableFuture<T>> call, Function<T, String> resultCode) {
+        var start = System.nanoTime();
+        return call.get().whenComplete((response, e) -> {
+            var latency = System.nanoTime() - start;
+            var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause == null) {
+                var code = response != null ? resultCode.apply(response) : null;
+                timer(operation, code != null ? code : "none", "none").record(latency, TimeUnit.NANOSECONDS);
+            } else if (cause instanceof ApiException apiException) {
+                timer(operation, "Error", "ApiException-" + apiException.getStatusCode()).record(latency, TimeUnit.NANOSECONDS);
+            } else {
+                timer(operation, "Error", cause.getClass().getSimpleName()).record(latency, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    private Timer timer(String operation, String resultCode, String exception) {
+        return timers.computeIfAbsent(new Key(operation, resultCode, exception), key -> Timer.builder("adyen.api.requests")
+                .description("Calls to the Adyen API")
+                .tag("operation", key.operation())
+                .tag("resultCode", key.resultCode())
+                .tag("exception", key.exception())
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+}
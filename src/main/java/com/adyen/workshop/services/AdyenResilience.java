@@ -0,0 +1,207 @@
+package com.adyen.workshop.services;
+
+import com.adyen.service.exception.ApiException;
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.AdyenHttpTransport;
+import com.adyen.workshop.util.CircuitBreaker;
+import com.adyen.workshop.util.LatencyWindow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a slow or failing Adyen from taking the whole application down. Every operation (payments, sessions, ...) gets:
+ *
+ * <ul>
+ *     <li>a bulkhead: at most maxConcurrent calls at once, so blocked calls cannot occupy every request thread;</li>
+ *     <li>a {@link CircuitBreaker}: when too many calls fail, calls fail fast for a while instead of waiting for Adyen;</li>
+ *     <li>an adaptive timeout: a multiple of the recently observed latency percentile, between a minimum and
+ *     the configured read timeout, so a call that is far slower than usual is given up early. Not for payments and
+ *     paymentsDetails: an authorisation that we give up on can still succeed at Adyen, and the shopper's retry
+ *     (with a new idempotency key) would then be a second payment, so those wait for the read timeout.</li>
+ * </ul>
+ * Calls that are not made throw {@link AdyenUnavailableException} (answered with 503). Timeouts, I/O errors and
+ * 5xx responses count as failures, 4xx responses do not: those are problems with the request, not with Adyen.
+ * The adaptive timeout is applied by the {@link AdyenHttpTransport}, with adyen.http.pooled=false only the read timeout applies.
+ */
+@Service
+public class AdyenResilience {
+
+    private static final int LATENCY_WINDOW = 1024;
+
+    // Operations that move money keep the configured read timeout
+    private static final Set<String> FIXED_TIMEOUT_OPERATIONS = Set.of("payments", "paymentsDetails");
+
+    private final ApplicationConfiguration applicationConfiguration;
+    private final MeterRegistry meterRegistry;
+    private final CircuitBreaker.Settings circuitBreakerSettings;
+    private final ConcurrentHashMap<String, Guard> guards = new ConcurrentHashMap<>();
+
+    public AdyenResilience(ApplicationConfiguration applicationConfiguration, MeterRegistry meterRegistry) {
+        this.applicationConfiguration = applicationConfiguration;
+        this.meterRegistry = meterRegistry;
+        this.circuitBreakerSettings = new CircuitBreaker.Settings(
+                applicationConfiguration.getAdyenCircuitBreakerWindow(),
+                applicationConfiguration.getAdyenCircuitBreakerMinimumCalls(),
+                applicationConfiguration.getAdyenCircuitBreakerFailureRate(),
+                Duration.ofMillis(applicationConfiguration.getAdyenCircuitBreakerOpenMs()),
+                applicationConfiguration.getAdyenCircuitBreakerHalfOpenCalls());
+    }
+
+    public <T> T execute(String operation, AdyenApiMetrics.Call<T> call) throws ApiException, IOException {
+        if (!applicationConfiguration.isAdyenResilienceEnabled()) {
+            return call.execute();
+        }
+        return guards.computeIfAbsent(operation, this::createGuard).execute(call);
+    }
+
+    /**
+     * Like {@link #execute}, for a call that completes asynchronously. A call that is not made completes
+     * exceptionally with {@link AdyenUnavailableException}.
+     */
+    public <T> CompletableFuture<T> executeAsync(String operation, Supplier<CompletableFuture<T>> call) {
+        if (!applicationConfiguration.isAdyenResilienceEnabled()) {
+            return call.get();
+        }
+        return guards.computeIfAbsent(operation, this::createGuard).executeAsync(call);
+    }
+
+    public CircuitBreaker.State getState(String operation) {
+        var guard = guards.get(operation);
+        return guard != null ? guard.circuitBreaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+
+    private Guard createGuard(String operation) {
+        var guard = new Guard(operation);
+        Gauge.builder("adyen.circuitbreaker.state", guard.circuitBreaker, circuitBreaker -> circuitBreaker.getState().ordinal())
+                .description("Circuit breaker state: 0 closed, 1 open, 2 half open")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        Gauge.builder("adyen.bulkhead.active", guard, g -> applicationConfiguration.getAdyenBulkheadMaxConcurrent() - g.bulkhead.availablePermits())
+                .description("Calls to Adyen in progress")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        Gauge.builder("adyen.timeout", guard, g -> g.timeout().toMillis())
+                .description("Current adaptive timeout in milliseconds")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        return guard;
+    }
+
+    private final class Guard {
+        private final String operation;
+        private final boolean adaptiveTimeout;
+        private final Semaphore bulkhead = new Semaphore(applicationConfiguration.getAdyenBulkheadMaxConcurrent());
+        private final CircuitBreaker circuitBreaker = new CircuitBreaker(circuitBreakerSettings);
+        private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW, applicationConfiguration.getAdyenTimeoutPercentile());
+        private final Counter circuitOpenRejections;
+        private final Counter bulkheadRejections;
+
+        Guard(String operation) {
+            this.operation = operation;
+            this.adaptiveTimeout = !FIXED_TIMEOUT_OPERATIONS.contains(operation);
+            this.circuitOpenRejections = meterRegistry.counter("adyen.resilience.rejections", "operation", operation, "reason", "circuit-open");
+            this.bulkheadRejections = meterRegistry.counter("adyen.resilience.rejections", "operation", operation, "reason", "bulkhead-full");
+        }
+
+        <T> T execute(AdyenApiMetrics.Call<T> call) throws ApiException, IOException {
+            var permit = enter(true);
+            AdyenHttpTransport.setCallTimeout(timeout());
+            var start = System.nanoTime();
+            try {
+                var response = call.execute();
+                exit(permit, start, null);
+                return response;
+            } catch (ApiException | IOException | RuntimeException e) {
+                exit(permit, start, e);
+                throw e;
+            } finally {
+                AdyenHttpTransport.clearCallTimeout();
+            }
+        }
+
+        <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> call) {
+            long permit;
+            try {
+                permit = enter(false);
+            } catch (AdyenUnavailableException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            // The transport reads the timeout while the request is built, before the call returns its future
+            AdyenHttpTransport.setCallTimeout(timeout());
+            var start = System.nanoTime();
+            CompletableFuture<T> response;
+            try {
+                response = call.get();
+            } catch (RuntimeException e) {
+                exit(permit, start, e);
+                return CompletableFuture.failedFuture(e);
+            } finally {
+                AdyenHttpTransport.clearCallTimeout();
+            }
+            return response.whenComplete((ignored, e) -> exit(permit, start, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+        }
+
+        // Asynchronous calls do not wait for a bulkhead slot, that would block the calling thread
+        private long enter(boolean wait) throws AdyenUnavailableException {
+            var permit = circuitBreaker.tryAcquire();
+            if (permit == CircuitBreaker.NOT_PERMITTED) {
+                circuitOpenRejections.increment();
+                throw new AdyenUnavailableException("Adyen " + operation + " is failing, not calling it for now");
+            }
+            if (!(wait ? acquireBulkhead() : bulkhead.tryAcquire())) {
+                circuitBreaker.release(permit);
+                bulkheadRejections.increment();
+                throw new AdyenUnavailableException("Too many concurrent Adyen " + operation + " calls");
+            }
+            return permit;
+        }
+
+        private void exit(long permit, long start, Throwable failure) {
+            try {
+                if (failure == null) {
+                    latencies.record(System.nanoTime() - start);
+                    circuitBreaker.onSuccess(permit);
+                } else if (failure instanceof ApiException e && e.getStatusCode() != 0 && e.getStatusCode() < 500) {
+                    // A 4xx is a problem with the request, Adyen did answer. A status code of 0 means no response was received
+                    latencies.record(System.nanoTime() - start);
+                    circuitBreaker.onSuccess(permit);
+                } else {
+                    circuitBreaker.onFailure(permit);
+                }
+            } finally {
+                bulkhead.release();
+            }
+        }
+
+        Duration timeout() {
+            var max = applicationConfiguration.getAdyenHttpReadTimeoutMs();
+            var percentileNanos = latencies.getPercentileNanos();
+            if (!adaptiveTimeout || percentileNanos < 0) {
+                return Duration.ofMillis(max);
+            }
+            var adaptive = (long) (TimeUnit.NANOSECONDS.toMillis(percentileNanos) * applicationConfiguration.getAdyenTimeoutMultiplier());
+            return Duration.ofMillis(Math.max(applicationConfiguration.getAdyenTimeoutMinMs(), Math.min(max, adaptive)));
+        }
+
+        private boolean acquireBulkhead() {
+            try {
+                return bulkhead.tryAcquire(applicationConfiguration.getAdyenBulkheadMaxWaitMs(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.adyen.workshop.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.IOException;
+
+/**
+ * A call to Adyen was not made because its circuit breaker is open or its bulkhead is full, see {@link AdyenResilience}.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class AdyenUnavailableException extends IOException {
+    public AdyenUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,197 @@
+package com.adyen.workshop.services;
+
+import com.adyen.model.RequestOptions;
+import com.adyen.model.checkout.Amount;
+import com.adyen.model.checkout.CheckoutPaymentMethod;
+import com.adyen.model.checkout.PaymentRequest;
+import com.adyen.model.checkout.StoredPaymentMethodDetails;
+import com.adyen.service.checkout.PaymentsApi;
+import com.adyen.service.exception.ApiException;
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.Storage;
+import com.adyen.workshop.util.Threads;
+import com.adyen.workshop.util.Token;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Charges every stored token for a subscription period (a billing run).
+ *
+ * <p>Tokens are streamed straight out of {@link Storage} and charged with bounded concurrency and a fixed rate limit.
+ * Both the merchant reference and the idempotency key of a charge are derived from the run id and the token,
+ * so running a crashed or interrupted run again with the same id cannot charge a shopper twice:
+ * Adyen answers a repeated idempotency key with the original result, and tokens that already got a final
+ * result in this instance are skipped. A run is only resumed with the amount and currency it was started with:
+ * the key would be the same for a different request body, which Adyen rejects or answers with the original result.
+ */
+@Service
+public class BillingEngine {
+    private final Logger log = LoggerFactory.getLogger(BillingEngine.class);
+
+    private final ApplicationConfiguration applicationConfiguration;
+    private final PaymentsApi paymentsApi;
+    private final PaymentTracker paymentTracker;
+    private final Timer chargeTimer;
+    private final ExecutorService executor;
+
+    private final ConcurrentHashMap<String, BillingRun> runs = new ConcurrentHashMap<>();
+
+    public BillingEngine(ApplicationConfiguration applicationConfiguration, PaymentsApi paymentsApi, PaymentTracker paymentTracker,
+                         MeterRegistry meterRegistry) {
+        this.applicationConfiguration = applicationConfiguration;
+        this.paymentsApi = paymentsApi;
+        this.paymentTracker = paymentTracker;
+        this.chargeTimer = Timer.builder("billing.charge")
+                .description("Latency of subscription charges made by billing runs")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+        this.executor = Executors.newCachedThreadPool(Threads.blocking("billing", applicationConfiguration.isVirtualThreadsEnabled()));
+    }
+
+    /**
+     * Starts (or resumes) the billing run with the given id in the background.
+     *
+     * @throws IllegalStateException when a run with this id is still running, or was started with another amount or currency
+     */
+    public BillingRun start(String runId, long amount, String currency) {
+        // Checked and replaced atomically, so two concurrent requests for the same id cannot both start a run
+        var run = runs.compute(runId, (id, previous) -> {
+            if (previous != null && previous.getStatus() == BillingRun.Status.RUNNING) {
+                throw new IllegalStateException("Billing run " + runId + " is still running");
+            }
+            if (previous != null && (previous.getAmount() != amount || !previous.getCurrency().equals(currency))) {
+                throw new IllegalStateException("Billing run " + runId + " was started with " + previous.getAmount() + " "
+                        + previous.getCurrency() + ", resume it with the same amount and currency or use another id");
+            }
+            return new BillingRun(runId, amount, currency, previous != null ? previous.finalRecurringReferences() : Set.of());
+        });
+        executor.execute(() -> execute(run, Storage.getAllTokens()));
+        return run;
+    }
+
+    public BillingRun get(String runId) {
+        return runs.get(runId);
+    }
+
+    public Collection<BillingRun> getAll() {
+        return runs.values();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void execute(BillingRun run, Collection<Token> tokens) {
+        log.info("Billing run {} started", run.getRunId());
+        var concurrency = new Semaphore(applicationConfiguration.getBillingMaxConcurrency());
+        var rateLimiter = new RateLimiter(applicationConfiguration.getBillingRatePerSecond());
+        var skipped = 0;
+
+        try {
+            for (var token : tokens) {
+                if (run.isAlreadyCharged(token.recurringReference())) {
+                    skipped++;
+                    continue;
+                }
+                rateLimiter.acquire();
+                concurrency.acquire();
+                executor.execute(() -> {
+                    try {
+                        run.record(charge(run, token));
+                    } finally {
+                        concurrency.release();
+                    }
+                });
+            }
+            // Wait for the charges still in flight
+            concurrency.acquire(applicationConfiguration.getBillingMaxConcurrency());
+            run.finish(BillingRun.Status.COMPLETED, skipped);
+            log.info("Billing run {} completed: {}", run.getRunId(), run.getSummary());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.finish(BillingRun.Status.FAILED, skipped);
+            log.warn("Billing run {} interrupted, start it again with the same id to resume", run.getRunId());
+        } catch (RuntimeException e) {
+            run.finish(BillingRun.Status.FAILED, skipped);
+            log.error("Billing run {} failed, start it again with the same id to resume", run.getRunId(), e);
+        }
+    }
+
+    private BillingRun.ChargeOutcome charge(BillingRun run, Token token) {
+        var merchantReference = "billing-" + run.getRunId() + "-" + token.recurringReference();
+
+        var paymentRequest = new PaymentRequest();
+        paymentRequest.setMerchantAccount(applicationConfiguration.getAdyenMerchantAccount());
+        paymentRequest.setAmount(new Amount().currency(run.getCurrency()).value(run.getAmount()));
+        paymentRequest.setReference(merchantReference);
+        paymentRequest.setShopperInteraction(PaymentRequest.ShopperInteractionEnum.CONTAUTH);
+        paymentRequest.setShopperReference(token.shopperReference());
+        paymentRequest.setRecurringProcessingModel(PaymentRequest.RecurringProcessingModelEnum.SUBSCRIPTION);
+        paymentRequest.setPaymentMethod(new CheckoutPaymentMethod(new StoredPaymentMethodDetails().storedPaymentMethodId(token.recurringReference())));
+
+        // Deterministic: the same run and token always produce the same key
+        var requestOptions = new RequestOptions();
+        requestOptions.setIdempotencyKey(UUID.nameUUIDFromBytes((run.getRunId() + ":" + token.recurringReference()).getBytes(StandardCharsets.UTF_8)).toString());
+
+        var start = System.nanoTime();
+        String resultCode = null;
+        String pspReference = null;
+        String error = null;
+        try {
+            var response = paymentsApi.payments(paymentRequest, requestOptions);
+            resultCode = response.getResultCode() != null ? response.getResultCode().getValue() : null;
+            pspReference = response.getPspReference();
+            paymentTracker.paymentResponse(paymentRequest, response);
+        } catch (ApiException e) {
+            error = "ApiException " + e.getStatusCode() + ": " + (e.getError() != null ? e.getError().getMessage() : e.getMessage());
+        } catch (Exception e) {
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        var latencyNanos = System.nanoTime() - start;
+        chargeTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+
+        if (error != null) {
+            log.warn("Billing run {} could not charge token {}: {}", run.getRunId(), token.recurringReference(), error);
+        }
+        return new BillingRun.ChargeOutcome(token.recurringReference(), token.shopperReference(), merchantReference,
+                resultCode, pspReference, error, TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+    }
+
+    // Spaces out charges evenly, at most permitsPerSecond of them
+    private static final class RateLimiter {
+        private final long intervalNanos;
+        private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+        RateLimiter(double permitsPerSecond) {
+            this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+        }
+
+        void acquire() throws InterruptedException {
+            if (intervalNanos == 0) {
+                return;
+            }
+            var now = System.nanoTime();
+            var slot = Math.max(now, next.getAndUpdate(previous -> Math.max(previous, now) + intervalNanos));
+            var wait = slot - now;
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
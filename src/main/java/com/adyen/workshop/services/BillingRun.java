@@ -0,0 +1,130 @@
+package com.adyen.workshop.services;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+/**
+ * State and report of one billing run started by the {@link BillingEngine}.
+ */
+public class BillingRun {
+
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    /**
+     * Result of charging one token. resultCode is null when the call to Adyen failed, error says why.
+     */
+    public record ChargeOutcome(String recurringReference, String shopperReference, String merchantReference,
+                                String resultCode, String pspReference, String error, long latencyMs) {
+
+        // Authorised or refused: charging this token again in a resumed run would not change anything
+        boolean isFinal() {
+            return resultCode != null;
+        }
+    }
+
+    public record Summary(String runId, Status status, long amount, String currency, Instant startedAt, Instant finishedAt,
+                          int charged, int skipped, Map<String, Long> results, double throughputPerSecond,
+                          Map<String, Long> latencyMs) {
+    }
+
+    private final String runId;
+    private final long amount;
+    private final String currency;
+    private final Set<String> alreadyCharged;
+    private final Instant startedAt = Instant.now();
+    private final ConcurrentLinkedQueue<ChargeOutcome> outcomes = new ConcurrentLinkedQueue<>();
+
+    private volatile Status status = Status.RUNNING;
+    private volatile Instant finishedAt;
+    private volatile int skipped;
+
+    BillingRun(String runId, long amount, String currency, Set<String> alreadyCharged) {
+        this.runId = runId;
+        this.amount = amount;
+        this.currency = currency;
+        this.alreadyCharged = alreadyCharged;
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public List<ChargeOutcome> getOutcomes() {
+        return new ArrayList<>(outcomes);
+    }
+
+    public Summary getSummary() {
+        var snapshot = getOutcomes();
+        var end = finishedAt != null ? finishedAt : Instant.now();
+        var seconds = Math.max(1, Duration.between(startedAt, end).toMillis()) / 1000.0;
+
+        var results = snapshot.stream().collect(Collectors.groupingBy(
+                outcome -> outcome.resultCode() != null ? outcome.resultCode() : "Error",
+                LinkedHashMap::new,
+                Collectors.counting()));
+
+        var latencies = snapshot.stream().mapToLong(ChargeOutcome::latencyMs).sorted().toArray();
+        var latencyMs = new LinkedHashMap<String, Long>();
+        if (latencies.length > 0) {
+            latencyMs.put("p50", percentile(latencies, 0.50));
+            latencyMs.put("p90", percentile(latencies, 0.90));
+            latencyMs.put("p99", percentile(latencies, 0.99));
+            latencyMs.put("max", latencies[latencies.length - 1]);
+        }
+
+        return new Summary(runId, status, amount, currency, startedAt, finishedAt, snapshot.size(), skipped, results,
+                snapshot.size() / seconds, latencyMs);
+    }
+
+    boolean isAlreadyCharged(String recurringReference) {
+        return alreadyCharged.contains(recurringReference);
+    }
+
+    // Tokens that reached a final result, a resumed run with the same id skips them
+    Set<String> finalRecurringReferences() {
+        var references = outcomes.stream()
+                .filter(ChargeOutcome::isFinal)
+                .map(ChargeOutcome::recurringReference)
+                .collect(Collectors.toSet());
+        references.addAll(alreadyCharged);
+        return references;
+    }
+
+    void record(ChargeOutcome outcome) {
+        outcomes.add(outcome);
+    }
+
+    void finish(Status status, int skipped) {
+        this.skipped = skipped;
+        this.finishedAt = Instant.now();
+        this.status = status;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        var index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,113 @@
+package com.adyen.workshop.services;
+
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for the checkout endpoints that call Adyen, so card-testing bots and retry storms of a frontend
+ * cannot use up our Adyen capacity and request threads. Every endpoint has a {@link RateLimiter} per client IP
+ * (checkout.rate-limit.*); a request over the limit is answered with 429 before Adyen is called.
+ * There is no limit per shopper: the only shopperReference a request has is the one the client chose, which a bot can
+ * change on every request.
+ *
+ * <p>The client IP is the remote address of the request, i.e. X-Forwarded-For behind a proxy (server.forward-headers-strategy).
+ * Rejections are counted in checkout.admission.rejected, per endpoint.
+ */
+@Service
+public class CheckoutAdmission {
+
+    public enum Endpoint {
+        PAYMENTS("payments"),
+        PAYMENT_DETAILS("payment-details"),
+        SUBSCRIPTION_CREATE("subscription-create");
+
+        private final String tag;
+
+        Endpoint(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private record Limit(RateLimiter rateLimiter, Counter rejections) {
+    }
+
+    private final boolean enabled;
+    private final Limit[] ipLimits = new Limit[Endpoint.values().length];
+
+    public CheckoutAdmission(ApplicationConfiguration applicationConfiguration, MeterRegistry meterRegistry) {
+        this.enabled = applicationConfiguration.isRateLimitEnabled();
+        var maxKeys = applicationConfiguration.getRateLimitMaxKeys();
+        ipLimits[Endpoint.PAYMENTS.ordinal()] = limit(Endpoint.PAYMENTS, "ip", applicationConfiguration.getRateLimitPaymentsIpPerMinute(),
+                applicationConfiguration.getRateLimitPaymentsIpBurst(), maxKeys, meterRegistry);
+        ipLimits[Endpoint.PAYMENT_DETAILS.ordinal()] = limit(Endpoint.PAYMENT_DETAILS, "ip", applicationConfiguration.getRateLimitPaymentDetailsIpPerMinute(),
+                applicationConfiguration.getRateLimitPaymentDetailsIpBurst(), maxKeys, meterRegistry);
+        ipLimits[Endpoint.SUBSCRIPTION_CREATE.ordinal()] = limit(Endpoint.SUBSCRIPTION_CREATE, "ip", applicationConfiguration.getRateLimitSubscriptionCreateIpPerMinute(),
+                applicationConfiguration.getRateLimitSubscriptionCreateIpBurst(), maxKeys, meterRegistry);
+    }
+
+    /**
+     * Takes a permit for the client IP.
+     *
+     * @return 0 when the request is admitted, otherwise the seconds after which the client may try again
+     */
+    public long admit(Endpoint endpoint, String clientIp) {
+        if (!enabled) {
+            return 0;
+        }
+        var waitNanos = acquire(ipLimits[endpoint.ordinal()], clientIp);
+        // Rounded up, so a client that waits that long is admitted
+        return waitNanos == 0 ? 0 : (waitNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+    }
+
+    /**
+     * The response to a request that was not admitted: 429 with a Retry-After header and no body.
+     */
+    public static <T> ResponseEntity<T> tooManyRequests(long retryAfterSeconds) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                .build();
+    }
+
+    private static long acquire(Limit limit, String key) {
+        if (limit == null || key == null || key.isEmpty()) {
+            return 0;
+        }
+        var waitNanos = limit.rateLimiter().tryAcquire(key);
+        if (waitNanos > 0) {
+            limit.rejections().increment();
+        }
+        return waitNanos;
+    }
+
+    private static Limit limit(Endpoint endpoint, String key, int perMinute, int burst, int maxKeys, MeterRegistry meterRegistry) {
+        if (perMinute <= 0) {
+            return null;
+        }
+        var rateLimiter = new RateLimiter(new RateLimiter.Settings(perMinute / 60.0, burst, maxKeys));
+        Gauge.builder("checkout.admission.keys", rateLimiter, RateLimiter::size)
+                .description("Token buckets kept")
+                .tags("endpoint", endpoint.tag, "key", key)
+                .register(meterRegistry);
+        FunctionCounter.builder("checkout.admission.evictions", rateLimiter, RateLimiter::getEvictions)
+                .description("Token buckets dropped because max-keys was reached")
+                .tags("endpoint", endpoint.tag, "key", key)
+                .register(meterRegistry);
+        var rejections = Counter.builder("checkout.admission.rejected")
+                .description("Requests answered with 429")
+                .tags("endpoint", endpoint.tag, "key", key)
+                .register(meterRegistry);
+        return new Limit(rateLimiter, rejections);
+    }
+}
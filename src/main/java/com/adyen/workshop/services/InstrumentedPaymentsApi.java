@@ -0,0 +1,144 @@
+package com.adyen.workshop.services;
+
+import com.adyen.Client;
+import com.adyen.httpclient.HTTPClientException;
+import com.adyen.model.ApiError;
+import com.adyen.model.RequestOptions;
+import com.adyen.model.checkout.CreateCheckoutSessionRequest;
+import com.adyen.model.checkout.CreateCheckoutSessionResponse;
+import com.adyen.model.checkout.PaymentDetailsRequest;
+import com.adyen.model.checkout.PaymentDetailsResponse;
+import com.adyen.model.checkout.PaymentMethodsRequest;
+import com.adyen.model.checkout.PaymentMethodsResponse;
+import com.adyen.model.checkout.PaymentRequest;
+import com.adyen.model.checkout.PaymentResponse;
+import com.adyen.service.checkout.PaymentsApi;
+import com.adyen.service.exception.ApiException;
+import com.adyen.workshop.util.AdyenHttpTransport;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * PaymentsApi that records every paymentMethods, payments, paymentsDetails and sessions call in {@link AdyenApiMetrics},
+ * and guards it with the bulkhead, circuit breaker and adaptive timeout of {@link AdyenResilience}.
+ * The overloads without RequestOptions delegate to the ones overridden here, so every call is recorded once.
+ *
+ * <p>The *Async variants do not block the calling thread: they are sent with {@link AdyenHttpTransport#requestAsync}.
+ * With adyen.http.pooled=false there is no such transport, and they run the blocking call before returning.
+ */
+public class InstrumentedPaymentsApi extends PaymentsApi {
+
+    private final AdyenApiMetrics metrics;
+
+    private final AdyenResilience resilience;
+
+    public InstrumentedPaymentsApi(Client client, AdyenApiMetrics metrics, AdyenResilience resilience) {
+        super(client);
+        this.metrics = metrics;
+        this.resilience = resilience;
+    }
+
+    public InstrumentedPaymentsApi(Client client, String baseURL, AdyenApiMetrics metrics, AdyenResilience resilience) {
+        super(client, baseURL);
+        this.metrics = metrics;
+        this.resilience = resilience;
+    }
+
+    @Override
+    public PaymentMethodsResponse paymentMethods(PaymentMethodsRequest request, RequestOptions requestOptions) throws ApiException, IOException {
+        return resilience.execute("paymentMethods", () -> metrics.record("paymentMethods",
+                () -> super.paymentMethods(request, requestOptions), response -> "Success"));
+    }
+
+    @Override
+    public PaymentResponse payments(PaymentRequest request, RequestOptions requestOptions) throws ApiException, IOException {
+        return resilience.execute("payments", () -> metrics.record("payments",
+                () -> super.payments(request, requestOptions),
+                response -> response.getResultCode() != null ? response.getResultCode().getValue() : null));
+    }
+
+    @Override
+    public PaymentDetailsResponse paymentsDetails(PaymentDetailsRequest request, RequestOptions requestOptions) throws ApiException, IOException {
+        return resilience.execute("paymentsDetails", () -> metrics.record("paymentsDetails",
+                () -> super.paymentsDetails(request, requestOptions),
+                response -> response.getResultCode() != null ? response.getResultCode().getValue() : null));
+    }
+
+    public CompletableFuture<PaymentMethodsResponse> paymentMethodsAsync(PaymentMethodsRequest request) {
+        return resilience.executeAsync("paymentMethods", () -> metrics.recordAsync("paymentMethods",
+                () -> postAsync("/paymentMethods", request::toJson, null, PaymentMethodsResponse::fromJson,
+                        () -> super.paymentMethods(request, null)), response -> "Success"));
+    }
+
+    public CompletableFuture<PaymentResponse> paymentsAsync(PaymentRequest request, RequestOptions requestOptions) {
+        return resilience.executeAsync("payments", () -> metrics.recordAsync("payments",
+                () -> postAsync("/payments", request::toJson, requestOptions, PaymentResponse::fromJson,
+                        () -> super.payments(request, requestOptions)),
+                response -> response.getResultCode() != null ? response.getResultCode().getValue() : null));
+    }
+
+    public CompletableFuture<PaymentDetailsResponse> paymentsDetailsAsync(PaymentDetailsRequest request) {
+        return resilience.executeAsync("paymentsDetails", () -> metrics.recordAsync("paymentsDetails",
+                () -> postAsync("/payments/details", request::toJson, null, PaymentDetailsResponse::fromJson,
+                        () -> super.paymentsDetails(request, null)),
+                response -> response.getResultCode() != null ? response.getResultCode().getValue() : null));
+    }
+
+    @Override
+    public CreateCheckoutSessionResponse sessions(CreateCheckoutSessionRequest request, RequestOptions requestOptions) throws ApiException, IOException {
+        return resilience.execute("sessions", () -> metrics.record("sessions",
+                () -> super.sessions(request, requestOptions), response -> "Success"));
+    }
+
+    @FunctionalInterface
+    private interface Json {
+        String write() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Parser<T> {
+        T parse(String json) throws IOException;
+    }
+
+    private <T> CompletableFuture<T> postAsync(String path, Json requestBody, RequestOptions requestOptions, Parser<T> parser,
+                                               AdyenApiMetrics.Call<T> blockingCall) {
+        var transport = getClient().getHttpClient() instanceof AdyenHttpTransport pooled ? pooled : null;
+        String json;
+        try {
+            if (transport == null) {
+                return CompletableFuture.completedFuture(blockingCall.execute());
+            }
+            json = requestBody.write();
+        } catch (ApiException | IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return transport.requestAsync(baseURL + path, json, getClient().getConfig(), requestOptions)
+                .handle((response, e) -> {
+                    if (e != null) {
+                        throw new CompletionException(toApiException(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e));
+                    }
+                    try {
+                        return parser.parse(response);
+                    } catch (IOException parseException) {
+                        throw new CompletionException(parseException);
+                    }
+                });
+    }
+
+    // The same ApiException the blocking calls throw for an error response
+    private static Throwable toApiException(Throwable e) {
+        if (!(e instanceof HTTPClientException httpClientException)) {
+            return e;
+        }
+        var apiException = new ApiException(httpClientException.getMessage(), httpClientException.getCode(), httpClientException.getResponseHeaders());
+        apiException.setResponseBody(httpClientException.getResponseBody());
+        try {
+            apiException.setError(ApiError.fromJson(httpClientException.getResponseBody()));
+        } catch (IOException | RuntimeException ignored) {
+            // Not an Adyen error response
+        }
+        return apiException;
+    }
+}
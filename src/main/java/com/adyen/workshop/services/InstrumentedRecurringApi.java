@@ -0,0 +1,39 @@
+package com.adyen.workshop.services;
+
+import com.adyen.Client;
+import com.adyen.model.RequestOptions;
+import com.adyen.model.recurring.DisableRequest;
+import com.adyen.model.recurring.DisableResult;
+import com.adyen.service.RecurringApi;
+import com.adyen.service.exception.ApiException;
+
+import java.io.IOException;
+
+/**
+ * RecurringApi that records every disable call in {@link AdyenApiMetrics}, guarded by {@link AdyenResilience}.
+ */
+public class InstrumentedRecurringApi extends RecurringApi {
+
+    private final AdyenApiMetrics metrics;
+
+    private final AdyenResilience resilience;
+
+    public InstrumentedRecurringApi(Client client, AdyenApiMetrics metrics, AdyenResilience resilience) {
+        super(client);
+        this.metrics = metrics;
+        this.resilience = resilience;
+    }
+
+    public InstrumentedRecurringApi(Client client, String baseURL, AdyenApiMetrics metrics, AdyenResilience resilience) {
+        super(client, baseURL);
+        this.metrics = metrics;
+        this.resilience = resilience;
+    }
+
+    @Override
+    public DisableResult disable(DisableRequest request, RequestOptions requestOptions) throws ApiException, IOException {
+        // The response is e.g. [detail-successfully-disabled]
+        return resilience.execute("disable", () -> metrics.record("disable",
+                () -> super.disable(request, requestOptions), DisableResult::getResponse));
+    }
+}
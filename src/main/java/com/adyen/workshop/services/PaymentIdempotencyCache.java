@@ -0,0 +1,223 @@
+package com.adyen.workshop.services;
+
+import com.adyen.model.checkout.PaymentRequest;
+import com.adyen.model.checkout.PaymentResponse;
+import com.adyen.service.exception.ApiException;
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Makes /api/payments idempotent for a client supplied Idempotency-Key, so a double click or a retry by the frontend
+ * does not authorise the shopper twice.
+ *
+ * <ul>
+ *     <li>The first request with a key calls Adyen, concurrent requests with the same key wait for its result.</li>
+ *     <li>Completed responses are kept for the TTL (at most maxEntries of them), a repeated request is answered from memory.</li>
+ *     <li>Failed calls are not kept, the next request with the key tries again.</li>
+ *     <li>A key can only be reused for the same request, otherwise {@link IdempotencyKeyReusedException} is thrown.</li>
+ * </ul>
+ * The key is passed on to Adyen as well, which deduplicates across instances of the application.
+ */
+@Service
+public class PaymentIdempotencyCache {
+
+    /**
+     * The Idempotency-Key was used before for a different request.
+     */
+    public static class IdempotencyKeyReusedException extends RuntimeException {
+        public IdempotencyKeyReusedException(String key) {
+            super("Idempotency-Key " + key + " was already used for a different payment request");
+        }
+    }
+
+    private record Entry(byte[] fingerprint, PaymentResponse response, long storedAt) {
+    }
+
+    private record InFlight(byte[] fingerprint, CompletableFuture<PaymentResponse> response) {
+    }
+
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    // Insertion ordered, so the oldest entries are evicted first and expired entries are found at the head
+    private final LinkedHashMap<String, Entry> completed;
+
+    private final Counter hitCounter;
+    private final Counter waitCounter;
+    private final Counter missCounter;
+
+    public PaymentIdempotencyCache(ApplicationConfiguration applicationConfiguration, MeterRegistry meterRegistry) {
+        this.ttlNanos = TimeUnit.MINUTES.toNanos(applicationConfiguration.getPaymentsIdempotencyTtlMinutes());
+        var maxEntries = applicationConfiguration.getPaymentsIdempotencyMaxEntries();
+        this.completed = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        this.hitCounter = meterRegistry.counter("checkout.payments.idempotency", "result", "hit");
+        this.waitCounter = meterRegistry.counter("checkout.payments.idempotency", "result", "wait");
+        this.missCounter = meterRegistry.counter("checkout.payments.idempotency", "result", "miss");
+        Gauge.builder("checkout.payments.idempotency.size", this, PaymentIdempotencyCache::size)
+                .description("Payment responses kept for their Idempotency-Key")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the response for the key, calling Adyen only when there is neither a stored response nor a call in flight.
+     *
+     * @param fingerprint identifies the request, see {@link #fingerprint(PaymentRequest)}
+     */
+    public PaymentResponse execute(String key, byte[] fingerprint, AdyenApiMetrics.Call<PaymentResponse> call) throws ApiException, IOException {
+        var entry = getCompleted(key);
+        if (entry != null) {
+            checkFingerprint(key, entry.fingerprint(), fingerprint);
+            hitCounter.increment();
+            return entry.response();
+        }
+
+        var own = new InFlight(fingerprint, new CompletableFuture<>());
+        var existing = inFlight.putIfAbsent(key, own);
+        if (existing != null) {
+            checkFingerprint(key, existing.fingerprint(), fingerprint);
+            waitCounter.increment();
+            return await(existing.response());
+        }
+
+        missCounter.increment();
+        try {
+            // Completed between our lookup and registering the call
+            entry = getCompleted(key);
+            var response = entry != null ? entry.response() : call.execute();
+            if (entry == null) {
+                putCompleted(key, new Entry(fingerprint, response, System.nanoTime()));
+            }
+            own.response().complete(response);
+            return response;
+        } catch (ApiException | IOException | RuntimeException e) {
+            own.response().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    /**
+     * Like {@link #execute}, for a call that completes asynchronously: waiting for a call in flight does not block either.
+     * A reused key completes the future exceptionally with {@link IdempotencyKeyReusedException}.
+     */
+    public CompletableFuture<PaymentResponse> executeAsync(String key, byte[] fingerprint, Supplier<CompletableFuture<PaymentResponse>> call) {
+        try {
+            var entry = getCompleted(key);
+            if (entry != null) {
+                checkFingerprint(key, entry.fingerprint(), fingerprint);
+                hitCounter.increment();
+                return CompletableFuture.completedFuture(entry.response());
+            }
+
+            var own = new InFlight(fingerprint, new CompletableFuture<>());
+            var existing = inFlight.putIfAbsent(key, own);
+            if (existing != null) {
+                checkFingerprint(key, existing.fingerprint(), fingerprint);
+                waitCounter.increment();
+                return existing.response().copy();
+            }
+
+            missCounter.increment();
+            entry = getCompleted(key);
+            var response = entry != null ? CompletableFuture.completedFuture(entry.response()) : call.get();
+            var stored = entry != null;
+            response.whenComplete((result, e) -> {
+                if (e == null) {
+                    if (!stored) {
+                        putCompleted(key, new Entry(fingerprint, result, System.nanoTime()));
+                    }
+                    own.response().complete(result);
+                } else {
+                    own.response().completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                }
+                inFlight.remove(key, own);
+            });
+            // A copy, so a caller cannot complete the future the other requests with this key wait for
+            return own.response().copy();
+        } catch (IdempotencyKeyReusedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public synchronized int size() {
+        return completed.size();
+    }
+
+    private synchronized Entry getCompleted(String key) {
+        expire(System.nanoTime());
+        return completed.get(key);
+    }
+
+    private synchronized void putCompleted(String key, Entry entry) {
+        completed.put(key, entry);
+    }
+
+    private void expire(long now) {
+        var iterator = completed.values().iterator();
+        while (iterator.hasNext() && now - iterator.next().storedAt() > ttlNanos) {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * SHA-256 of the request as JSON: a different request reusing a key must not be answered with another payment's response,
+     * which a 32-bit hash cannot rule out.
+     */
+    public static byte[] fingerprint(PaymentRequest request) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(request.toJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void checkFingerprint(String key, byte[] expected, byte[] actual) {
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new IdempotencyKeyReusedException(key);
+        }
+    }
+
+    private static PaymentResponse await(CompletableFuture<PaymentResponse> response) throws ApiException, IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the payment with the same Idempotency-Key", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApiException apiException) {
+                throw apiException;
+            }
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Payment with the same Idempotency-Key failed", e.getCause());
+        }
+    }
+}
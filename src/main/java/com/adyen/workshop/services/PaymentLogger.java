@@ -0,0 +1,78 @@
+package com.adyen.workshop.services;
+
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.LogRedactor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs what the payment endpoints exchange with Adyen (and what Adyen sends to /webhooks), one structured event per call.
+ *
+ * <p>Only a sample of the calls is logged, with a rate per endpoint (logging.sample-rate.*, webhook.log.sample-rate),
+ * and every call once DEBUG is enabled for this logger. Calls that are not sampled cost a random number and nothing else.
+ * Request and response are attached as key-value pairs that are redacted lazily (see {@link LogRedactor}):
+ * with the asynchronous appender of logback-spring.xml they are serialized and masked on the appender thread.
+ */
+@Service
+public class PaymentLogger {
+    private final Logger log = LoggerFactory.getLogger(PaymentLogger.class);
+
+    public enum Endpoint {
+        PAYMENT_METHODS("/api/paymentMethods"),
+        PAYMENTS("/api/payments"),
+        PAYMENT_DETAILS("/api/payments/details"),
+        ADMIN_PAYMENT("/admin/makepayment"),
+        WEBHOOKS("/webhooks");
+
+        private final String path;
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+    }
+
+    private final LogRedactor logRedactor;
+    private final double[] sampleRates = new double[Endpoint.values().length];
+
+    public PaymentLogger(ApplicationConfiguration applicationConfiguration, LogRedactor logRedactor) {
+        this.logRedactor = logRedactor;
+        sampleRates[Endpoint.PAYMENT_METHODS.ordinal()] = applicationConfiguration.getLoggingSampleRatePaymentMethods();
+        sampleRates[Endpoint.PAYMENTS.ordinal()] = applicationConfiguration.getLoggingSampleRatePayments();
+        sampleRates[Endpoint.PAYMENT_DETAILS.ordinal()] = applicationConfiguration.getLoggingSampleRatePaymentDetails();
+        sampleRates[Endpoint.ADMIN_PAYMENT.ordinal()] = applicationConfiguration.getLoggingSampleRateAdminPayment();
+        sampleRates[Endpoint.WEBHOOKS.ordinal()] = applicationConfiguration.getWebhookLogSampleRate();
+    }
+
+    public boolean isSampled(Endpoint endpoint) {
+        if (log.isDebugEnabled()) {
+            return true;
+        }
+        return log.isInfoEnabled() && ThreadLocalRandom.current().nextDouble() < sampleRates[endpoint.ordinal()];
+    }
+
+    /**
+     * Logs a sample of the calls of the endpoint.
+     */
+    public void exchange(Endpoint endpoint, Object request, Object response) {
+        if (isSampled(endpoint)) {
+            log(endpoint, request, response);
+        }
+    }
+
+    /**
+     * Logs the call, for callers that took the sampling decision with {@link #isSampled(Endpoint)}, e.g. once per webhook delivery.
+     */
+    public void log(Endpoint endpoint, Object request, Object response) {
+        var event = log.atInfo().addKeyValue("endpoint", endpoint.path);
+        if (request != null) {
+            event = event.addKeyValue("request", logRedactor.lazy(request));
+        }
+        if (response != null) {
+            event = event.addKeyValue("response", logRedactor.lazy(response));
+        }
+        event.log(endpoint.path);
+    }
+}
@@ -0,0 +1,229 @@
+package com.adyen.workshop.services;
+
+import com.adyen.model.checkout.PaymentMethodsRequest;
+import com.adyen.service.exception.ApiException;
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.Threads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the /paymentMethods response, which only varies by merchant account, country, currency and amount.
+ * Amounts are grouped in buckets, so e.g. every basket between 10.00 and 19.99 EUR shares an entry.
+ *
+ * <ul>
+ *     <li>Entries are stored as the serialized JSON bytes, a hit is served without touching the response object.</li>
+ *     <li>Entries expire after the TTL. A hit on an entry older than the refresh-ahead age reloads it in the background,
+ *     so busy keys are refreshed before they expire.</li>
+ *     <li>Loading is single-flight: concurrent misses on the same key wait for one upstream call.</li>
+ * </ul>
+ */
+@Service
+public class PaymentMethodsCache {
+    private final Logger log = LoggerFactory.getLogger(PaymentMethodsCache.class);
+
+    private record Key(String merchantAccount, String countryCode, String currency, long amountBucket) {
+    }
+
+    private record Entry(byte[] json, long loadedAt) {
+    }
+
+    private final InstrumentedPaymentsApi paymentsApi;
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final long refreshAheadNanos;
+    private final long amountBucketSize;
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter refreshCounter;
+
+    public PaymentMethodsCache(ApplicationConfiguration applicationConfiguration, InstrumentedPaymentsApi paymentsApi, MeterRegistry meterRegistry) {
+        this.paymentsApi = paymentsApi;
+        this.enabled = applicationConfiguration.isPaymentMethodsCacheEnabled();
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(applicationConfiguration.getPaymentMethodsCacheTtlSeconds());
+        this.refreshAheadNanos = TimeUnit.SECONDS.toNanos(applicationConfiguration.getPaymentMethodsCacheRefreshAheadSeconds());
+        this.amountBucketSize = Math.max(1, applicationConfiguration.getPaymentMethodsCacheAmountBucket());
+        this.maxEntries = applicationConfiguration.getPaymentMethodsCacheMaxEntries();
+        this.refresher = Executors.newSingleThreadExecutor(
+                Threads.blocking("payment-methods-refresh", applicationConfiguration.isVirtualThreadsEnabled()));
+
+        this.hitCounter = meterRegistry.counter("checkout.payment-methods.cache", "result", "hit");
+        this.missCounter = meterRegistry.counter("checkout.payment-methods.cache", "result", "miss");
+        this.refreshCounter = meterRegistry.counter("checkout.payment-methods.cache", "result", "refresh");
+    }
+
+    /**
+     * @return the JSON serialized PaymentMethodsResponse for the request
+     */
+    public byte[] get(PaymentMethodsRequest request) throws IOException, ApiException {
+        if (!enabled) {
+            return load(request).json();
+        }
+
+        var key = keyOf(request);
+        var entry = entries.get(key);
+        var now = System.nanoTime();
+        if (entry != null && now - entry.loadedAt() < ttlNanos) {
+            hitCounter.increment();
+            if (now - entry.loadedAt() >= refreshAheadNanos) {
+                refreshInBackground(key, request);
+            }
+            return entry.json();
+        }
+
+        missCounter.increment();
+        return loadOnce(key, request).json();
+    }
+
+    /**
+     * Like {@link #get}, but a miss is loaded without blocking the calling thread.
+     */
+    public CompletableFuture<byte[]> getAsync(PaymentMethodsRequest request) {
+        if (!enabled) {
+            return loadAsync(request).thenApply(Entry::json);
+        }
+
+        var key = keyOf(request);
+        var entry = entries.get(key);
+        var now = System.nanoTime();
+        if (entry != null && now - entry.loadedAt() < ttlNanos) {
+            hitCounter.increment();
+            if (now - entry.loadedAt() >= refreshAheadNanos) {
+                refreshInBackground(key, request);
+            }
+            return CompletableFuture.completedFuture(entry.json());
+        }
+
+        missCounter.increment();
+        var future = new CompletableFuture<Entry>();
+        var inFlight = loading.putIfAbsent(key, future);
+        if (inFlight == null) {
+            loadAsync(request).whenComplete((loaded, e) -> {
+                if (e == null) {
+                    store(key, loaded);
+                    future.complete(loaded);
+                } else {
+                    var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    log.warn("Could not load payment methods for {}", key, cause);
+                    future.completeExceptionally(cause);
+                }
+                loading.remove(key, future);
+            });
+            inFlight = future;
+        }
+        return inFlight.thenApply(Entry::json);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private Entry loadOnce(Key key, PaymentMethodsRequest request) throws IOException, ApiException {
+        var future = new CompletableFuture<Entry>();
+        var inFlight = loading.putIfAbsent(key, future);
+        if (inFlight == null) {
+            // This thread won the race: load, publish, and let the waiting threads through
+            completeLoad(key, request, future);
+            inFlight = future;
+        }
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for payment methods", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApiException apiException) {
+                throw apiException;
+            }
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Could not retrieve payment methods", e.getCause());
+        }
+    }
+
+    private void refreshInBackground(Key key, PaymentMethodsRequest request) {
+        var future = new CompletableFuture<Entry>();
+        if (loading.putIfAbsent(key, future) == null) {
+            refreshCounter.increment();
+            refresher.execute(() -> completeLoad(key, request, future));
+        }
+    }
+
+    private void completeLoad(Key key, PaymentMethodsRequest request, CompletableFuture<Entry> future) {
+        try {
+            var entry = load(request);
+            store(key, entry);
+            future.complete(entry);
+        } catch (Exception e) {
+            log.warn("Could not load payment methods for {}", key, e);
+            future.completeExceptionally(e);
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private Entry load(PaymentMethodsRequest request) throws IOException, ApiException {
+        var response = paymentsApi.paymentMethods(request);
+        log.debug("Payment Methods response from Adyen {}", response);
+        return new Entry(response.toJson().getBytes(StandardCharsets.UTF_8), System.nanoTime());
+    }
+
+    private CompletableFuture<Entry> loadAsync(PaymentMethodsRequest request) {
+        return paymentsApi.paymentMethodsAsync(request).thenApply(response -> {
+            log.debug("Payment Methods response from Adyen {}", response);
+            try {
+                return new Entry(response.toJson().getBytes(StandardCharsets.UTF_8), System.nanoTime());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private void store(Key key, Entry entry) {
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evictOldest();
+        }
+        entries.put(key, entry);
+    }
+
+    private void evictOldest() {
+        entries.entrySet().stream()
+                .min(Comparator.comparingLong(e -> e.getValue().loadedAt()))
+                .ifPresent(oldest -> entries.remove(oldest.getKey(), oldest.getValue()));
+    }
+
+    private Key keyOf(PaymentMethodsRequest request) {
+        var amount = request.getAmount();
+        return new Key(request.getMerchantAccount(),
+                request.getCountryCode(),
+                amount != null ? amount.getCurrency() : null,
+                amount != null && amount.getValue() != null ? amount.getValue() / amountBucketSize : -1);
+    }
+}
@@ -0,0 +1,111 @@
+package com.adyen.workshop.services;
+
+import com.adyen.model.checkout.Amount;
+import com.adyen.model.checkout.PaymentDetailsResponse;
+import com.adyen.model.checkout.PaymentRequest;
+import com.adyen.model.checkout.PaymentResponse;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.workshop.util.PaymentLedger;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+/**
+ * Records the lifecycle of payments in the {@link PaymentLedger}: the result codes of /payments and /payments/details
+ * as Adyen returns them, then the webhooks for the payment (AUTHORISATION) and its modifications (CAPTURE, REFUND, ...),
+ * which refer to the payment with their originalReference.
+ * Replaying the webhook event log on startup (see WebhookReplay) therefore rebuilds the webhook part of the ledger.
+ */
+@Service
+public class PaymentTracker {
+
+    private final PaymentLedger paymentLedger;
+
+    public PaymentTracker(PaymentLedger paymentLedger, MeterRegistry meterRegistry) {
+        this.paymentLedger = paymentLedger;
+        Gauge.builder("payments.ledger.payments", paymentLedger, PaymentLedger::getPaymentCount)
+                .description("Payments kept in the payment ledger")
+                .register(meterRegistry);
+        Gauge.builder("payments.ledger.events", paymentLedger, PaymentLedger::getEventCount)
+                .description("Events kept in the payment ledger")
+                .register(meterRegistry);
+    }
+
+    public void paymentResponse(PaymentRequest request, PaymentResponse response) {
+        var status = response.getResultCode() != null ? status(response.getResultCode().getValue()) : null;
+        if (status == null) {
+            return;
+        }
+        var amount = response.getAmount() != null ? response.getAmount() : request.getAmount();
+        var merchantReference = response.getMerchantReference() != null ? response.getMerchantReference() : request.getReference();
+        record(response.getPspReference(), merchantReference, status, PaymentLedger.Source.API, amount);
+    }
+
+    public void paymentDetailsResponse(PaymentDetailsResponse response) {
+        var status = response.getResultCode() != null ? status(response.getResultCode().getValue()) : null;
+        if (status != null) {
+            record(response.getPspReference(), response.getMerchantReference(), status, PaymentLedger.Source.API, response.getAmount());
+        }
+    }
+
+    /**
+     * @return false when the item does not concern the state of a payment
+     */
+    public boolean webhook(NotificationRequestItem item) {
+        var status = status(item);
+        if (status == null) {
+            return false;
+        }
+        // Modifications have a pspReference and a merchantReference of their own, the payment is their originalReference
+        var modification = item.getOriginalReference() != null;
+        var pspReference = modification ? item.getOriginalReference() : item.getPspReference();
+        var amount = item.getAmount();
+        paymentLedger.record(pspReference, modification ? null : item.getMerchantReference(), status, PaymentLedger.Source.WEBHOOK,
+                amount != null ? amount.getCurrency() : null, amount != null ? amount.getValue() : null);
+        return true;
+    }
+
+    public static boolean isPaymentEvent(NotificationRequestItem item) {
+        return status(item) != null;
+    }
+
+    private void record(String pspReference, String merchantReference, PaymentLedger.Status status, PaymentLedger.Source source, Amount amount) {
+        paymentLedger.record(pspReference, merchantReference, status, source,
+                amount != null ? amount.getCurrency() : null, amount != null ? amount.getValue() : null);
+    }
+
+    // The result codes of /payments and /payments/details, see https://docs.adyen.com/online-payments/payment-result-codes
+    private static PaymentLedger.Status status(String resultCode) {
+        return switch (resultCode) {
+            case "Authorised", "PartiallyAuthorised", "Success" -> PaymentLedger.Status.AUTHORISED;
+            case "Refused" -> PaymentLedger.Status.REFUSED;
+            case "Error" -> PaymentLedger.Status.ERROR;
+            case "Cancelled" -> PaymentLedger.Status.CANCELLED;
+            case "Pending", "Received", "PresentToShopper" -> PaymentLedger.Status.PENDING;
+            case "RedirectShopper", "IdentifyShopper", "ChallengeShopper", "AuthenticationFinished", "AuthenticationNotRequired" ->
+                    PaymentLedger.Status.ACTION_REQUIRED;
+            default -> null;
+        };
+    }
+
+    // Webhook event codes that change the state of a payment, others (e.g. RECURRING_CONTRACT) are not recorded
+    private static PaymentLedger.Status status(NotificationRequestItem item) {
+        if (item.getEventCode() == null) {
+            return null;
+        }
+        var success = item.isSuccess();
+        return switch (item.getEventCode()) {
+            case "AUTHORISATION" -> success ? PaymentLedger.Status.AUTHORISED : PaymentLedger.Status.REFUSED;
+            case "CAPTURE" -> success ? PaymentLedger.Status.CAPTURED : PaymentLedger.Status.CAPTURE_FAILED;
+            case "CAPTURE_FAILED" -> PaymentLedger.Status.CAPTURE_FAILED;
+            case "CANCELLATION" -> success ? PaymentLedger.Status.CANCELLED : null;
+            case "CANCEL_OR_REFUND" -> !success ? null
+                    : item.getAdditionalData() != null && "refund".equals(item.getAdditionalData().get("modification.action"))
+                    ? PaymentLedger.Status.REFUNDED : PaymentLedger.Status.CANCELLED;
+            case "REFUND" -> success ? PaymentLedger.Status.REFUNDED : PaymentLedger.Status.REFUND_FAILED;
+            case "REFUND_FAILED" -> PaymentLedger.Status.REFUND_FAILED;
+            case "CHARGEBACK" -> PaymentLedger.Status.CHARGEBACK;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,258 @@
+package com.adyen.workshop.services;
+
+import com.adyen.model.checkout.Amount;
+import com.adyen.model.checkout.CreateCheckoutSessionRequest;
+import com.adyen.model.checkout.CreateCheckoutSessionResponse;
+import com.adyen.service.checkout.PaymentsApi;
+import com.adyen.service.exception.ApiException;
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.Threads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates the zero-auth checkout sessions for subscription sign-ups, optionally from a warm pool of sessions created ahead of time,
+ * so a sign-up is answered without waiting for Adyen.
+ *
+ * <ul>
+ *     <li>Sessions are pooled per return URL base (scheme://host) and shopper reference, the fields that differ between sign-ups.
+ *     Every pooled session still has its own order reference. The base URL is checkout.sessions.base-url, or else the
+ *     one of the request.</li>
+ *     <li>The pool size follows the sign-up rate: enough sessions for the next lead-seconds of sign-ups, between min-size and max-size.</li>
+ *     <li>Sessions are refilled in the background, and evicted once they expire within evict-before-expiry-seconds,
+ *     so a shopper always has time to finish Drop-in.</li>
+ *     <li>An empty pool falls back to creating the session on the request thread.</li>
+ * </ul>
+ * A host from the request is client supplied, so at most max-keys pools are kept, other hosts are not pooled.
+ * Pools of request hosts are dropped, with their sessions, once their sign-up rate has decayed to about zero.
+ */
+@Service
+public class SubscriptionSessionPool {
+    private final Logger log = LoggerFactory.getLogger(SubscriptionSessionPool.class);
+
+    private record Key(String baseUrl, String shopperReference) {
+    }
+
+    private record Pooled(CreateCheckoutSessionResponse session, long evictAt) {
+    }
+
+    private final class Pool {
+        private final Key key;
+        private final ConcurrentLinkedQueue<Pooled> sessions = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger refilling = new AtomicInteger();
+        private final LongAdder signUps = new LongAdder();
+        // Sign-ups per second, an exponentially weighted moving average over the refill ticks
+        private volatile double rate;
+
+        Pool(Key key) {
+            this.key = key;
+        }
+
+        int target() {
+            var target = (int) Math.round(rate * leadSeconds);
+            return Math.max(minSize, Math.min(maxSize, target));
+        }
+    }
+
+    private static final double RATE_SMOOTHING = 0.3;
+    // Sign-ups per second below which a pool is idle
+    private static final double IDLE_RATE = 0.01;
+
+    private final ApplicationConfiguration applicationConfiguration;
+    private final PaymentsApi paymentsApi;
+    private final String baseUrl;
+    private final boolean enabled;
+    private final int minSize;
+    private final int maxSize;
+    private final double leadSeconds;
+    private final long evictBeforeExpiryNanos;
+    private final long refillIntervalMillis;
+    private final int maxKeys;
+
+    private final ConcurrentHashMap<Key, Pool> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService refiller;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+
+    public SubscriptionSessionPool(ApplicationConfiguration applicationConfiguration, PaymentsApi paymentsApi, MeterRegistry meterRegistry) {
+        this.applicationConfiguration = applicationConfiguration;
+        this.paymentsApi = paymentsApi;
+        var configuredBaseUrl = applicationConfiguration.getSessionBaseUrl();
+        this.baseUrl = configuredBaseUrl == null || configuredBaseUrl.isBlank() ? null : configuredBaseUrl.strip();
+        this.enabled = applicationConfiguration.isSessionPoolEnabled();
+        this.minSize = applicationConfiguration.getSessionPoolMinSize();
+        this.maxSize = applicationConfiguration.getSessionPoolMaxSize();
+        this.leadSeconds = applicationConfiguration.getSessionPoolLeadSeconds();
+        this.evictBeforeExpiryNanos = TimeUnit.SECONDS.toNanos(applicationConfiguration.getSessionPoolEvictBeforeExpirySeconds());
+        this.refillIntervalMillis = applicationConfiguration.getSessionPoolRefillIntervalMs();
+        this.maxKeys = applicationConfiguration.getSessionPoolMaxKeys();
+
+        this.hitCounter = meterRegistry.counter("checkout.sessions.pool", "result", "hit");
+        this.missCounter = meterRegistry.counter("checkout.sessions.pool", "result", "miss");
+        this.evictionCounter = meterRegistry.counter("checkout.sessions.pool", "result", "evicted");
+        Gauge.builder("checkout.sessions.pool.size", this, SubscriptionSessionPool::size)
+                .description("Pre-created checkout sessions ready for sign-ups")
+                .register(meterRegistry);
+
+        if (enabled) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(Threads.daemon("session-pool"));
+            this.refiller = Executors.newFixedThreadPool(applicationConfiguration.getSessionPoolRefillThreads(),
+                    Threads.blocking("session-pool-refill", applicationConfiguration.isVirtualThreadsEnabled()));
+            scheduler.scheduleWithFixedDelay(this::tick, refillIntervalMillis, refillIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+            this.refiller = null;
+        }
+    }
+
+    /**
+     * @param requestBaseUrl scheme://host of the request, the shopper returns to its /redirect unless checkout.sessions.base-url is set
+     * @return a session for a zero-auth sign-up of the shopper
+     */
+    public CreateCheckoutSessionResponse create(String requestBaseUrl, String shopperReference) throws IOException, ApiException {
+        var baseUrl = this.baseUrl != null ? this.baseUrl : requestBaseUrl;
+        if (!enabled) {
+            return createSession(baseUrl, shopperReference);
+        }
+
+        var key = new Key(baseUrl, shopperReference);
+        var pool = pools.get(key);
+        if (pool == null && pools.size() < maxKeys) {
+            pool = pools.computeIfAbsent(key, Pool::new);
+        }
+        if (pool == null) {
+            missCounter.increment();
+            return createSession(baseUrl, shopperReference);
+        }
+
+        pool.signUps.increment();
+        var now = System.nanoTime();
+        Pooled pooled;
+        while ((pooled = pool.sessions.poll()) != null) {
+            pool.size.decrementAndGet();
+            if (now < pooled.evictAt()) {
+                hitCounter.increment();
+                return pooled.session();
+            }
+            evictionCounter.increment();
+        }
+        missCounter.increment();
+        return createSession(baseUrl, shopperReference);
+    }
+
+    public int size() {
+        var size = 0;
+        for (var pool : pools.values()) {
+            size += pool.size.get();
+        }
+        return size;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (enabled) {
+            scheduler.shutdownNow();
+            refiller.shutdownNow();
+        }
+    }
+
+    private CreateCheckoutSessionResponse createSession(String baseUrl, String shopperReference) throws IOException, ApiException {
+        var orderRef = UUID.randomUUID().toString();
+        var amount = new Amount()
+                .currency("EUR")
+                .value(0L); // zero-auth transaction
+
+        var checkoutSession = new CreateCheckoutSessionRequest();
+        checkoutSession.setAmount(amount);
+        checkoutSession.countryCode("NL");
+        checkoutSession.merchantAccount(this.applicationConfiguration.getAdyenMerchantAccount());
+        checkoutSession.setReference(orderRef);
+        checkoutSession.setShopperReference(shopperReference);
+        checkoutSession.setChannel(CreateCheckoutSessionRequest.ChannelEnum.WEB);
+        checkoutSession.setReturnUrl(baseUrl + "/redirect?orderRef=" + orderRef);
+        // recurring payment settings
+        checkoutSession.setShopperInteraction(CreateCheckoutSessionRequest.ShopperInteractionEnum.ECOMMERCE);
+        checkoutSession.setRecurringProcessingModel(CreateCheckoutSessionRequest.RecurringProcessingModelEnum.SUBSCRIPTION);
+        checkoutSession.setEnableRecurring(true);
+
+        log.debug("/tokenization/sessions {}", checkoutSession);
+        return paymentsApi.sessions(checkoutSession);
+    }
+
+    // Updates the sign-up rates, evicts sessions that are about to expire and tops every pool up to its target
+    private void tick() {
+        var intervalSeconds = refillIntervalMillis / 1000.0;
+        var now = System.nanoTime();
+        for (var pool : pools.values()) {
+            var observed = pool.signUps.sumThenReset() / intervalSeconds;
+            pool.rate = RATE_SMOOTHING * observed + (1 - RATE_SMOOTHING) * pool.rate;
+            var idle = pool.rate < IDLE_RATE && !pool.key.baseUrl().equals(baseUrl);
+
+            // Sessions are queued in creation order, so the ones to evict are at the head
+            Pooled head;
+            while ((head = pool.sessions.peek()) != null && now >= head.evictAt()) {
+                if (pool.sessions.remove(head)) {
+                    pool.size.decrementAndGet();
+                    evictionCounter.increment();
+                }
+            }
+
+            // Frees the key for another host, its unused sessions simply expire at Adyen; a sign-up racing with this just misses
+            if (idle && pool.refilling.get() == 0) {
+                pools.remove(pool.key, pool);
+                while (pool.sessions.poll() != null) {
+                    pool.size.decrementAndGet();
+                    evictionCounter.increment();
+                }
+                continue;
+            }
+
+            var missing = (idle ? 0 : pool.target()) - pool.size.get() - pool.refilling.get();
+            for (int i = 0; i < missing; i++) {
+                pool.refilling.incrementAndGet();
+                refiller.execute(() -> refill(pool));
+            }
+        }
+    }
+
+    private void refill(Pool pool) {
+        try {
+            var session = createSession(pool.key.baseUrl(), pool.key.shopperReference());
+            pool.sessions.offer(new Pooled(session, evictAt(session)));
+            pool.size.incrementAndGet();
+        } catch (IOException | ApiException | RuntimeException e) {
+            log.warn("Could not pre-create a checkout session for {}", pool.key, e);
+        } finally {
+            pool.refilling.decrementAndGet();
+        }
+    }
+
+    private long evictAt(CreateCheckoutSessionResponse session) {
+        // Adyen sessions expire after an hour unless asked otherwise
+        var expiresAt = session.getExpiresAt() != null ? session.getExpiresAt() : OffsetDateTime.now().plusHours(1);
+        var remaining = Duration.between(OffsetDateTime.now(), expiresAt).toNanos();
+        return System.nanoTime() + remaining - evictBeforeExpiryNanos;
+    }
+}
@@ -0,0 +1,149 @@
+package com.adyen.workshop.services;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.Threads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Decouples acknowledging a webhook from processing it.
+ * The controller validates the HMAC signature and hands the item to {@link #submit(NotificationRequestItem)},
+ * which only enqueues it into a bounded ring buffer (an {@link ArrayBlockingQueue}).
+ * A pool of workers drains the queue in batches and passes every item to the {@link WebhookProcessor}.
+ *
+ * <p>When the queue is full, submit waits up to the configured enqueue timeout and then rejects the item,
+ * so the controller can answer with an error and let Adyen retry the delivery later (backpressure).
+ * On shutdown the pipeline stops accepting items and the workers drain whatever is still queued.
+ * The beans that record what the drained items change are destroyed only after that drain.
+ */
+@Service
+@DependsOn({"tokenJournal", "tokenReplicator", "webhookEventLog"})
+public class WebhookPipeline {
+    private final Logger log = LoggerFactory.getLogger(WebhookPipeline.class);
+
+    private final WebhookProcessor webhookProcessor;
+    private final BlockingQueue<NotificationRequestItem> queue;
+    private final ExecutorService workers;
+    private final int batchSize;
+    private final long enqueueTimeoutMs;
+    private final long drainTimeoutMs;
+
+    private final Counter acceptedCounter;
+    private final Counter rejectedCounter;
+    private final Counter processedCounter;
+    private final Counter failedCounter;
+
+    private volatile boolean running = true;
+    // Submits hold the read lock from checking running until their item is queued, shutdown takes the write lock to stop them
+    private final ReadWriteLock submitLock = new ReentrantReadWriteLock();
+
+    public WebhookPipeline(ApplicationConfiguration applicationConfiguration, WebhookProcessor webhookProcessor, MeterRegistry meterRegistry) {
+        this.webhookProcessor = webhookProcessor;
+        this.queue = new ArrayBlockingQueue<>(applicationConfiguration.getWebhookQueueCapacity());
+        this.batchSize = applicationConfiguration.getWebhookBatchSize();
+        this.enqueueTimeoutMs = applicationConfiguration.getWebhookEnqueueTimeoutMs();
+        this.drainTimeoutMs = applicationConfiguration.getWebhookDrainTimeoutMs();
+
+        Gauge.builder("webhook.queue.depth", queue, BlockingQueue::size)
+                .description("Webhook items waiting to be processed")
+                .register(meterRegistry);
+        Gauge.builder("webhook.queue.remaining", queue, BlockingQueue::remainingCapacity)
+                .description("Free slots in the webhook queue")
+                .register(meterRegistry);
+        this.acceptedCounter = meterRegistry.counter("webhook.items", "outcome", "accepted");
+        this.rejectedCounter = meterRegistry.counter("webhook.items", "outcome", "rejected");
+        this.processedCounter = meterRegistry.counter("webhook.items", "outcome", "processed");
+        this.failedCounter = meterRegistry.counter("webhook.items", "outcome", "failed");
+
+        var workerCount = applicationConfiguration.getWebhookWorkers();
+        this.workers = Executors.newFixedThreadPool(workerCount, Threads.daemon("webhook-worker"));
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Enqueues a validated item for processing.
+     *
+     * @return false when the item was rejected because the queue stayed full or the pipeline is shutting down
+     */
+    public boolean submit(NotificationRequestItem item) throws InterruptedException {
+        boolean queued;
+        submitLock.readLock().lock();
+        try {
+            queued = running && queue.offer(item, enqueueTimeoutMs, TimeUnit.MILLISECONDS);
+        } finally {
+            submitLock.readLock().unlock();
+        }
+        if (!queued) {
+            rejectedCounter.increment();
+            return false;
+        }
+        acceptedCounter.increment();
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // Once running is false, every accepted item is already queued, so the workers see it before they stop
+        submitLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            submitLock.writeLock().unlock();
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(drainTimeoutMs, TimeUnit.MILLISECONDS)) {
+            log.warn("Webhook pipeline did not drain in {} ms, {} items left unprocessed", drainTimeoutMs, queue.size());
+            workers.shutdownNow();
+        }
+    }
+
+    private void work() {
+        var batch = new ArrayList<NotificationRequestItem>(batchSize);
+        try {
+            // Keep going after shutdown until the queue has been drained
+            while (running || !queue.isEmpty()) {
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+
+                for (var item : batch) {
+                    try {
+                        webhookProcessor.process(item);
+                        processedCounter.increment();
+                    } catch (Exception e) {
+                        failedCounter.increment();
+                        log.error("Unexpected error while processing webhook item {}", item.getPspReference(), e);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.adyen.workshop.services;
+
+import com.adyen.model.notification.NotificationRequestItem;
+import com.adyen.workshop.util.Storage;
+import com.adyen.workshop.util.Token;
+import com.adyen.workshop.util.TokenReplicator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handles a validated webhook notification item, see {@link WebhookPipeline} for how items get here.
+ */
+@Service
+public class WebhookProcessor {
+    private final Logger log = LoggerFactory.getLogger(WebhookProcessor.class);
+
+    private record EventKey(String eventCode, boolean success) {
+    }
+
+    private final PaymentTracker paymentTracker;
+    private final MeterRegistry meterRegistry;
+    // Null unless storage.replication.enabled=true
+    private final TokenReplicator tokenReplicator;
+    private final ConcurrentHashMap<EventKey, Counter> eventCounters = new ConcurrentHashMap<>();
+
+    public WebhookProcessor(PaymentTracker paymentTracker, MeterRegistry meterRegistry, ObjectProvider<TokenReplicator> tokenReplicator) {
+        this.paymentTracker = paymentTracker;
+        this.meterRegistry = meterRegistry;
+        this.tokenReplicator = tokenReplicator.getIfAvailable();
+    }
+
+    public void process(NotificationRequestItem item) {
+        process(item, true, false);
+    }
+
+    /**
+     * Processes an item replayed from the webhook event log. With replication, its token is only restored when this
+     * instance has no version of it (see TokenReplicator#restore), so a token removed on a peer does not come back.
+     *
+     * @param trackPayment false to leave the payment ledger alone, e.g. when replaying items it has already seen
+     */
+    public void replay(NotificationRequestItem item, boolean trackPayment) {
+        process(item, trackPayment, true);
+    }
+
+    private void process(NotificationRequestItem item, boolean trackPayment, boolean replayed) {
+        log.debug("Received webhook success:{} eventCode:{}", item.isSuccess(), item.getEventCode());
+        eventCounter(item).increment();
+        // Payment events (AUTHORISATION, CAPTURE, REFUND, ...) update the payment ledger, whether they succeeded or not
+        var paymentEvent = trackPayment ? paymentTracker.webhook(item) : PaymentTracker.isPaymentEvent(item);
+
+        if (item.isSuccess()) {
+            // read about eventcode "RECURRING_CONTRACT" here: https://docs.adyen.com/online-payments/tokenization/create-and-use-tokens?tab=subscriptions_2#pending-and-refusal-result-codes-1
+            if (item.getEventCode().equals("RECURRING_CONTRACT") && item.getAdditionalData() != null && item.getAdditionalData().get("recurring.shopperReference") != null) {
+                // webhook with recurring token
+                log.info("Recurring authorized - recurringDetailReference {}", item.getAdditionalData().get("recurring.recurringDetailReference"));
+
+                // save token
+                var token = new Token(item.getAdditionalData().get("recurring.recurringDetailReference"), item.getPaymentMethod(), item.getAdditionalData().get("recurring.shopperReference"));
+                if (replayed && tokenReplicator != null) {
+                    tokenReplicator.restore(token);
+                } else {
+                    Storage.getRepository().add(token);
+                }
+            } else if (item.getEventCode().equals("AUTHORISATION")) {
+                // webhook with payment authorisation
+                log.info("Payment authorized - PspReference {}", item.getPspReference());
+            } else if (!paymentEvent) {
+                // unexpected eventCode
+                log.warn("Unexpected eventCode: {}", item.getEventCode());
+            }
+        } else {
+            // Operation has failed: check the reason field for failure information.
+            log.info("Operation has failed: {}", item.getReason());
+        }
+    }
+
+    // Processed webhook items, as the counter webhook.events tagged with eventCode and success
+    private Counter eventCounter(NotificationRequestItem item) {
+        return eventCounters.computeIfAbsent(new EventKey(item.getEventCode(), item.isSuccess()), key -> Counter.builder("webhook.events")
+                .description("Processed webhook items")
+                .tag("eventCode", key.eventCode() != null ? key.eventCode() : "none")
+                .tag("success", String.valueOf(key.success()))
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,163 @@
+package com.adyen.workshop.services;
+
+import com.adyen.workshop.configurations.ApplicationConfiguration;
+import com.adyen.workshop.util.Storage;
+import com.adyen.workshop.util.Threads;
+import com.adyen.workshop.util.WebhookEventLog;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Feeds the items of a {@link WebhookEventLog} through the {@link WebhookProcessor} again,
+ * e.g. to rebuild the tokens of a new node or to catch up after the instance was down.
+ * Token removals in the log are applied to {@link Storage} in their place; with replication, a replayed token
+ * is not added again when this instance has a version of it, e.g. a removal made on a peer.
+ * The payment ledger is only fed on startup: it is empty then, while a replay on a live node would add every event again.
+ *
+ * <p>A single reader walks the log and spreads the records over a number of lanes by their partition,
+ * every lane being one thread that decodes and processes its records in order. All items of a shopper end up
+ * in the same lane, so they are processed in sequence order, while different shoppers are processed in parallel.
+ * Records are handed to the lanes in batches through bounded queues, so a slow lane holds back the reader
+ * instead of filling up the memory.
+ *
+ * <p>The journal and the replicator are opened first, so the tokens replayed on startup are journaled and versioned.
+ */
+@Service
+@DependsOn({"tokenJournal", "tokenReplicator"})
+public class WebhookReplay {
+    private final Logger log = LoggerFactory.getLogger(WebhookReplay.class);
+
+    private static final int BATCH_SIZE = 256;
+    private static final int LANE_QUEUE_CAPACITY = 16;
+    private static final List<WebhookEventLog.Event> END = List.of();
+
+    public record Result(long events, long failed, long millis) {
+    }
+
+    private final ApplicationConfiguration applicationConfiguration;
+    private final WebhookProcessor webhookProcessor;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public WebhookReplay(ApplicationConfiguration applicationConfiguration, WebhookProcessor webhookProcessor) {
+        this.applicationConfiguration = applicationConfiguration;
+        this.webhookProcessor = webhookProcessor;
+    }
+
+    // A new node rebuilds its state from the log before it starts serving
+    @PostConstruct
+    void replayOnStartup() throws IOException, InterruptedException {
+        if (applicationConfiguration.isWebhookEventLogReplayOnStartup()) {
+            replay(Path.of(applicationConfiguration.getWebhookEventLogDirectory()), applicationConfiguration.getWebhookEventLogReplayLanes(), true);
+        }
+    }
+
+    /**
+     * Replays the configured event log on a live node, without feeding the payment ledger.
+     */
+    public Result replay() throws IOException, InterruptedException {
+        return replay(Path.of(applicationConfiguration.getWebhookEventLogDirectory()), applicationConfiguration.getWebhookEventLogReplayLanes(), false);
+    }
+
+    /**
+     * @param trackPayments whether the items are recorded in the payment ledger
+     * @throws IllegalStateException when a replay is already running
+     */
+    public Result replay(Path directory, int laneCount, boolean trackPayments) throws IOException, InterruptedException {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A webhook replay is already running");
+        }
+        var start = System.nanoTime();
+        var lanes = new ArrayList<BlockingQueue<List<WebhookEventLog.Event>>>(laneCount);
+        var batches = new ArrayList<List<WebhookEventLog.Event>>(laneCount);
+        var failed = new LongAdder();
+        var executor = Executors.newFixedThreadPool(laneCount, Threads.daemon("webhook-replay"));
+        try {
+            for (int i = 0; i < laneCount; i++) {
+                var lane = new ArrayBlockingQueue<List<WebhookEventLog.Event>>(LANE_QUEUE_CAPACITY);
+                lanes.add(lane);
+                batches.add(new ArrayList<>(BATCH_SIZE));
+                executor.execute(() -> process(lane, trackPayments, failed));
+            }
+
+            long events;
+            try {
+                events = WebhookEventLog.read(directory, event -> {
+                    var lane = Math.floorMod(event.partition(), laneCount);
+                    var batch = batches.get(lane);
+                    batch.add(event);
+                    if (batch.size() == BATCH_SIZE) {
+                        put(lanes.get(lane), batch);
+                        batches.set(lane, new ArrayList<>(BATCH_SIZE));
+                    }
+                });
+            } finally {
+                // Lanes stop once they get to the end marker, also when reading failed halfway
+                for (int i = 0; i < laneCount; i++) {
+                    if (!batches.get(i).isEmpty()) {
+                        put(lanes.get(i), batches.get(i));
+                    }
+                    put(lanes.get(i), END);
+                }
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            var result = new Result(events, failed.sum(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            log.info("Replayed {} webhook items from {} on {} lanes in {} ms, {} failed",
+                    result.events(), directory, laneCount, result.millis(), result.failed());
+            return result;
+        } finally {
+            executor.shutdownNow();
+            running.set(false);
+        }
+    }
+
+    private void process(BlockingQueue<List<WebhookEventLog.Event>> lane, boolean trackPayments, LongAdder failed) {
+        try {
+            while (true) {
+                var batch = lane.take();
+                if (batch == END) {
+                    return;
+                }
+                for (var event : batch) {
+                    try {
+                        var removal = event.tokenRemoval();
+                        if (removal != null) {
+                            Storage.remove(removal.recurringDetailReference(), removal.shopperReference());
+                        } else {
+                            webhookProcessor.replay(event.item(), trackPayments);
+                        }
+                    } catch (RuntimeException e) {
+                        failed.increment();
+                        log.error("Unexpected error while replaying webhook item {}", event.sequence(), e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void put(BlockingQueue<List<WebhookEventLog.Event>> lane, List<WebhookEventLog.Event> batch) {
+        try {
+            lane.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while replaying webhooks", e);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.adyen.workshop.util;
+
+import com.adyen.Client;
+import com.adyen.Config;
+import com.adyen.constants.ApiConstants;
+import com.adyen.httpclient.ClientInterface;
+import com.adyen.httpclient.HTTPClientException;
+import com.adyen.model.RequestOptions;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+HTTP transport for the Adyen Client, replacing the library's default client.
+It is built on one shared java.net.http.HttpClient, which keeps connections alive and reuses them
+(and multiplexes requests over a single connection when HTTP/2 is enabled).
+Concurrency towards Adyen is capped per route (scheme://host:port) and in total; a request that cannot get
+a slot within the connection request timeout fails fast instead of queueing forever.
+Slot usage is reported as Micrometer gauges (adyen.http.slots.*), the JDK client does not expose its connections.
+requestAsync sends without blocking the caller: the response completes a future on the executor of the client.
+ */
+public class AdyenHttpTransport implements ClientInterface {
+
+    public record Settings(int maxConnections, int maxConnectionsPerRoute, Duration connectTimeout, Duration readTimeout,
+                           Duration connectionRequestTimeout, boolean http2) {
+    }
+
+    private static final class Route {
+        private final Semaphore permits;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        Route(int maxConnections) {
+            this.permits = new Semaphore(maxConnections);
+        }
+    }
+
+    // Per call read timeout, overriding the configured one for the calls made by the current thread
+    private static final ThreadLocal<Duration> CALL_TIMEOUT = new ThreadLocal<>();
+
+    private final Settings settings;
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final MeterRegistry meterRegistry;
+
+    private final Semaphore totalPermits;
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder timeouts = new LongAdder();
+
+    public AdyenHttpTransport(Settings settings, ExecutorService executor, MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.totalPermits = new Semaphore(settings.maxConnections());
+        this.httpClient = HttpClient.newBuilder()
+                .version(settings.http2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(settings.connectTimeout())
+                .executor(executor)
+                .build();
+
+        Gauge.builder("adyen.http.slots.active", active, AtomicInteger::get)
+                .description("Requests to Adyen currently holding a connection slot")
+                .register(meterRegistry);
+        Gauge.builder("adyen.http.slots.pending", pending, AtomicInteger::get)
+                .description("Requests to Adyen waiting for a connection slot")
+                .register(meterRegistry);
+        Gauge.builder("adyen.http.slots.max", settings, Settings::maxConnections)
+                .register(meterRegistry);
+        FunctionCounter.builder("adyen.http.slots.timeouts", timeouts, LongAdder::sum)
+                .description("Requests that gave up waiting for a connection slot")
+                .register(meterRegistry);
+    }
+
+    public String request(String endpoint, String requestBody, Config config) throws IOException, HTTPClientException {
+        return request(endpoint, requestBody, config, false, null, ApiConstants.HttpMethod.POST, null);
+    }
+
+    public String request(String endpoint, String requestBody, Config config, boolean isApiKeyRequired) throws IOException, HTTPClientException {
+        return request(endpoint, requestBody, config, isApiKeyRequired, null, ApiConstants.HttpMethod.POST, null);
+    }
+
+    public String request(String endpoint, String requestBody, Config config, boolean isApiKeyRequired, RequestOptions requestOptions) throws IOException, HTTPClientException {
+        return request(endpoint, requestBody, config, isApiKeyRequired, requestOptions, ApiConstants.HttpMethod.POST, null);
+    }
+
+    public String request(String endpoint, String requestBody, Config config, boolean isApiKeyRequired, RequestOptions requestOptions,
+                          ApiConstants.HttpMethod httpMethod) throws IOException, HTTPClientException {
+        return request(endpoint, requestBody, config, isApiKeyRequired, requestOptions, httpMethod, null);
+    }
+
+    public String request(String endpoint, String requestBody, Config config, boolean isApiKeyRequired, RequestOptions requestOptions,
+                          ApiConstants.HttpMethod httpMethod, Map<String, String> params) throws IOException, HTTPClientException {
+        var uri = createUri(endpoint, params);
+        var request = createRequest(uri, requestBody, config, requestOptions, httpMethod);
+
+        var route = routes.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(), this::createRoute);
+        acquire(route, uri);
+        try {
+            var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                throw new HTTPClientException(response.statusCode(), "HTTP Exception", response.headers().map(), response.body());
+            }
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling " + uri, e);
+        } finally {
+            release(route);
+        }
+    }
+
+    /**
+     * Sends a POST without blocking the calling thread. The future completes with the response body, or exceptionally
+     * with an {@link HTTPClientException} for a non 2xx response or an {@link IOException}.
+     */
+    public CompletableFuture<String> requestAsync(String endpoint, String requestBody, Config config, RequestOptions requestOptions) {
+        var uri = createUri(endpoint, null);
+        var request = createRequest(uri, requestBody, config, requestOptions, ApiConstants.HttpMethod.POST);
+        var route = routes.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(), this::createRoute);
+
+        // Only when every slot is taken a thread of the executor waits for one, like a blocking caller would
+        CompletableFuture<Void> acquired;
+        if (tryAcquire(route)) {
+            acquired = CompletableFuture.completedFuture(null);
+        } else {
+            acquired = CompletableFuture.runAsync(() -> {
+                try {
+                    acquire(route, uri);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+
+        return acquired.thenCompose(ignored -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .whenComplete((response, e) -> release(route))
+                .thenApply(response -> {
+                    if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                        throw new CompletionException(new HTTPClientException(response.statusCode(), "HTTP Exception",
+                                response.headers().map(), response.body()));
+                    }
+                    return response.body();
+                }));
+    }
+
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Sets the read timeout for the calls the current thread makes until {@link #clearCallTimeout()}.
+     */
+    public static void setCallTimeout(Duration timeout) {
+        CALL_TIMEOUT.set(timeout);
+    }
+
+    public static void clearCallTimeout() {
+        CALL_TIMEOUT.remove();
+    }
+
+    private Route createRoute(String name) {
+        var route = new Route(settings.maxConnectionsPerRoute());
+        Gauge.builder("adyen.http.route.connections.active", route.active, AtomicInteger::get)
+                .tag("route", name)
+                .register(meterRegistry);
+        Gauge.builder("adyen.http.route.connections.pending", route.pending, AtomicInteger::get)
+                .tag("route", name)
+                .register(meterRegistry);
+        return route;
+    }
+
+    private void acquire(Route route, URI uri) throws IOException {
+        var timeoutNanos = settings.connectionRequestTimeout().toNanos();
+        var deadline = System.nanoTime() + timeoutNanos;
+        route.pending.incrementAndGet();
+        pending.incrementAndGet();
+        try {
+            if (!route.permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                timeouts.increment();
+                throw new IOException("Timed out waiting for a connection to " + uri.getAuthority());
+            }
+            if (!totalPermits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                route.permits.release();
+                timeouts.increment();
+                throw new IOException("Timed out waiting for a connection, all " + settings.maxConnections() + " are in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + uri.getAuthority(), e);
+        } finally {
+            route.pending.decrementAndGet();
+            pending.decrementAndGet();
+        }
+        route.active.incrementAndGet();
+        active.incrementAndGet();
+    }
+
+    private boolean tryAcquire(Route route) {
+        if (!route.permits.tryAcquire()) {
+            return false;
+        }
+        if (!totalPermits.tryAcquire()) {
+            route.permits.release();
+            return false;
+        }
+        route.active.incrementAndGet();
+        active.incrementAndGet();
+        return true;
+    }
+
+    private void release(Route route) {
+        route.active.decrementAndGet();
+        active.decrementAndGet();
+        totalPermits.release();
+        route.permits.release();
+    }
+
+    private HttpRequest createRequest(URI uri, String requestBody, Config config, RequestOptions requestOptions, ApiConstants.HttpMethod httpMethod) {
+        var callTimeout = CALL_TIMEOUT.get();
+        var builder = HttpRequest.newBuilder(uri)
+                .timeout(callTimeout != null ? callTimeout : settings.readTimeout())
+                .header(ApiConstants.RequestProperty.CONTENT_TYPE, ApiConstants.RequestProperty.APPLICATION_JSON_TYPE)
+                .header(ApiConstants.RequestProperty.ACCEPT_CHARSET, StandardCharsets.UTF_8.name())
+                .header(ApiConstants.RequestProperty.USER_AGENT, userAgent(config))
+                .header(ApiConstants.RequestProperty.ADYEN_LIBRARY_NAME, Client.LIB_NAME)
+                .header(ApiConstants.RequestProperty.ADYEN_LIBRARY_VERSION, Client.LIB_VERSION);
+
+        if (config.getApiKey() != null && !config.getApiKey().isEmpty()) {
+            builder.header(ApiConstants.RequestProperty.API_KEY, config.getApiKey());
+        } else if (config.getUsername() != null && config.getPassword() != null) {
+            var credentials = config.getUsername() + ":" + config.getPassword();
+            builder.header("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        if (requestOptions != null) {
+            if (requestOptions.getIdempotencyKey() != null) {
+                builder.header(ApiConstants.RequestProperty.IDEMPOTENCY_KEY, requestOptions.getIdempotencyKey());
+            }
+            if (requestOptions.getRequestedVerificationCodeHeader() != null) {
+                builder.header(ApiConstants.RequestProperty.REQUESTED_VERIFICATION_CODE_HEADER, requestOptions.getRequestedVerificationCodeHeader());
+            }
+            if (requestOptions.getWwwAuthenticateHeader() != null) {
+                builder.header(ApiConstants.RequestProperty.WWW_AUTHENTICATE_HEADER, requestOptions.getWwwAuthenticateHeader());
+            }
+            if (requestOptions.getAdditionalServiceHeaders() != null) {
+                requestOptions.getAdditionalServiceHeaders().forEach(builder::header);
+            }
+        }
+
+        var body = requestBody == null || requestBody.isEmpty()
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofString(requestBody, StandardCharsets.UTF_8);
+        switch (httpMethod == null ? ApiConstants.HttpMethod.POST : httpMethod) {
+            case GET -> builder.GET();
+            case DELETE -> builder.DELETE();
+            case PATCH -> builder.method("PATCH", body);
+            default -> builder.POST(body);
+        }
+        return builder.build();
+    }
+
+    private static String userAgent(Config config) {
+        var library = Client.LIB_NAME + "/" + Client.LIB_VERSION;
+        return config.getApplicationName() == null || config.getApplicationName().isBlank()
+                ? library
+                : config.getApplicationName() + " " + library;
+    }
+
+    private static URI createUri(String endpoint, Map<String, String> params) {
+        if (params == null || params.isEmpty()) {
+            return URI.create(endpoint);
+        }
+        var uri = new StringBuilder(endpoint).append(endpoint.contains("?") ? '&' : '?');
+        params.forEach((name, value) -> uri.append(URLEncoder.encode(name, StandardCharsets.UTF_8))
+                .append('=')
+                .append(URLEncoder.encode(value, StandardCharsets.UTF_8))
+                .append('&'));
+        uri.setLength(uri.length() - 1);
+        return URI.create(uri.toString());
+    }
+}
@@ -0,0 +1,138 @@
+package com.adyen.workshop.util;
+
+import java.time.Duration;
+
+/*
+Count-based circuit breaker. While CLOSED it keeps the outcome of the last windowSize calls; once at least
+minimumCalls were made and the failure rate reaches the threshold it OPENs and lets no call through for openDuration.
+Then it goes HALF_OPEN and lets halfOpenCalls trial calls through: if all of them succeed it CLOSEs again,
+a single failure OPENs it for another openDuration.
+Every state change starts a new generation. A permit carries the generation it was granted in, and the outcome of a call
+is only counted in that same generation: a call made while CLOSED that finishes after the breaker went HALF_OPEN is
+not taken for a trial call.
+Calls take milliseconds, so a plain lock around the bookkeeping costs nothing noticeable.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public record Settings(int windowSize, int minimumCalls, double failureRateThreshold, Duration openDuration, int halfOpenCalls) {
+    }
+
+    private final Settings settings;
+    private final boolean[] window;
+
+    public static final long NOT_PERMITTED = -1;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private int next;
+    private int calls;
+    private int failures;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    public CircuitBreaker(Settings settings) {
+        this.settings = settings;
+        this.window = new boolean[settings.windowSize()];
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the permit to report the outcome of the call with, NOT_PERMITTED when the call should fail fast
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < settings.openDuration().toNanos()) {
+                return NOT_PERMITTED;
+            }
+            transition(State.HALF_OPEN);
+            halfOpenPermits = settings.halfOpenCalls();
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits == 0) {
+                return NOT_PERMITTED;
+            }
+            halfOpenPermits--;
+        }
+        return generation;
+    }
+
+    public synchronized void onSuccess(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (++halfOpenSuccesses >= settings.halfOpenCalls()) {
+                close();
+            }
+        } else {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long permit) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            open();
+        } else {
+            record(true);
+            if (calls >= settings.minimumCalls() && failures >= settings.failureRateThreshold() * calls) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * A permitted call that was not made after all, e.g. because the bulkhead was full.
+     */
+    public synchronized void release(long permit) {
+        if (permit == generation && state == State.HALF_OPEN) {
+            halfOpenPermits = Math.min(halfOpenPermits + 1, settings.halfOpenCalls());
+        }
+    }
+
+    private void record(boolean failure) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        transition(State.OPEN);
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        transition(State.CLOSED);
+        next = 0;
+        calls = 0;
+        failures = 0;
+    }
+
+    // Outcomes of calls permitted before are ignored from now on
+    private void transition(State state) {
+        this.state = state;
+        generation++;
+    }
+}
@@ -0,0 +1,116 @@
+package com.adyen.workshop.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Bounded set of recently seen keys, used to recognise redelivered webhooks.
+Keys are spread over independently locked shards; each shard keeps its keys in insertion order,
+evicting the oldest one once it is full and dropping keys older than the TTL.
+Memory is therefore capped at maxEntries keys, whatever the webhook volume.
+ */
+public class DeduplicationIndex {
+
+    private final Shard[] shards;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public DeduplicationIndex(int maxEntries, long ttl, TimeUnit ttlUnit) {
+        // Power of two shard count, so the shard index is a mask of the hash
+        var shardCount = Integer.highestOneBit(Math.max(1, Math.min(64, maxEntries / 1024)));
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(Math.max(1, maxEntries / shardCount));
+        }
+        this.ttlNanos = ttlUnit.toNanos(ttl);
+    }
+
+    /**
+     * @return true when the key was seen within the TTL, counted as a hit (otherwise as a miss)
+     */
+    public boolean contains(String key) {
+        var found = shardFor(key).contains(key, System.nanoTime());
+        (found ? hits : misses).increment();
+        return found;
+    }
+
+    /**
+     * Records the key.
+     *
+     * @return false when it was already present, i.e. another thread got there first
+     */
+    public boolean add(String key) {
+        return shardFor(key).add(key, System.nanoTime());
+    }
+
+    public void remove(String key) {
+        shardFor(key).remove(key);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        var size = 0;
+        for (var shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private Shard shardFor(String key) {
+        var hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)];
+    }
+
+    private final class Shard {
+        private final int capacity;
+        private final LinkedHashMap<String, Long> entries;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+            this.entries = new LinkedHashMap<>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > Shard.this.capacity;
+                }
+            };
+        }
+
+        synchronized boolean contains(String key, long now) {
+            expire(now);
+            return entries.containsKey(key);
+        }
+
+        synchronized boolean add(String key, long now) {
+            expire(now);
+            return entries.putIfAbsent(key, now) == null;
+        }
+
+        synchronized void remove(String key) {
+            entries.remove(key);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        // Entries are in insertion order, so expired ones are always at the head
+        private void expire(long now) {
+            Iterator<Long> iterator = entries.values().iterator();
+            while (iterator.hasNext() && now - iterator.next() > ttlNanos) {
+                iterator.remove();
+            }
+        }
+    }
+}
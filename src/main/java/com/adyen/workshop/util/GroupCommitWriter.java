@@ -0,0 +1,172 @@
+package com.adyen.workshop.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Single writer thread of an append-only file, e.g. the TokenJournal.
+
+Entries are handed to the writer through a queue, so the threads producing them never wait for disk I/O.
+The writer writes everything queued so far, then commits: the file is forced at most once per commit interval (group commit),
+on every batch when the interval is 0.
+
+A writer that fails stops for good: the queue is dropped and further entries are refused instead of queued,
+so memory does not fill up with entries that will never be written. isFailed() reports it, e.g. as a metric.
+ */
+public class GroupCommitWriter<T> {
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    private static final Object SHUTDOWN = new Object();
+
+    /**
+     * Owned by the writer thread once it has started.
+     */
+    public interface Sink<T> {
+
+        void write(T entry) throws IOException;
+
+        /**
+         * Called after every batch, also when no entry arrived during the commit interval.
+         *
+         * @param force   the commit interval has elapsed or the writer is closing: force what was written
+         * @param closing the last commit, do not start maintenance such as a compaction
+         */
+        void commit(boolean force, boolean closing) throws IOException;
+    }
+
+    private final String name;
+    private final long commitIntervalNanos;
+    private final Sink<T> sink;
+    private final Runnable onFailure;
+
+    private final BlockingQueue<Object> pending = new LinkedBlockingQueue<>();
+    private final LongAdder refused = new LongAdder();
+
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private long lastForce;
+    private Thread writer;
+
+    public GroupCommitWriter(String name, long commitIntervalMillis, Sink<T> sink) {
+        this(name, commitIntervalMillis, sink, () -> {
+        });
+    }
+
+    /**
+     * @param onFailure called on the writer thread once it has stopped on an error, e.g. to stop producing entries
+     */
+    public GroupCommitWriter(String name, long commitIntervalMillis, Sink<T> sink, Runnable onFailure) {
+        this.name = name;
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+        this.sink = sink;
+        this.onFailure = onFailure;
+    }
+
+    public void start() {
+        lastForce = System.nanoTime();
+        writer = new Thread(this::run, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the entry, does not wait for the disk.
+     *
+     * @return false when the writer has failed or is closed, the entry is not written
+     */
+    public boolean offer(T entry) {
+        if (failure != null || closed) {
+            refused.increment();
+            return false;
+        }
+        pending.offer(entry);
+        // The writer failed in between and has already dropped the queue
+        if (failure != null) {
+            pending.clear();
+        }
+        return true;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // Entries not queued because the writer had failed or was closed
+    public long getRefusedCount() {
+        return refused.sum();
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Writes and forces everything still queued, then stops the writer.
+     */
+    public void close() {
+        closed = true;
+        if (writer == null || !writer.isAlive()) {
+            return;
+        }
+        pending.offer(SHUTDOWN);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run() {
+        var batch = new ArrayList<>();
+        try {
+            while (true) {
+                var first = commitIntervalNanos > 0 ? pending.poll(commitIntervalNanos, TimeUnit.NANOSECONDS) : pending.take();
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch);
+                }
+
+                var closing = false;
+                for (var entry : batch) {
+                    if (entry == SHUTDOWN) {
+                        closing = true;
+                    } else {
+                        sink.write((T) entry);
+                    }
+                }
+                batch.clear();
+
+                // Group commit: one force covers everything written since the previous one
+                var now = System.nanoTime();
+                var force = closing || now - lastForce >= commitIntervalNanos;
+                sink.commit(force, closing);
+                if (force) {
+                    lastForce = now;
+                }
+                if (closing) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped(e);
+        } catch (IOException | RuntimeException e) {
+            stopped(e);
+        }
+    }
+
+    private void stopped(Exception e) {
+        failure = e;
+        pending.clear();
+        log.error("{} stopped, further entries are not written", name, e);
+        onFailure.run();
+    }
+}
@@ -0,0 +1,44 @@
+package com.adyen.workshop.util;
+
+import java.util.Arrays;
+
+/*
+The latencies of the last N calls, to derive a percentile from recent behaviour.
+The percentile is recomputed (by sorting a copy of the window) every N/16 records instead of on every read.
+ */
+public class LatencyWindow {
+
+    private final long[] nanos;
+    private final double percentile;
+    private final int recomputeEvery;
+
+    private int next;
+    private int size;
+    private int sinceRecompute;
+    private volatile long percentileNanos = -1;
+
+    public LatencyWindow(int capacity, double percentile) {
+        this.nanos = new long[capacity];
+        this.percentile = percentile;
+        this.recomputeEvery = Math.max(1, capacity / 16);
+    }
+
+    public synchronized void record(long latencyNanos) {
+        nanos[next] = latencyNanos;
+        next = (next + 1) % nanos.length;
+        size = Math.min(size + 1, nanos.length);
+        if (++sinceRecompute >= recomputeEvery) {
+            sinceRecompute = 0;
+            var sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            percentileNanos = sorted[Math.max(0, (int) Math.ceil(percentile * size) - 1)];
+        }
+    }
+
+    /**
+     * @return the percentile in nanoseconds, or -1 while too few calls were recorded
+     */
+    public long getPercentileNanos() {
+        return percentileNanos;
+    }
+}
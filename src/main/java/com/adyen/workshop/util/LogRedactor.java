@@ -0,0 +1,105 @@
+package com.adyen.workshop.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/*
+Masks card and personal data in what we log. A value is converted to a JSON tree and the value of every field
+with a sensitive name is replaced, at any depth (e.g. paymentMethod.encryptedCardNumber, additionalData.hmacSignature).
+
+lazy(value) defers that work to the toString() of a holder: it only runs when a log event is actually written,
+and with the asynchronous appender (see logback-spring.xml) on the appender thread instead of the request thread.
+ */
+public class LogRedactor {
+
+    public static final String MASK = "***";
+
+    public static final List<String> DEFAULT_FIELDS = List.of(
+            // card data, also the encrypted fields of Drop-in / Components
+            "number", "cvc", "expiryMonth", "expiryYear", "holderName", "cardHolderName",
+            "encryptedCardNumber", "encryptedSecurityCode", "encryptedExpiryMonth", "encryptedExpiryYear",
+            "iban", "ownerName", "bankAccountNumber", "bankLocationId",
+            // shopper details
+            "shopperEmail", "shopperName", "firstName", "lastName", "telephoneNumber", "dateOfBirth",
+            "socialSecurityNumber", "shopperIP", "billingAddress", "deliveryAddress",
+            // secrets and opaque payment state
+            "hmacSignature", "paymentData", "sessionData", "redirectResult", "payload", "threeDSResult");
+
+    private final ObjectMapper objectMapper;
+    private final Set<String> fields;
+
+    public LogRedactor(ObjectMapper objectMapper, Collection<String> additionalFields) {
+        this.objectMapper = objectMapper.copy()
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .disable(SerializationFeature.INDENT_OUTPUT)
+                .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        var names = new ArrayList<>(DEFAULT_FIELDS);
+        names.addAll(additionalFields);
+        this.fields = new HashSet<>();
+        for (var name : names) {
+            if (!name.isBlank()) {
+                fields.add(name.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * @return a holder whose toString() is the redacted JSON of the value
+     */
+    public Object lazy(Object value) {
+        return value == null ? null : new Lazy(this, value);
+    }
+
+    public String redact(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        JsonNode tree;
+        try {
+            tree = objectMapper.valueToTree(value);
+        } catch (IllegalArgumentException e) {
+            // Never fall back to toString(), that is exactly what must not end up in the log
+            return value.getClass().getSimpleName() + "[not serializable]";
+        }
+        redact(tree);
+        return tree.toString();
+    }
+
+    private void redact(JsonNode node) {
+        if (node instanceof ObjectNode object) {
+            var names = new ArrayList<String>();
+            object.fieldNames().forEachRemaining(names::add);
+            for (var name : names) {
+                var value = object.get(name);
+                if (fields.contains(name.toLowerCase(Locale.ROOT))) {
+                    if (!value.isNull()) {
+                        object.put(name, MASK);
+                    }
+                } else {
+                    redact(value);
+                }
+            }
+        } else if (node.isArray()) {
+            for (var element : node) {
+                redact(element);
+            }
+        }
+    }
+
+    private record Lazy(LogRedactor redactor, Object value) {
+        @Override
+        public String toString() {
+            return redactor.redact(value);
+        }
+    }
+}
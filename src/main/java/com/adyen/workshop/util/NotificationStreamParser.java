@@ -0,0 +1,163 @@
+package com.adyen.workshop.util;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/*
+Reads a webhook delivery ({"live": ..., "notificationItems": [{"NotificationRequestItem": {...}}, ...]})
+straight from the request stream with a token-level JSON parser, and hands every NotificationRequestItem
+to the consumer as soon as it has been read. Neither the payload nor the list of items is ever held in memory,
+so memory use does not depend on the size of the batch.
+Produces the same items as NotificationRequest.fromJson; fields it does not know are skipped.
+ */
+public final class NotificationStreamParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private NotificationStreamParser() {
+    }
+
+    /**
+     * @return the number of items read
+     */
+    public static int parse(InputStream in, Consumer<NotificationRequestItem> consumer) throws IOException {
+        try (var parser = JSON_FACTORY.createParser(in)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+            var count = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.currentName();
+                var token = parser.nextToken();
+                if (field.equals("notificationItems") && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        count += parseContainer(parser, consumer);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return count;
+        }
+    }
+
+    // {"NotificationRequestItem": {...}}
+    private static int parseContainer(JsonParser parser, Consumer<NotificationRequestItem> consumer) throws IOException {
+        var count = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT && field.equals("NotificationRequestItem")) {
+                consumer.accept(parseItem(parser));
+                count++;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return count;
+    }
+
+    private static NotificationRequestItem parseItem(JsonParser parser) throws IOException {
+        var item = new NotificationRequestItem();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            var token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "additionalData" -> item.setAdditionalData(parseAdditionalData(parser));
+                case "amount" -> item.setAmount(parseAmount(parser));
+                case "eventCode" -> item.setEventCode(parser.getValueAsString());
+                case "eventDate" -> item.setEventDate(parseDate(parser.getValueAsString()));
+                case "merchantAccountCode" -> item.setMerchantAccountCode(parser.getValueAsString());
+                case "merchantReference" -> item.setMerchantReference(parser.getValueAsString());
+                case "originalReference" -> item.setOriginalReference(parser.getValueAsString());
+                case "paymentMethod" -> item.setPaymentMethod(parser.getValueAsString());
+                case "pspReference" -> item.setPspReference(parser.getValueAsString());
+                case "reason" -> item.setReason(parser.getValueAsString());
+                case "success" -> item.setSuccess(token == JsonToken.VALUE_TRUE || "true".equals(parser.getValueAsString()));
+                case "operations" -> item.setOperations(parseStrings(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return item;
+    }
+
+    private static HashMap<String, String> parseAdditionalData(JsonParser parser) throws IOException {
+        var additionalData = new HashMap<String, String>();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return additionalData;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.currentName();
+            var token = parser.nextToken();
+            if (token.isScalarValue()) {
+                additionalData.put(name, token == JsonToken.VALUE_NULL ? null : parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return additionalData;
+    }
+
+    private static Amount parseAmount(JsonParser parser) throws IOException {
+        var amount = new Amount();
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return amount;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var field = parser.currentName();
+            var token = parser.nextToken();
+            if (field.equals("currency") && token != JsonToken.VALUE_NULL) {
+                amount.setCurrency(parser.getValueAsString());
+            } else if (field.equals("value") && token != JsonToken.VALUE_NULL) {
+                amount.setValue(parser.getValueAsLong());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return amount;
+    }
+
+    private static ArrayList<String> parseStrings(JsonParser parser) throws IOException {
+        var values = new ArrayList<String>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return values;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken().isScalarValue()) {
+                values.add(parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    private static Date parseDate(String value) {
+        try {
+            return Date.from(OffsetDateTime.parse(value).toInstant());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected, JsonParser parser) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed webhook: expected " + expected + " but found " + actual + " at " + parser.currentLocation());
+        }
+    }
+}
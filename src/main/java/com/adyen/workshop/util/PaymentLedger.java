@@ -0,0 +1,497 @@
+package com.adyen.workshop.util;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+In-process record of what happened to every payment, fed by the responses of Adyen and by webhooks (see PaymentTracker),
+so the state of a payment can be shown without calling Adyen.
+
+Payments and their events are appended to fixed-size chunks of primitive columns (ids are positions, never reused):
+a payment costs a few longs next to its reference strings, an event 26 bytes. Every event links to the previous event
+of its payment, which gives the history of a payment without an index per payment.
+Two open addressing tables map the 64-bit hash of a pspReference or merchantReference to the id of the payment,
+so a lookup is a few array reads plus one string comparison.
+
+Every event gets a unique, increasing timestamp in microseconds: events and the creation of payments are ordered by time,
+so a range of time is a binary search over the chunks, and a timestamp is an exact cursor for the next page.
+Once there are more than maxPayments payments (maxEvents events), the oldest chunk is dropped and the tables are rebuilt.
+
+Webhooks and API responses write while result pages and the admin read, under a read-write lock.
+ */
+public class PaymentLedger {
+
+    /**
+     * The state of a payment. A payment only moves to a status of the same or a later stage, so an event that arrives
+     * late (e.g. the API response after the AUTHORISATION webhook) is recorded without rolling the status back.
+     */
+    public enum Status {
+        ACTION_REQUIRED(0),
+        PENDING(0),
+        AUTHORISED(1),
+        REFUSED(1),
+        ERROR(1),
+        CANCELLED(2),
+        CAPTURED(2),
+        CAPTURE_FAILED(2),
+        REFUNDED(3),
+        REFUND_FAILED(3),
+        CHARGEBACK(3);
+
+        private final int stage;
+
+        Status(int stage) {
+            this.stage = stage;
+        }
+    }
+
+    public enum Source {
+        API,
+        WEBHOOK
+    }
+
+    /**
+     * @param amount in minor units, null until an event carried one
+     */
+    public record Payment(String pspReference, String merchantReference, Status status, Source source,
+                          String currency, Long amount, Instant createdAt, Instant updatedAt) {
+    }
+
+    public record Event(String pspReference, String merchantReference, Status status, Source source, Instant time) {
+    }
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final long NO_AMOUNT = Long.MIN_VALUE;
+    private static final long NO_EVENT = -1;
+    private static final Status[] STATUSES = Status.values();
+    private static final Source[] SOURCES = Source.values();
+
+    private static final class PaymentChunk {
+        final String[] pspReference = new String[CHUNK_SIZE];
+        final String[] merchantReference = new String[CHUNK_SIZE];
+        final String[] currency = new String[CHUNK_SIZE];
+        final long[] amount = new long[CHUNK_SIZE];
+        final long[] createdAt = new long[CHUNK_SIZE];
+        final long[] lastEvent = new long[CHUNK_SIZE];
+        final byte[] status = new byte[CHUNK_SIZE];
+    }
+
+    private static final class EventChunk {
+        final long[] time = new long[CHUNK_SIZE];
+        final long[] payment = new long[CHUNK_SIZE];
+        final long[] previous = new long[CHUNK_SIZE];
+        final byte[] status = new byte[CHUNK_SIZE];
+        final byte[] source = new byte[CHUNK_SIZE];
+    }
+
+    private final int maxPaymentChunks;
+    private final int maxEventChunks;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ArrayList<PaymentChunk> paymentChunks = new ArrayList<>();
+    private final ArrayList<EventChunk> eventChunks = new ArrayList<>();
+    // Ids of the oldest payment and event still kept (multiples of CHUNK_SIZE) and of the next ones
+    private long firstPayment;
+    private long nextPayment;
+    private long firstEvent;
+    private long nextEvent;
+    private long lastMicros;
+
+    private ReferenceTable byPspReference = new ReferenceTable(true, 1024);
+    private ReferenceTable byMerchantReference = new ReferenceTable(false, 1024);
+
+    public PaymentLedger(int maxPayments, int maxEvents) {
+        this.maxPaymentChunks = Math.max(2, (maxPayments + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.maxEventChunks = Math.max(2, (maxEvents + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    /**
+     * Appends an event to the payment with the pspReference, or else with the merchantReference (adding the payment if
+     * there is none) and updates its status. The merchantReference of a payment is kept once it is known.
+     *
+     * @param amount in minor units, may be null
+     */
+    public void record(String pspReference, String merchantReference, Status status, Source source, String currency, Long amount) {
+        if (pspReference == null && merchantReference == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            var now = nextMicros();
+            var id = find(pspReference, merchantReference);
+            if (id < 0) {
+                id = addPayment(now);
+            }
+            var chunk = paymentChunk(id);
+            var offset = (int) (id & CHUNK_MASK);
+
+            if (chunk.pspReference[offset] == null && pspReference != null) {
+                chunk.pspReference[offset] = pspReference;
+                byPspReference = byPspReference.put(pspReference, id);
+            }
+            if (chunk.merchantReference[offset] == null && merchantReference != null) {
+                chunk.merchantReference[offset] = merchantReference;
+                byMerchantReference = byMerchantReference.put(merchantReference, id);
+            }
+            if (chunk.amount[offset] == NO_AMOUNT && amount != null) {
+                chunk.amount[offset] = amount;
+                chunk.currency[offset] = currency;
+            }
+            var current = chunk.lastEvent[offset] == NO_EVENT ? null : STATUSES[chunk.status[offset]];
+            if (current == null || status.stage >= current.stage) {
+                chunk.status[offset] = (byte) status.ordinal();
+            }
+            chunk.lastEvent[offset] = addEvent(now, id, chunk.lastEvent[offset], status, source);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param reference a pspReference or a merchantReference
+     * @return null when the ledger has no payment with that reference
+     */
+    public Payment get(String reference) {
+        lock.readLock().lock();
+        try {
+            var id = lookup(reference);
+            return id < 0 ? null : payment(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the events of the payment, oldest first, empty when the ledger has no payment with that reference
+     */
+    public List<Event> history(String reference) {
+        lock.readLock().lock();
+        try {
+            var id = lookup(reference);
+            if (id < 0) {
+                return List.of();
+            }
+            var events = new ArrayList<Event>();
+            for (var event = paymentChunk(id).lastEvent[(int) (id & CHUNK_MASK)]; event >= firstEvent; event = eventChunk(event).previous[(int) (event & CHUNK_MASK)]) {
+                events.add(event(event));
+            }
+            Collections.reverse(events);
+            return events;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Payments created in [from, to), newest first. For the next page pass the createdAt of the last payment as to.
+     *
+     * @param from null for no lower bound
+     * @param to   null for no upper bound
+     */
+    public List<Payment> payments(Instant from, Instant to, int limit) {
+        var fromMicros = from != null ? micros(from) : Long.MIN_VALUE;
+        var toMicros = to != null ? micros(to) : Long.MAX_VALUE;
+        lock.readLock().lock();
+        try {
+            var payments = new ArrayList<Payment>(Math.min(limit, 1024));
+            // The first payment created at or after to, payments are created in time order
+            var low = firstPayment;
+            var high = nextPayment;
+            while (low < high) {
+                var middle = (low + high) >>> 1;
+                if (paymentChunk(middle).createdAt[(int) (middle & CHUNK_MASK)] < toMicros) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (var id = low - 1; id >= firstPayment && payments.size() < limit; id--) {
+                if (paymentChunk(id).createdAt[(int) (id & CHUNK_MASK)] < fromMicros) {
+                    break;
+                }
+                payments.add(payment(id));
+            }
+            return payments;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Events in [from, to), oldest first. For the next page pass the time of the last event plus one microsecond as from.
+     *
+     * @param from null for no lower bound
+     * @param to   null for no upper bound
+     */
+    public List<Event> events(Instant from, Instant to, int limit) {
+        var fromMicros = from != null ? micros(from) : Long.MIN_VALUE;
+        var toMicros = to != null ? micros(to) : Long.MAX_VALUE;
+        lock.readLock().lock();
+        try {
+            var events = new ArrayList<Event>(Math.min(limit, 1024));
+            var low = firstEvent;
+            var high = nextEvent;
+            while (low < high) {
+                var middle = (low + high) >>> 1;
+                if (eventChunk(middle).time[(int) (middle & CHUNK_MASK)] < fromMicros) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (var id = low; id < nextEvent && events.size() < limit; id++) {
+                if (eventChunk(id).time[(int) (id & CHUNK_MASK)] >= toMicros) {
+                    break;
+                }
+                events.add(event(id));
+            }
+            return events;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getPaymentCount() {
+        lock.readLock().lock();
+        try {
+            return nextPayment - firstPayment;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getEventCount() {
+        lock.readLock().lock();
+        try {
+            return nextEvent - firstEvent;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long micros(Instant instant) {
+        try {
+            return ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+        } catch (ArithmeticException e) {
+            // Hundreds of thousands of years away: as good as no bound
+            return instant.isBefore(Instant.EPOCH) ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    private static Instant instant(long micros) {
+        return Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
+    }
+
+    // Unique and increasing, also when the wall clock stands still or goes back
+    private long nextMicros() {
+        var now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        lastMicros = Math.max(lastMicros + 1, now);
+        return lastMicros;
+    }
+
+    private long find(String pspReference, String merchantReference) {
+        if (pspReference != null) {
+            var id = byPspReference.get(pspReference);
+            if (id >= 0) {
+                return id;
+            }
+        }
+        if (merchantReference != null) {
+            var id = byMerchantReference.get(merchantReference);
+            // A payment with another pspReference is a new attempt with the same merchantReference
+            if (id >= 0 && (pspReference == null || paymentChunk(id).pspReference[(int) (id & CHUNK_MASK)] == null)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private long lookup(String reference) {
+        if (reference == null) {
+            return -1;
+        }
+        var id = byPspReference.get(reference);
+        return id >= 0 ? id : byMerchantReference.get(reference);
+    }
+
+    private long addPayment(long now) {
+        if ((nextPayment & CHUNK_MASK) == 0) {
+            if (paymentChunks.size() == maxPaymentChunks) {
+                paymentChunks.remove(0);
+                firstPayment += CHUNK_SIZE;
+                rebuildTables();
+            }
+            paymentChunks.add(new PaymentChunk());
+        }
+        var id = nextPayment++;
+        var chunk = paymentChunk(id);
+        var offset = (int) (id & CHUNK_MASK);
+        chunk.createdAt[offset] = now;
+        chunk.amount[offset] = NO_AMOUNT;
+        chunk.lastEvent[offset] = NO_EVENT;
+        return id;
+    }
+
+    private long addEvent(long now, long payment, long previous, Status status, Source source) {
+        if ((nextEvent & CHUNK_MASK) == 0) {
+            if (eventChunks.size() == maxEventChunks) {
+                eventChunks.remove(0);
+                firstEvent += CHUNK_SIZE;
+            }
+            eventChunks.add(new EventChunk());
+        }
+        var id = nextEvent++;
+        var chunk = eventChunk(id);
+        var offset = (int) (id & CHUNK_MASK);
+        chunk.time[offset] = now;
+        chunk.payment[offset] = payment;
+        chunk.previous[offset] = previous;
+        chunk.status[offset] = (byte) status.ordinal();
+        chunk.source[offset] = (byte) source.ordinal();
+        return id;
+    }
+
+    private void rebuildTables() {
+        var capacity = Integer.highestOneBit(Math.max(1024, (int) (nextPayment - firstPayment) * 2)) * 2;
+        var psp = new ReferenceTable(true, capacity);
+        var merchant = new ReferenceTable(false, capacity);
+        for (var id = firstPayment; id < nextPayment; id++) {
+            var chunk = paymentChunk(id);
+            var offset = (int) (id & CHUNK_MASK);
+            if (chunk.pspReference[offset] != null) {
+                psp = psp.put(chunk.pspReference[offset], id);
+            }
+            if (chunk.merchantReference[offset] != null) {
+                merchant = merchant.put(chunk.merchantReference[offset], id);
+            }
+        }
+        byPspReference = psp;
+        byMerchantReference = merchant;
+    }
+
+    private Payment payment(long id) {
+        var chunk = paymentChunk(id);
+        var offset = (int) (id & CHUNK_MASK);
+        var lastEvent = chunk.lastEvent[offset];
+        var updatedAt = lastEvent >= firstEvent ? eventChunk(lastEvent).time[(int) (lastEvent & CHUNK_MASK)] : chunk.createdAt[offset];
+        var source = lastEvent >= firstEvent ? SOURCES[eventChunk(lastEvent).source[(int) (lastEvent & CHUNK_MASK)]] : null;
+        var amount = chunk.amount[offset];
+        return new Payment(chunk.pspReference[offset], chunk.merchantReference[offset], STATUSES[chunk.status[offset]], source,
+                chunk.currency[offset], amount == NO_AMOUNT ? null : amount, instant(chunk.createdAt[offset]), instant(updatedAt));
+    }
+
+    private Event event(long id) {
+        var chunk = eventChunk(id);
+        var offset = (int) (id & CHUNK_MASK);
+        var payment = chunk.payment[offset];
+        String pspReference = null;
+        String merchantReference = null;
+        if (payment >= firstPayment) {
+            var paymentChunk = paymentChunk(payment);
+            pspReference = paymentChunk.pspReference[(int) (payment & CHUNK_MASK)];
+            merchantReference = paymentChunk.merchantReference[(int) (payment & CHUNK_MASK)];
+        }
+        return new Event(pspReference, merchantReference, STATUSES[chunk.status[offset]], SOURCES[chunk.source[offset]], instant(chunk.time[offset]));
+    }
+
+    private PaymentChunk paymentChunk(long id) {
+        return paymentChunks.get((int) ((id - firstPayment) >>> CHUNK_BITS));
+    }
+
+    private EventChunk eventChunk(long id) {
+        return eventChunks.get((int) ((id - firstEvent) >>> CHUNK_BITS));
+    }
+
+    /*
+    Open addressing with linear probing from the 64-bit hash of a reference to the id of its payment.
+    Slots hold the hash itself (0 marks a free slot), the reference is compared against the payment only when the hashes match.
+    Kept at most half full; there are no deletions, dropped payments disappear when the tables are rebuilt.
+     */
+    private final class ReferenceTable {
+        private final boolean pspReference;
+        private final long[] hashes;
+        private final long[] ids;
+        private int size;
+
+        ReferenceTable(boolean pspReference, int capacity) {
+            this.pspReference = pspReference;
+            this.hashes = new long[capacity];
+            this.ids = new long[capacity];
+        }
+
+        long get(String reference) {
+            var hash = hash(reference);
+            var mask = hashes.length - 1;
+            for (var slot = slot(hash, mask); hashes[slot] != 0; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && reference.equals(reference(ids[slot], pspReference))) {
+                    return ids[slot];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return this table, or a larger copy once this one is half full
+         */
+        ReferenceTable put(String reference, long id) {
+            var table = size * 2 >= hashes.length ? grow() : this;
+            table.insert(hash(reference), reference, id);
+            return table;
+        }
+
+        private void insert(long hash, String reference, long id) {
+            var mask = hashes.length - 1;
+            var slot = slot(hash, mask);
+            while (hashes[slot] != 0) {
+                // The same reference: it now belongs to the newer payment
+                if (hashes[slot] == hash && reference != null && reference.equals(reference(ids[slot], pspReference))) {
+                    ids[slot] = id;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            ids[slot] = id;
+            size++;
+        }
+
+        private ReferenceTable grow() {
+            var table = new ReferenceTable(pspReference, hashes.length * 2);
+            for (int i = 0; i < hashes.length; i++) {
+                if (hashes[i] != 0) {
+                    table.insert(hashes[i], null, ids[i]);
+                }
+            }
+            return table;
+        }
+
+        private static int slot(long hash, int mask) {
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        // FNV-1a over the chars, never 0
+        private static long hash(String reference) {
+            var hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < reference.length(); i++) {
+                hash ^= reference.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash == 0 ? 1 : hash;
+        }
+    }
+
+    private String reference(long id, boolean pspReference) {
+        if (id < firstPayment || id >= nextPayment) {
+            return null;
+        }
+        var chunk = paymentChunk(id);
+        return pspReference ? chunk.pspReference[(int) (id & CHUNK_MASK)] : chunk.merchantReference[(int) (id & CHUNK_MASK)];
+    }
+}
@@ -0,0 +1,94 @@
+package com.adyen.workshop.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Token bucket per key (a shopper, an IP address), without locks. A bucket is a single long: the time at which it
+would be full again (the "theoretical arrival time" of the generic cell rate algorithm). A permit moves that time
+one interval (1 / rate) ahead, and is refused when it would end up more than burst intervals after now, so a key
+can make burst calls at once and rate calls per second after that. Taking a permit is one compareAndSet.
+
+At most maxKeys buckets are kept. Once the map is full, the thread adding a key removes the buckets that are full
+again: forgetting those changes nothing. When there are not enough of them, arbitrary buckets are dropped until
+the map is three quarters full; those keys start over with a full bucket.
+ */
+public class RateLimiter {
+
+    public record Settings(double permitsPerSecond, int burst, int maxKeys) {
+    }
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder evictions = new LongAdder();
+
+    public RateLimiter(Settings settings) {
+        if (settings.permitsPerSecond() <= 0 || settings.burst() < 1 || settings.maxKeys() < 1) {
+            throw new IllegalArgumentException("Invalid rate limiter settings " + settings);
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / settings.permitsPerSecond()));
+        this.toleranceNanos = intervalNanos * settings.burst();
+        this.maxKeys = settings.maxKeys();
+    }
+
+    /**
+     * Takes a permit for the key.
+     *
+     * @return 0 when the call is permitted, otherwise the nanoseconds until a permit is available
+     */
+    public long tryAcquire(String key) {
+        var now = System.nanoTime();
+        var bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= maxKeys) {
+                evict(now);
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        while (true) {
+            var full = bucket.get();
+            var next = (full - now > 0 ? full : now) + intervalNanos;
+            var wait = next - now - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void evict(long now) {
+        // One thread cleans up, the others go ahead and add their key: the map may briefly exceed maxKeys
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            var before = buckets.size();
+            buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+            var target = maxKeys / 4 * 3;
+            var iterator = buckets.keySet().iterator();
+            while (buckets.size() > target && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+            evictions.add(Math.max(0, before - buckets.size()));
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
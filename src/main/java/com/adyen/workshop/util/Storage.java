@@ -1,23 +1,44 @@
 package com.adyen.workshop.util;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collection;
 
 /*
 Temp storage to keep in memory the generated tokens
  */
 public class Storage {
 
-    // shopper reference: constant value for demo purpose supporting one shopper
+    // shopper reference: constant value for demo purpose, used when a shopper signs up for a subscription
     public static final String SHOPPER_REFERENCE = "YOUR_UNIQUE_SHOPPER_ID_IOfW3k9G2PvYuJiol";
 
-    private record Token(String recurringReference, String paymentMethod, String shopperReference) {
+    private static final TokenRepository tokens = new TokenRepository();
+
+    public static TokenRepository getRepository() {
+        return tokens;
     }
 
-    private static Set<Token> tokens = new HashSet<>();
+    public static Collection<Token> getAllTokens() {
+        return tokens.getAll();
+    }
 
-    public static Set<Token> getAllTokens() {
-        return tokens;
+    /**
+     * A page of at most limit tokens after the cursor, optionally only those of a shopper and/or a payment method.
+     */
+    public static TokenPage getPage(String cursor, int limit, String shopperReference, String paymentMethod) {
+        return tokens.page(cursor, limit, shopperReference, paymentMethod);
+    }
+
+    public static Collection<Token> getTokens(String shopperReference) {
+        return tokens.getByShopperReference(shopperReference);
+    }
+
+    public static Token get(String token) {
+        return tokens.get(token);
+    }
+
+    // Returns the shopper that owns the token, falling back to the demo shopper for unknown tokens
+    public static String getShopperReference(String token) {
+        var stored = tokens.get(token);
+        return stored != null ? stored.shopperReference() : SHOPPER_REFERENCE;
     }
 
     public static void add(String token, String paymentMethod, String shopperReference) {
@@ -25,6 +46,6 @@ public class Storage {
     }
 
     public static void remove(String token, String shopperReference) {
-        tokens.removeIf(x -> x.recurringReference.equals(token) && x.shopperReference.equals(shopperReference));
+        tokens.remove(token, shopperReference);
     }
 }
@@ -0,0 +1,59 @@
+package com.adyen.workshop.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Thread factories for the background work of the application.
+The project targets Java 17, so virtual threads (Java 21+) are looked up reflectively:
+when they are requested on an older runtime we fall back to daemon platform threads.
+ */
+public final class Threads {
+
+    private static final Method[] VIRTUAL_THREAD_BUILDER = lookupVirtualThreadBuilder();
+
+    private Threads() {
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        return VIRTUAL_THREAD_BUILDER != null;
+    }
+
+    public static ThreadFactory daemon(String namePrefix) {
+        var threadNumber = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Use for threads that spend their time waiting on blocking calls, e.g. to the Adyen API
+    public static ThreadFactory blocking(String namePrefix, boolean virtual) {
+        if (!virtual || VIRTUAL_THREAD_BUILDER == null) {
+            return daemon(namePrefix);
+        }
+        try {
+            // Thread.ofVirtual().name(prefix, 1).factory()
+            var builder = VIRTUAL_THREAD_BUILDER[0].invoke(null);
+            builder = VIRTUAL_THREAD_BUILDER[1].invoke(builder, namePrefix + "-", 1L);
+            return (ThreadFactory) VIRTUAL_THREAD_BUILDER[2].invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a virtual thread factory", e);
+        }
+    }
+
+    private static Method[] lookupVirtualThreadBuilder() {
+        try {
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            return new Method[]{
+                    Thread.class.getMethod("ofVirtual"),
+                    builderClass.getMethod("name", String.class, long.class),
+                    builderClass.getMethod("factory")
+            };
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
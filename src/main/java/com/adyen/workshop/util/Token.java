@@ -0,0 +1,7 @@
+package com.adyen.workshop.util;
+
+/*
+A stored recurring token (recurringDetailReference) received through the RECURRING_CONTRACT webhook
+ */
+public record Token(String recurringReference, String paymentMethod, String shopperReference) {
+}
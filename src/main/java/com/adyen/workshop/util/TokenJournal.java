@@ -0,0 +1,361 @@
+package com.adyen.workshop.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+Append-only, memory-mapped journal that makes the TokenRepository survive restarts.
+
+Layout of the journal directory:
+  tokens.snapshot      - compacted state: one ADD record per token
+  tokens-<n>.journal   - every add/remove applied after the snapshot was taken
+
+Every record is [int length][int crc32][byte op][recurringReference][paymentMethod][shopperReference],
+strings being an unsigned short length (0xFFFF for null) followed by UTF-8 bytes.
+A zero length or a checksum mismatch marks the end of the valid data (e.g. a write torn by a crash).
+
+Changes are handed to a single writer thread through a queue (see GroupCommitWriter), so webhook threads never wait for disk I/O.
+The writer copies them into the mapped file and forces it at most once per commit interval (group commit).
+Once the journal outgrows the compaction threshold, the writer writes a new snapshot and starts the next journal.
+If the writer fails, the journal stops listening to the repository: further changes are not persisted, see isFailed().
+ */
+public class TokenJournal implements TokenListener, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(TokenJournal.class);
+
+    private static final String SNAPSHOT_FILE = "tokens.snapshot";
+    private static final String JOURNAL_PREFIX = "tokens-";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final int MAPPING_SIZE = 16 * 1024 * 1024;
+    private static final int READ_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private record Change(byte op, Token token) {
+    }
+
+    private record ReplayResult(long records, long end) {
+    }
+
+    private final Path directory;
+    private final TokenRepository repository;
+    private final long compactionThresholdBytes;
+    private final GroupCommitWriter<Change> writer;
+
+    private final CRC32 crc = new CRC32();
+
+    // Owned by the writer thread once open() has returned
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long mappingStart;
+    private long generation;
+    private boolean dirty;
+
+    public TokenJournal(Path directory, TokenRepository repository, long commitIntervalMillis, long compactionThresholdBytes) {
+        this.directory = directory;
+        this.repository = repository;
+        this.compactionThresholdBytes = compactionThresholdBytes;
+        this.writer = new GroupCommitWriter<>("token-journal-writer", commitIntervalMillis, new GroupCommitWriter.Sink<>() {
+            @Override
+            public void write(Change change) throws IOException {
+                append(change);
+            }
+
+            @Override
+            public void commit(boolean force, boolean closing) throws IOException {
+                TokenJournal.this.commit(force, closing);
+            }
+        }, () -> repository.removeListener(this));
+    }
+
+    /**
+     * Replays the snapshot and the journals into the repository, then starts recording its changes.
+     */
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        var start = System.nanoTime();
+
+        var records = replay(directory.resolve(SNAPSHOT_FILE)).records();
+        var journals = listJournals();
+        var end = 0L;
+        for (var journal : journals) {
+            var result = replay(journal);
+            records += result.records();
+            end = result.end();
+        }
+
+        // Continue appending right after the last valid record of the newest journal
+        var latest = journals.isEmpty() ? 1 : generationOf(journals.get(journals.size() - 1));
+        openJournal(latest, journals.isEmpty() ? 0 : end);
+
+        log.info("Token journal replayed {} records into {} tokens in {} ms", records, repository.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        repository.addListener(this);
+        writer.start();
+    }
+
+    public int getPendingCount() {
+        return writer.getPendingCount();
+    }
+
+    // The writer stopped on an error, changes since then are not persisted
+    public boolean isFailed() {
+        return writer.isFailed();
+    }
+
+    @Override
+    public void tokenAdded(Token token) {
+        writer.offer(new Change(OP_ADD, token));
+    }
+
+    @Override
+    public void tokenRemoved(Token token) {
+        writer.offer(new Change(OP_REMOVE, token));
+    }
+
+    /**
+     * Stops recording, writes and forces everything still queued.
+     */
+    @Override
+    public void close() throws IOException {
+        repository.removeListener(this);
+        writer.close();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void commit(boolean force, boolean closing) throws IOException {
+        if (dirty && force) {
+            force();
+        }
+        if (!closing && mappingStart + buffer.position() >= compactionThresholdBytes) {
+            compact();
+        }
+    }
+
+    private void append(Change change) throws IOException {
+        var record = encode(change.op(), change.token());
+        if (record == null) {
+            return;
+        }
+        if (buffer.remaining() < record.length) {
+            // Force the full mapping before moving on, group commit only forces the current one
+            force();
+            map(mappingStart + buffer.position());
+        }
+        buffer.put(record);
+        dirty = true;
+    }
+
+    private void force() {
+        buffer.force();
+        dirty = false;
+    }
+
+    private void compact() throws IOException {
+        var start = System.nanoTime();
+        force();
+
+        // Tokens changed while the snapshot is written are still queued and end up in the next journal
+        var tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        var count = 0L;
+        try (var out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var bytes = ByteBuffer.allocate(1024 * 1024);
+            for (var token : repository.getAll()) {
+                var record = encode(OP_ADD, token);
+                if (record == null) {
+                    continue;
+                }
+                if (bytes.remaining() < record.length) {
+                    writeFully(out, bytes);
+                }
+                bytes.put(record);
+                count++;
+            }
+            writeFully(out, bytes);
+            out.force(true);
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // A crash before the old journal is deleted is harmless: replaying it on top of the snapshot yields the same state
+        var previous = journalPath(generation);
+        openJournal(generation + 1, 0);
+        Files.deleteIfExists(previous);
+
+        log.info("Token journal compacted {} tokens into a snapshot in {} ms", count,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    private void openJournal(long generation, long end) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        this.generation = generation;
+        channel = FileChannel.open(journalPath(generation), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Cut off a torn tail and the zero padding of the last mapping, so appends continue on a clean file
+        if (channel.size() > end) {
+            channel.truncate(end);
+        }
+        map(end);
+    }
+
+    private void map(long position) throws IOException {
+        mappingStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, MAPPING_SIZE);
+    }
+
+    private ReplayResult replay(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return new ReplayResult(0, 0);
+        }
+        try (var in = FileChannel.open(path, StandardOpenOption.READ)) {
+            var size = in.size();
+            var position = 0L;
+            var records = 0L;
+            MappedByteBuffer window = null;
+            var windowStart = 0L;
+
+            while (position + HEADER_SIZE <= size) {
+                if (window == null || position + HEADER_SIZE > windowStart + window.limit()) {
+                    windowStart = position;
+                    window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, READ_WINDOW_SIZE));
+                }
+                var length = window.getInt((int) (position - windowStart));
+                if (length <= 0 || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+                if (position + HEADER_SIZE + length > windowStart + window.limit()) {
+                    windowStart = position;
+                    window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, READ_WINDOW_SIZE));
+                }
+
+                var offset = (int) (position - windowStart);
+                var checksum = window.getInt(offset + 4);
+                var body = window.slice(offset + HEADER_SIZE, length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Token journal {} has a corrupt record at offset {}, ignoring the rest of the file", path, position);
+                    break;
+                }
+
+                apply(body);
+                position += HEADER_SIZE + length;
+                records++;
+            }
+            return new ReplayResult(records, position);
+        }
+    }
+
+    private void apply(ByteBuffer body) {
+        var op = body.get();
+        var recurringReference = readString(body);
+        var paymentMethod = readString(body);
+        var shopperReference = readString(body);
+        if (op == OP_ADD) {
+            repository.add(new Token(recurringReference, paymentMethod, shopperReference));
+        } else if (op == OP_REMOVE) {
+            repository.remove(recurringReference, shopperReference);
+        }
+    }
+
+    private byte[] encode(byte op, Token token) {
+        var recurringReference = toBytes(token.recurringReference());
+        var paymentMethod = toBytes(token.paymentMethod());
+        var shopperReference = toBytes(token.shopperReference());
+        if (recurringReference == null || shopperReference == null) {
+            log.warn("Not journaling token without recurringReference or shopperReference: {}", token);
+            return null;
+        }
+
+        var bodyLength = 1 + stringLength(recurringReference) + stringLength(paymentMethod) + stringLength(shopperReference);
+        var record = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        record.position(HEADER_SIZE);
+        record.put(op);
+        writeString(record, recurringReference);
+        writeString(record, paymentMethod);
+        writeString(record, shopperReference);
+
+        crc.reset();
+        crc.update(record.array(), HEADER_SIZE, bodyLength);
+        record.putInt(0, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static byte[] toBytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringLength(byte[] value) {
+        return 2 + (value == null ? 0 : Math.min(value.length, NULL_STRING - 1));
+    }
+
+    private static void writeString(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putShort((short) NULL_STRING);
+            return;
+        }
+        var length = Math.min(value.length, NULL_STRING - 1);
+        buffer.putShort((short) length);
+        buffer.put(value, 0, length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        var length = Short.toUnsignedInt(buffer.getShort());
+        if (length == NULL_STRING) {
+            return null;
+        }
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Path journalPath(long generation) {
+        return directory.resolve(JOURNAL_PREFIX + generation + JOURNAL_SUFFIX);
+    }
+
+    private List<Path> listJournals() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        var name = path.getFileName().toString();
+                        return name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_SUFFIX);
+                    })
+                    .sorted((a, b) -> Long.compare(generationOf(a), generationOf(b)))
+                    .toList();
+        }
+    }
+
+    private static long generationOf(Path journal) {
+        var name = journal.getFileName().toString();
+        return Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length()));
+    }
+}
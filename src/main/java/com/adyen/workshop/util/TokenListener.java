@@ -0,0 +1,12 @@
+package com.adyen.workshop.util;
+
+/*
+Receives every change applied to the TokenRepository.
+Callbacks run on the writing thread while the token's key is locked, so implementations must only hand the change off (e.g. enqueue it).
+ */
+public interface TokenListener {
+
+    void tokenAdded(Token token);
+
+    void tokenRemoved(Token token);
+}
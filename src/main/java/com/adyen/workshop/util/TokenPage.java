@@ -0,0 +1,9 @@
+package com.adyen.workshop.util;
+
+import java.util.List;
+
+/*
+One page of the token listing, nextCursor is null on the last page
+ */
+public record TokenPage(List<Token> tokens, String nextCursor) {
+}
@@ -0,0 +1,928 @@
+package com.adyen.workshop.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/*
+Replicates the TokenRepository between the instances of the application, so a token received by webhook on one
+instance is listed and can be charged on all of them.
+
+Every change has a version: a hybrid logical clock in microseconds (the wall clock, moved past every version received)
+and the node id of the instance that made it. The newest version of a recurringReference wins; removals are kept as
+tombstones for tombstoneRetention, so an instance that missed a removal cannot bring the token back.
+Versions and tombstones are appended to the versions file (if configured) by a single writer thread (see GroupCommitWriter),
+which rewrites it from the versions in memory once it has doubled in size. If that writer fails, replication goes on
+but versions are no longer saved, see isVersionsWriterFailed(). On start, tokens in the repository (e.g. replayed from the
+journal) get the version saved for them and saved tombstones are restored, so a rolling restart neither forgets
+removals nor lets a rejoining instance bring them back. Tokens without a matching saved version get version 0, and
+a peer that has a newer version of them only sends that version, not the token again.
+Every record of the versions file is [int length][int crc32][entry as sent to peers].
+
+Every instance connects to each of its peers, and a single sender thread per peer streams the local changes over that
+connection in the order they were made; the peer applies them one by one. Changes made while a peer is unreachable,
+or while more than maxPendingChanges are queued for it, are not queued at all. Instead every connection starts with an
+anti-entropy round, repeated every antiEntropyInterval: the sender sends a digest of its versions (a hash per bucket of
+recurringReferences), the peer asks back for the buckets whose hash differs from its own and applies those entries
+that are newer than its own. A rejoining instance thus only exchanges the buckets that changed while it was away;
+each direction is repaired on the connection of the instance that has the newer versions.
+
+Both ends of a connection prove they know the shared secret (HMAC-SHA256 over each other's nonce). The stream
+itself is not encrypted: replicate over a private network.
+ */
+public class TokenReplicator implements TokenListener, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(TokenReplicator.class);
+
+    /**
+     * @param peers the replication address of every other instance; every instance must list all the others
+     * @param versionsFile where versions and tombstones are kept across restarts, null to keep them in memory only
+     */
+    public record Settings(String nodeId, InetSocketAddress bindAddress, List<InetSocketAddress> peers, String secret,
+                           Duration heartbeatInterval, Duration antiEntropyInterval, int maxPendingChanges,
+                           Duration tombstoneRetention, Path versionsFile) {
+    }
+
+    private static final int MAGIC = 0x544f4b52;
+    private static final int PROTOCOL_VERSION = 1;
+    private static final int NONCE_SIZE = 16;
+    private static final byte ROLE_SERVER = 'S';
+    private static final byte ROLE_CLIENT = 'C';
+
+    private static final byte FRAME_CHANGE = 1;
+    private static final byte FRAME_DIGEST = 2;
+    private static final byte FRAME_ENTRIES = 3;
+    private static final byte FRAME_PULL = 4;
+    private static final byte FRAME_PING = 5;
+    private static final byte FRAME_PONG = 6;
+
+    private static final int BUCKET_BITS = 10;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+    // Entries are sent in frames of this size, so heartbeats still get through during a large repair
+    private static final int ENTRIES_PER_FRAME = 512;
+
+    private static final long RECONNECT_MIN_MILLIS = 100;
+    private static final long RECONNECT_MAX_MILLIS = 5000;
+
+    private static final long VERSIONS_COMPACTION_MIN_BYTES = 1024 * 1024;
+
+    // Tokens that were in the repository before replication started
+    private static final String NO_ORIGIN = "";
+
+    private static final Comparator<String> NULLS_FIRST = Comparator.nullsFirst(Comparator.naturalOrder());
+    private static final Comparator<Token> BY_CONTENT = Comparator.comparing(Token::shopperReference, NULLS_FIRST)
+            .thenComparing(Token::paymentMethod, NULLS_FIRST);
+
+    private record Entry(Token token, boolean removed, long version, String origin) {
+
+        boolean isNewerThan(Entry other) {
+            if (version != other.version) {
+                return version > other.version;
+            }
+            var byOrigin = origin.compareTo(other.origin);
+            if (byOrigin != 0) {
+                return byOrigin > 0;
+            }
+            // Only entries with version 0 can get here with a different content, any fixed order makes the instances agree
+            if (removed != other.removed) {
+                return removed;
+            }
+            return BY_CONTENT.compare(token, other.token) > 0;
+        }
+
+        long hash() {
+            var hash = mix(token.recurringReference().hashCode());
+            hash = mix(hash ^ version);
+            hash = mix(hash ^ origin.hashCode());
+            hash = mix(hash ^ Objects.hashCode(token.shopperReference()) ^ ((long) Objects.hashCode(token.paymentMethod()) << 32));
+            return removed ? ~hash : hash;
+        }
+    }
+
+    // Wakes up a sender, e.g. when the peer asked for buckets
+    private static final Entry WAKE_UP = new Entry(null, false, 0, NO_ORIGIN);
+
+    private final Settings settings;
+    private final TokenRepository repository;
+    private final byte[] secret;
+    private final long retentionMicros;
+    private final int readTimeoutMillis;
+
+    // Latest version of every recurringReference, including tombstones; only changed while that reference is locked in the repository
+    private final ConcurrentHashMap<String, Entry> versions = new ConcurrentHashMap<>();
+    // XOR of the hashes of the entries in each bucket
+    private final AtomicLongArray digest = new AtomicLongArray(BUCKETS);
+    private final AtomicLong clock = new AtomicLong();
+
+    private final List<Peer> peers = new ArrayList<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private final ExecutorService threads = Executors.newCachedThreadPool(Threads.daemon("token-replication"));
+    private final SecureRandom random = new SecureRandom();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder repaired = new LongAdder();
+
+    // Owned by the versions writer once open() has returned
+    private final ByteArrayOutputStream versionRecords = new ByteArrayOutputStream();
+    private final DataOutputStream versionsOut = new DataOutputStream(versionRecords);
+    private final CRC32 versionsCrc = new CRC32();
+    private FileChannel versionsChannel;
+    private long compactedSize;
+
+    // Appends versions to the versions file, null until open() has saved the versions given on start
+    private volatile GroupCommitWriter<Entry> versionsWriter;
+    private ServerSocket serverSocket;
+    private volatile boolean closed;
+
+    public TokenReplicator(Settings settings, TokenRepository repository) {
+        this.settings = settings;
+        this.repository = repository;
+        this.secret = settings.secret().getBytes(StandardCharsets.UTF_8);
+        this.retentionMicros = TimeUnit.MILLISECONDS.toMicros(settings.tombstoneRetention().toMillis());
+        // A peer pings every heartbeat interval, one that missed five is gone
+        this.readTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, settings.heartbeatInterval().toMillis() * 5);
+        for (var address : settings.peers()) {
+            peers.add(new Peer(address));
+        }
+    }
+
+    /**
+     * Versions the tokens already in the repository, restores the saved tombstones, starts recording the changes
+     * of the repository and connects to the peers.
+     */
+    public void open() throws IOException {
+        var saved = loadVersions();
+        for (var entry : saved.values()) {
+            clock.accumulateAndGet(entry.version(), Math::max);
+        }
+
+        // Tokens changed from now on get a version from the listener, the ones without a version are unchanged
+        repository.addListener(this);
+        for (var token : repository.getAll()) {
+            var recurringReference = token.recurringReference();
+            var savedEntry = saved.get(recurringReference);
+            var entry = savedEntry != null && !savedEntry.removed() && savedEntry.token().equals(token)
+                    ? savedEntry : new Entry(token, false, 0, NO_ORIGIN);
+            repository.applyIf(token, false, () -> {
+                if (!versions.containsKey(recurringReference)) {
+                    setVersion(recurringReference, null, entry);
+                }
+                return false;
+            }, this);
+        }
+        for (var entry : saved.values()) {
+            if (!entry.removed()) {
+                continue;
+            }
+            var recurringReference = entry.token().recurringReference();
+            repository.applyIf(entry.token(), true, () -> {
+                if (!versions.containsKey(recurringReference)) {
+                    setVersion(recurringReference, null, entry);
+                }
+                return false;
+            }, this);
+        }
+
+        if (settings.versionsFile() != null) {
+            // A commit interval of 0: every batch is forced right away
+            versionsWriter = new GroupCommitWriter<>("token-replication-versions-writer", 0, new GroupCommitWriter.Sink<>() {
+                @Override
+                public void write(Entry entry) throws IOException {
+                    writeRecord(versionsOut, entry, versionsCrc);
+                }
+
+                @Override
+                public void commit(boolean force, boolean closing) throws IOException {
+                    saveVersions(closing);
+                }
+            });
+            // Rewritten right away, which also drops a torn tail; versions changed from here on are queued as well
+            compactVersions();
+            versionsWriter.start();
+        }
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(settings.bindAddress());
+        threads.execute(this::accept);
+        threads.execute(this::sweepTombstones);
+        for (var peer : peers) {
+            threads.execute(peer::run);
+        }
+        log.info("Token replication of node {} listening on {} with {} tokens, peers {}", settings.nodeId(),
+                serverSocket.getLocalSocketAddress(), versions.size(), settings.peers());
+    }
+
+    /**
+     * Adds a token rebuilt on this instance, e.g. by a webhook replay, unless there is a version of it already:
+     * a token removed here or on a peer stays removed. The token gets version 0, so it is not sent as a change
+     * and any version a peer has wins.
+     *
+     * @return whether the token was added
+     */
+    public boolean restore(Token token) {
+        var recurringReference = token.recurringReference();
+        return repository.applyIf(token, false, () -> {
+            if (versions.containsKey(recurringReference)) {
+                return false;
+            }
+            setVersion(recurringReference, null, new Entry(token, false, 0, NO_ORIGIN));
+            return true;
+        }, this);
+    }
+
+    public int getConnectedPeerCount() {
+        var connected = 0;
+        for (var peer : peers) {
+            if (peer.connected) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    public int getPendingCount() {
+        var pending = 0;
+        for (var peer : peers) {
+            pending += peer.pending.size();
+        }
+        return pending;
+    }
+
+    // Changes and anti-entropy entries sent to peers
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    // Changes received on the change stream that were newer than ours
+    public long getAppliedCount() {
+        return applied.sum();
+    }
+
+    // Entries received in anti-entropy rounds that were newer than ours
+    public long getRepairedCount() {
+        return repaired.sum();
+    }
+
+    // The versions writer stopped on an error, versions changed since then are not saved
+    public boolean isVersionsWriterFailed() {
+        var writer = versionsWriter;
+        return writer != null && writer.isFailed();
+    }
+
+    @Override
+    public void tokenAdded(Token token) {
+        changed(new Entry(token, false, nextVersion(), settings.nodeId()));
+    }
+
+    @Override
+    public void tokenRemoved(Token token) {
+        changed(new Entry(token, true, nextVersion(), settings.nodeId()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        repository.removeListener(this);
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        for (var peer : peers) {
+            closeQuietly(peer.socket);
+        }
+        for (var socket : inbound) {
+            closeQuietly(socket);
+        }
+        threads.shutdownNow();
+        try {
+            threads.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (versionsWriter != null) {
+            versionsWriter.close();
+        }
+        if (versionsChannel != null) {
+            versionsChannel.close();
+        }
+    }
+
+    // A local change, called by the repository while the token is locked
+    private void changed(Entry entry) {
+        var recurringReference = entry.token().recurringReference();
+        setVersion(recurringReference, versions.get(recurringReference), entry);
+        for (var peer : peers) {
+            peer.publish(entry);
+        }
+    }
+
+    // A change of another instance, applied if it is newer than ours
+    private void apply(Entry entry, LongAdder counter) {
+        clock.accumulateAndGet(entry.version(), Math::max);
+        var recurringReference = entry.token().recurringReference();
+        var newer = repository.applyIf(entry.token(), entry.removed(), () -> {
+            var current = versions.get(recurringReference);
+            if (current != null && !entry.isNewerThan(current)) {
+                return false;
+            }
+            setVersion(recurringReference, current, entry);
+            return true;
+        }, this);
+        if (newer) {
+            counter.increment();
+        }
+    }
+
+    // While the recurringReference is locked in the repository
+    private void setVersion(String recurringReference, Entry previous, Entry next) {
+        var change = previous != null ? previous.hash() : 0;
+        if (next == null || next.removed() && isExpired(next)) {
+            if (previous != null) {
+                versions.remove(recurringReference);
+            }
+        } else {
+            versions.put(recurringReference, next);
+            change ^= next.hash();
+            // Version 0 is given again on every start
+            var writer = versionsWriter;
+            if (writer != null && next.version() != 0) {
+                writer.offer(next);
+            }
+        }
+        if (change != 0) {
+            var xor = change;
+            digest.accumulateAndGet(bucket(recurringReference), xor, (hash, x) -> hash ^ x);
+        }
+    }
+
+    private long nextVersion() {
+        var now = currentTimeMicros();
+        return clock.updateAndGet(last -> Math.max(last + 1, now));
+    }
+
+    private boolean isExpired(Entry tombstone) {
+        return tombstone.version() < currentTimeMicros() - retentionMicros;
+    }
+
+    private void sweepTombstones() {
+        try {
+            while (!closed) {
+                Thread.sleep(settings.antiEntropyInterval().toMillis());
+                for (var entry : versions.values()) {
+                    if (!entry.removed() || !isExpired(entry)) {
+                        continue;
+                    }
+                    var recurringReference = entry.token().recurringReference();
+                    // Only locks the reference: the condition drops the tombstone and leaves the repository as it is
+                    repository.applyIf(entry.token(), true, () -> {
+                        if (versions.get(recurringReference) == entry) {
+                            setVersion(recurringReference, entry, null);
+                        }
+                        return false;
+                    }, this);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Map<String, Entry> loadVersions() throws IOException {
+        var saved = new HashMap<String, Entry>();
+        var file = settings.versionsFile();
+        if (file == null || !Files.exists(file)) {
+            return saved;
+        }
+        var crc = new CRC32();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                var length = in.readInt();
+                if (length <= 0) {
+                    break;
+                }
+                var checksum = in.readInt();
+                var body = in.readNBytes(length);
+                crc.reset();
+                crc.update(body);
+                if (body.length < length || (int) crc.getValue() != checksum) {
+                    log.warn("Token versions file {} has a corrupt record, ignoring the rest of the file", file);
+                    break;
+                }
+                var entry = readEntry(new DataInputStream(new ByteArrayInputStream(body)));
+                saved.merge(entry.token().recurringReference(), entry, (current, next) -> next.isNewerThan(current) ? next : current);
+            }
+        } catch (EOFException e) {
+            // End of the file, or a torn last record
+        }
+        saved.values().removeIf(entry -> entry.removed() && isExpired(entry));
+        log.info("Loaded {} token versions from {}", saved.size(), file);
+        return saved;
+    }
+
+    // Group commit: every batch of versions is appended and forced at once
+    private void saveVersions(boolean closing) throws IOException {
+        var bytes = ByteBuffer.wrap(versionRecords.toByteArray());
+        versionRecords.reset();
+        while (bytes.hasRemaining()) {
+            versionsChannel.write(bytes);
+        }
+        versionsChannel.force(false);
+        if (!closing && versionsChannel.size() >= Math.max(VERSIONS_COMPACTION_MIN_BYTES, compactedSize * 2)) {
+            compactVersions();
+        }
+    }
+
+    // Versions changed while the file is rewritten are still queued and appended to the new file
+    private void compactVersions() throws IOException {
+        var file = settings.versionsFile();
+        var parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        var crc = new CRC32();
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024))) {
+            for (var entry : versions.values()) {
+                if (entry.version() != 0) {
+                    writeRecord(out, entry, crc);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (versionsChannel != null) {
+            versionsChannel.close();
+        }
+        versionsChannel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        compactedSize = versionsChannel.size();
+    }
+
+    private static void writeRecord(DataOutputStream out, Entry entry, CRC32 crc) throws IOException {
+        var body = new ByteArrayOutputStream(64);
+        writeEntry(new DataOutputStream(body), entry);
+        var bytes = body.toByteArray();
+        crc.reset();
+        crc.update(bytes);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                var socket = serverSocket.accept();
+                try {
+                    threads.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    // Accepted while closing
+                    closeQuietly(socket);
+                    return;
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Token replication stopped accepting connections", e);
+                }
+                return;
+            }
+        }
+    }
+
+    // Receives the changes of one peer, and answers its digests with the buckets to send
+    private void serve(Socket socket) {
+        inbound.add(socket);
+        String remote = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(readTimeoutMillis);
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            remote = acceptHandshake(in, out);
+            log.info("Receiving token changes from {} ({})", remote, socket.getRemoteSocketAddress());
+            // An instance that connects is probably back, so is its replication port: no need to wait for the backoff
+            for (var peer : peers) {
+                if (!peer.connected) {
+                    peer.reconnectNow();
+                }
+            }
+            while (!closed) {
+                var frame = in.readByte();
+                switch (frame) {
+                    case FRAME_CHANGE -> apply(readEntry(in), applied);
+                    case FRAME_ENTRIES -> {
+                        var count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            apply(readEntry(in), repaired);
+                        }
+                    }
+                    case FRAME_DIGEST -> {
+                        var differing = compareDigest(in);
+                        log.debug("Anti-entropy with {}: {} of {} buckets differ", remote, differing.cardinality(), BUCKETS);
+                        out.writeByte(FRAME_PULL);
+                        writeBuckets(out, differing);
+                        out.flush();
+                    }
+                    case FRAME_PING -> {
+                        out.writeByte(FRAME_PONG);
+                        out.flush();
+                    }
+                    default -> throw new IOException("Unexpected frame " + frame);
+                }
+            }
+        } catch (EOFException e) {
+            log.info("Token changes from {} ended", remote != null ? remote : socket.getRemoteSocketAddress());
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                log.warn("Token changes from {} interrupted: {}", remote != null ? remote : socket.getRemoteSocketAddress(), e.toString());
+            }
+        } finally {
+            inbound.remove(socket);
+        }
+    }
+
+    private BitSet compareDigest(DataInputStream in) throws IOException {
+        var differing = new BitSet(BUCKETS);
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (in.readLong() != digest.get(bucket)) {
+                differing.set(bucket);
+            }
+        }
+        return differing;
+    }
+
+    private final class Peer {
+        private final InetSocketAddress address;
+        private final String name;
+        private final Object reconnect = new Object();
+        private final BlockingQueue<Entry> pending = new LinkedBlockingQueue<>();
+        // Buckets the peer asked for and that are not sent yet
+        private final AtomicReference<BitSet> pull = new AtomicReference<>();
+
+        private volatile boolean connected;
+        private volatile boolean resync;
+        private volatile Socket socket;
+
+        // Owned by the sender thread
+        private long lastPing;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+            this.name = address.getHostString() + ":" + address.getPort();
+        }
+
+        void reconnectNow() {
+            synchronized (reconnect) {
+                reconnect.notifyAll();
+            }
+        }
+
+        // Called while the token is locked: never blocks, a change that cannot be queued is left to anti-entropy
+        void publish(Entry entry) {
+            if (!connected) {
+                return;
+            }
+            if (pending.size() >= settings.maxPendingChanges()) {
+                resync = true;
+                return;
+            }
+            pending.offer(entry);
+        }
+
+        void run() {
+            var backoff = RECONNECT_MIN_MILLIS;
+            var reported = false;
+            while (!closed) {
+                try (var socket = new Socket()) {
+                    this.socket = socket;
+                    // Resolved on every attempt, the peer may come back with another address
+                    socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), readTimeoutMillis);
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(readTimeoutMillis);
+                    var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+                    var remote = connectHandshake(in, out);
+                    if (remote.equals(settings.nodeId())) {
+                        log.warn("Token replication peer {} is this instance, not replicating to it", name);
+                        return;
+                    }
+                    log.info("Replicating tokens to {} ({})", remote, name);
+                    backoff = RECONNECT_MIN_MILLIS;
+                    reported = false;
+
+                    // Everything changed before this point is covered by the first anti-entropy round
+                    connected = true;
+                    pending.clear();
+                    pull.set(null);
+                    threads.execute(() -> readReplies(socket, in));
+                    stream(out);
+                } catch (IOException | RuntimeException e) {
+                    if (closed) {
+                        return;
+                    }
+                    // Once per outage, not on every reconnection attempt
+                    if (!reported) {
+                        log.warn("Token replication to {} interrupted, retrying: {}", name, e.toString());
+                        reported = true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    connected = false;
+                }
+                try {
+                    synchronized (reconnect) {
+                        reconnect.wait(backoff);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(backoff * 2, RECONNECT_MAX_MILLIS);
+            }
+        }
+
+        private void stream(DataOutputStream out) throws IOException, InterruptedException {
+            var heartbeatMillis = settings.heartbeatInterval().toMillis();
+            var antiEntropyNanos = settings.antiEntropyInterval().toNanos();
+            var nextRound = System.nanoTime();
+            var batch = new ArrayList<Entry>();
+            while (!closed) {
+                if (resync) {
+                    resync = false;
+                    pending.clear();
+                    nextRound = System.nanoTime();
+                }
+                if (System.nanoTime() - nextRound >= 0) {
+                    out.writeByte(FRAME_DIGEST);
+                    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                        out.writeLong(digest.get(bucket));
+                    }
+                    nextRound = System.nanoTime() + antiEntropyNanos;
+                }
+                var buckets = pull.getAndSet(null);
+                if (buckets != null) {
+                    sendEntries(out, buckets);
+                }
+                pingIfDue(out);
+                out.flush();
+
+                var first = pending.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch, ENTRIES_PER_FRAME);
+                for (var entry : batch) {
+                    if (entry != WAKE_UP) {
+                        out.writeByte(FRAME_CHANGE);
+                        writeEntry(out, entry);
+                        sent.increment();
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        private void sendEntries(DataOutputStream out, BitSet buckets) throws IOException {
+            var frame = new ArrayList<Entry>(ENTRIES_PER_FRAME);
+            for (var entry : versions.values()) {
+                if (!buckets.get(bucket(entry.token().recurringReference()))) {
+                    continue;
+                }
+                frame.add(entry);
+                if (frame.size() == ENTRIES_PER_FRAME) {
+                    writeEntries(out, frame);
+                    pingIfDue(out);
+                }
+            }
+            if (!frame.isEmpty()) {
+                writeEntries(out, frame);
+            }
+        }
+
+        private void writeEntries(DataOutputStream out, List<Entry> entries) throws IOException {
+            out.writeByte(FRAME_ENTRIES);
+            out.writeInt(entries.size());
+            for (var entry : entries) {
+                writeEntry(out, entry);
+            }
+            sent.add(entries.size());
+            entries.clear();
+        }
+
+        private void pingIfDue(DataOutputStream out) throws IOException {
+            var now = System.nanoTime();
+            if (now - lastPing >= settings.heartbeatInterval().toNanos()) {
+                out.writeByte(FRAME_PING);
+                lastPing = now;
+            }
+        }
+
+        // The peer answers pings with pongs and digests with the buckets it wants; a silent peer is disconnected
+        private void readReplies(Socket socket, DataInputStream in) {
+            try {
+                while (true) {
+                    var frame = in.readByte();
+                    if (frame == FRAME_PULL) {
+                        var buckets = readBuckets(in);
+                        pull.accumulateAndGet(buckets, (requested, more) -> {
+                            if (requested == null) {
+                                return more;
+                            }
+                            var union = (BitSet) requested.clone();
+                            union.or(more);
+                            return union;
+                        });
+                        pending.offer(WAKE_UP);
+                    } else if (frame != FRAME_PONG) {
+                        throw new IOException("Unexpected frame " + frame);
+                    }
+                }
+            } catch (IOException e) {
+                // The sender fails on its next write and reconnects
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private String connectHandshake(DataInputStream in, DataOutputStream out) throws IOException {
+        var nonce = nonce();
+        out.writeInt(MAGIC);
+        out.writeInt(PROTOCOL_VERSION);
+        out.writeUTF(settings.nodeId());
+        out.write(nonce);
+        out.flush();
+
+        var remote = in.readUTF();
+        var remoteNonce = in.readNBytes(NONCE_SIZE);
+        var proof = in.readNBytes(32);
+        if (!MessageDigest.isEqual(proof, mac(ROLE_SERVER, nonce, remoteNonce))) {
+            throw new IOException("Peer " + remote + " does not know the replication secret");
+        }
+        out.write(mac(ROLE_CLIENT, remoteNonce, nonce));
+        out.flush();
+        return remote;
+    }
+
+    private String acceptHandshake(DataInputStream in, DataOutputStream out) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a token replication connection");
+        }
+        var version = in.readInt();
+        if (version != PROTOCOL_VERSION) {
+            throw new IOException("Unsupported token replication protocol " + version);
+        }
+        var remote = in.readUTF();
+        var remoteNonce = in.readNBytes(NONCE_SIZE);
+        var nonce = nonce();
+        out.writeUTF(settings.nodeId());
+        out.write(nonce);
+        out.write(mac(ROLE_SERVER, remoteNonce, nonce));
+        out.flush();
+
+        var proof = in.readNBytes(32);
+        if (!MessageDigest.isEqual(proof, mac(ROLE_CLIENT, nonce, remoteNonce))) {
+            throw new IOException("Peer " + remote + " does not know the replication secret");
+        }
+        return remote;
+    }
+
+    private byte[] nonce() {
+        var nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    private byte[] mac(byte role, byte[] challenge, byte[] nonce) {
+        try {
+            var mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(role);
+            mac.update(challenge);
+            mac.update(nonce);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        var token = entry.token();
+        out.writeUTF(token.recurringReference());
+        writeNullable(out, token.paymentMethod());
+        writeNullable(out, token.shopperReference());
+        out.writeBoolean(entry.removed());
+        out.writeLong(entry.version());
+        out.writeUTF(entry.origin());
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        var token = new Token(in.readUTF(), readNullable(in), readNullable(in));
+        return new Entry(token, in.readBoolean(), in.readLong(), in.readUTF());
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBuckets(DataOutputStream out, BitSet buckets) throws IOException {
+        out.writeInt(buckets.cardinality());
+        for (int bucket = buckets.nextSetBit(0); bucket >= 0; bucket = buckets.nextSetBit(bucket + 1)) {
+            out.writeShort(bucket);
+        }
+    }
+
+    private static BitSet readBuckets(DataInputStream in) throws IOException {
+        var count = in.readInt();
+        var buckets = new BitSet(BUCKETS);
+        for (int i = 0; i < count; i++) {
+            buckets.set(in.readUnsignedShort() & (BUCKETS - 1));
+        }
+        return buckets;
+    }
+
+    private static int bucket(String recurringReference) {
+        return (int) (mix(recurringReference.hashCode()) >>> (64 - BUCKET_BITS));
+    }
+
+    // Finalizer of MurmurHash3
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long currentTimeMicros() {
+        return System.currentTimeMillis() * 1000;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.adyen.workshop.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/*
+Thread-safe token store, indexed by recurringDetailReference and by shopperReference.
+Webhooks write to it while the admin panel reads from it, so both indexes are concurrent maps:
+every mutation of a recurringDetailReference runs inside ConcurrentHashMap.compute(...) for that key,
+which keeps the shopper index consistent without a global lock.
+Listeners are notified inside the same compute(...) call, so they observe changes to a token in the order they were applied.
+The sorted indexes (all tokens, per shopper and per payment method, ordered by recurringDetailReference) serve
+the pages of the admin listing: a page is a range scan of one skip list, its cost does not depend on the number of tokens.
+ */
+public class TokenRepository {
+
+    private final ConcurrentHashMap<String, Token> byRecurringReference = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<String, Token> sorted = new ConcurrentSkipListMap<>();
+
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, Token>> byShopperReference = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, Token>> byPaymentMethod = new ConcurrentHashMap<>();
+
+    private final List<TokenListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(TokenListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TokenListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void add(Token token) {
+        byRecurringReference.compute(token.recurringReference(), (recurringReference, previous) -> put(previous, token, null));
+    }
+
+    public boolean remove(String recurringReference, String shopperReference) {
+        var removed = new boolean[1];
+        byRecurringReference.computeIfPresent(recurringReference, (k, existing) -> {
+            if (!existing.shopperReference().equals(shopperReference)) {
+                return existing;
+            }
+            removed[0] = true;
+            return delete(existing, null);
+        });
+        return removed[0];
+    }
+
+    /**
+     * Adds the token, or removes the token stored under its recurringReference, if condition holds.
+     * The condition runs while the recurringReference is locked, so it is ordered with every other change of that token.
+     * Replication uses it to apply a change from another instance only when it is newer than the one it has;
+     * the origin listener, which received that change, is not notified of it.
+     *
+     * @return whether the condition held
+     */
+    public boolean applyIf(Token token, boolean remove, BooleanSupplier condition, TokenListener origin) {
+        var applied = new boolean[1];
+        byRecurringReference.compute(token.recurringReference(), (recurringReference, previous) -> {
+            if (!condition.getAsBoolean()) {
+                return previous;
+            }
+            applied[0] = true;
+            if (remove) {
+                return previous == null ? null : delete(previous, origin);
+            }
+            // Nothing changes, so listeners (e.g. the journal) are not told
+            return token.equals(previous) ? previous : put(previous, token, origin);
+        });
+        return applied[0];
+    }
+
+    public Token get(String recurringReference) {
+        return byRecurringReference.get(recurringReference);
+    }
+
+    public Collection<Token> getByShopperReference(String shopperReference) {
+        var tokens = byShopperReference.get(shopperReference);
+        return tokens == null ? Collections.emptyList() : Collections.unmodifiableCollection(tokens.values());
+    }
+
+    /**
+     * Weakly consistent, read-only view: safe to iterate while webhooks are adding or removing tokens.
+     */
+    public Collection<Token> getAll() {
+        return Collections.unmodifiableCollection(byRecurringReference.values());
+    }
+
+    /**
+     * Returns up to limit tokens ordered by recurringDetailReference, starting after the given one.
+     * Weakly consistent like {@link #getAll()}: tokens added or removed while paging may or may not show up.
+     *
+     * @param after            recurringDetailReference of the last token of the previous page, null for the first page
+     * @param shopperReference only tokens of this shopper, when not null
+     * @param paymentMethod    only tokens of this payment method, when not null
+     */
+    public TokenPage page(String after, int limit, String shopperReference, String paymentMethod) {
+        // Scan the most selective index, a shopper has few tokens
+        NavigableMap<String, Token> index;
+        if (shopperReference != null) {
+            index = byShopperReference.get(shopperReference);
+        } else if (paymentMethod != null) {
+            index = byPaymentMethod.get(paymentMethod);
+        } else {
+            index = sorted;
+        }
+        if (index == null) {
+            return new TokenPage(List.of(), null);
+        }
+        if (after != null) {
+            index = index.tailMap(after, false);
+        }
+
+        var tokens = new ArrayList<Token>(Math.min(limit, 1024));
+        for (var token : index.values()) {
+            if (paymentMethod != null && !paymentMethod.equals(token.paymentMethod())) {
+                continue;
+            }
+            if (tokens.size() == limit) {
+                return new TokenPage(tokens, tokens.get(limit - 1).recurringReference());
+            }
+            tokens.add(token);
+        }
+        return new TokenPage(tokens, null);
+    }
+
+    public int size() {
+        return byRecurringReference.size();
+    }
+
+    public void clear() {
+        byRecurringReference.clear();
+        sorted.clear();
+        byShopperReference.clear();
+        byPaymentMethod.clear();
+    }
+
+    // Inside compute(...) for the recurringReference of the token
+    private Token put(Token previous, Token token, TokenListener origin) {
+        var recurringReference = token.recurringReference();
+        if (previous != null && !previous.shopperReference().equals(token.shopperReference())) {
+            unindex(byShopperReference, previous.shopperReference(), recurringReference);
+        }
+        if (previous != null && !Objects.equals(previous.paymentMethod(), token.paymentMethod())) {
+            unindex(byPaymentMethod, paymentMethodKey(previous), recurringReference);
+        }
+        sorted.put(recurringReference, token);
+        index(byShopperReference, token.shopperReference(), token);
+        index(byPaymentMethod, paymentMethodKey(token), token);
+        for (var listener : listeners) {
+            if (listener != origin) {
+                listener.tokenAdded(token);
+            }
+        }
+        return token;
+    }
+
+    // Inside compute(...) for the recurringReference of the token, returns the new (absent) value
+    private Token delete(Token existing, TokenListener origin) {
+        var recurringReference = existing.recurringReference();
+        sorted.remove(recurringReference);
+        unindex(byShopperReference, existing.shopperReference(), recurringReference);
+        unindex(byPaymentMethod, paymentMethodKey(existing), recurringReference);
+        for (var listener : listeners) {
+            if (listener != origin) {
+                listener.tokenRemoved(existing);
+            }
+        }
+        return null;
+    }
+
+    // Inside compute(...), so it cannot race with unindex dropping the entry of the same key
+    private static void index(ConcurrentHashMap<String, ConcurrentSkipListMap<String, Token>> index, String key, Token token) {
+        index.compute(key, (k, tokens) -> {
+            var indexed = tokens != null ? tokens : new ConcurrentSkipListMap<String, Token>();
+            indexed.put(token.recurringReference(), token);
+            return indexed;
+        });
+    }
+
+    private static void unindex(ConcurrentHashMap<String, ConcurrentSkipListMap<String, Token>> index, String key, String recurringReference) {
+        // Drop the entry atomically once its last token is gone, so the index does not grow with churn
+        index.computeIfPresent(key, (k, tokens) -> {
+            tokens.remove(recurringReference);
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+
+    // Tokens without a payment method are indexed under the empty string
+    private static String paymentMethodKey(Token token) {
+        return token.paymentMethod() != null ? token.paymentMethod() : "";
+    }
+}
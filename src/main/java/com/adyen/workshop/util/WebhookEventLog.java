@@ -0,0 +1,498 @@
+package com.adyen.workshop.util;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/*
+Append-only log of every webhook item that was validated and accepted, to audit what happened
+and to rebuild the state of a node by replaying it (see WebhookReplay).
+Tokens disabled through the admin pages are logged as token removals, as no webhook reports them,
+so a replay does not bring them back.
+
+The log is a directory of segments webhooks-<n>.log, a new segment is started once the current one outgrows the segment size.
+Every record is [int length][int crc32][long sequence][int partition][item], the item being written field by field:
+strings as a varint of length + 1 (0 for null) followed by UTF-8 bytes, lists and maps as a varint of size + 1.
+A token removal has only the TOKEN_REMOVAL flag set, followed by the recurringDetailReference and the shopperReference.
+The sequence numbers the items in the order they were written, the partition is the hash of the shopper the item belongs to,
+so a reader can spread the records over parallel lanes without decoding them.
+A zero length or a checksum mismatch marks the end of the valid data (e.g. a write torn by a crash).
+
+Like the TokenJournal, items are handed to a single writer thread through a queue (see GroupCommitWriter), which forces
+the segment at most once per commit interval (group commit). If the writer fails, further items are not logged, see isFailed().
+ */
+public class WebhookEventLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(WebhookEventLog.class);
+
+    private static final String SEGMENT_PREFIX = "webhooks-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int HEADER_SIZE = 8;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int READ_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private static final int SUCCESS = 1;
+    private static final int HAS_AMOUNT = 2;
+    private static final int HAS_AMOUNT_VALUE = 4;
+    private static final int HAS_EVENT_DATE = 8;
+    private static final int TOKEN_REMOVAL = 16;
+
+    /**
+     * A record read from the log, the item is only decoded on demand.
+     */
+    public record Event(long sequence, int partition, ByteBuffer body) {
+
+        /**
+         * @return null when the record is a token removal
+         */
+        public NotificationRequestItem item() {
+            return (body.get(0) & TOKEN_REMOVAL) != 0 ? null : decode(body.duplicate());
+        }
+
+        /**
+         * @return null when the record is a webhook item
+         */
+        public TokenRemoval tokenRemoval() {
+            if ((body.get(0) & TOKEN_REMOVAL) == 0) {
+                return null;
+            }
+            var buffer = body.duplicate();
+            buffer.get();
+            return new TokenRemoval(readString(buffer), readString(buffer));
+        }
+    }
+
+    public record TokenRemoval(String recurringDetailReference, String shopperReference) {
+    }
+
+    private record ScanResult(long records, long end, long lastSequence) {
+    }
+
+    private final Path directory;
+    private final long segmentSizeBytes;
+
+    // Webhook items and token removals
+    private final GroupCommitWriter<Object> writer;
+
+    // Owned by the writer thread once open() has returned
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private ByteBuffer record = ByteBuffer.allocate(4096);
+    private FileChannel channel;
+    private long segment;
+    private long sequence;
+    private boolean dirty;
+
+    private volatile long appended;
+
+    public WebhookEventLog(Path directory, long commitIntervalMillis, long segmentSizeBytes) {
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.writer = new GroupCommitWriter<>("webhook-event-log-writer", commitIntervalMillis, new GroupCommitWriter.Sink<>() {
+            @Override
+            public void write(Object entry) throws IOException {
+                WebhookEventLog.this.write(entry);
+            }
+
+            @Override
+            public void commit(boolean force, boolean closing) throws IOException {
+                WebhookEventLog.this.commit(force, closing);
+            }
+        });
+    }
+
+    /**
+     * Continues the newest segment after its last valid record and starts the writer.
+     */
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        var segments = listSegments(directory);
+        if (segments.isEmpty()) {
+            openSegment(1, 0);
+        } else {
+            var latest = segments.get(segments.size() - 1);
+            var result = scan(latest, null);
+            sequence = result.lastSequence();
+            // A segment started by a rotation may have no records yet, the sequence continues from an earlier one
+            for (int i = segments.size() - 2; i >= 0 && sequence == 0; i--) {
+                sequence = scan(segments.get(i), null).lastSequence();
+            }
+            openSegment(segmentOf(latest), result.end());
+        }
+        log.info("Webhook event log opened in {}, continuing at sequence {}", directory, sequence + 1);
+
+        writer.start();
+    }
+
+    /**
+     * Queues the item to be written, does not wait for the disk.
+     */
+    public void append(NotificationRequestItem item) {
+        writer.offer(item);
+    }
+
+    /**
+     * Queues a token removed locally (e.g. disabled through the admin pages), does not wait for the disk.
+     */
+    public void appendTokenRemoval(String recurringDetailReference, String shopperReference) {
+        writer.offer(new TokenRemoval(recurringDetailReference, shopperReference));
+    }
+
+    public int getPendingCount() {
+        return writer.getPendingCount();
+    }
+
+    // The writer stopped on an error, items since then are not logged
+    public boolean isFailed() {
+        return writer.isFailed();
+    }
+
+    public long getAppendedCount() {
+        return appended;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stops the writer after writing and forcing everything still queued.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads every valid record of every segment in the directory, in sequence order.
+     *
+     * @return the number of records read
+     */
+    public static long read(Path directory, Consumer<Event> consumer) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        var records = 0L;
+        for (var segment : listSegments(directory)) {
+            records += scan(segment, consumer).records();
+        }
+        return records;
+    }
+
+    /**
+     * Items of the same shopper have the same partition, for items without a shopper it is that of the payment.
+     */
+    public static int partition(NotificationRequestItem item) {
+        var additionalData = item.getAdditionalData();
+        var shopperReference = additionalData != null ? additionalData.get("recurring.shopperReference") : null;
+        if (shopperReference != null) {
+            return shopperReference.hashCode();
+        }
+        var payment = item.getOriginalReference() != null ? item.getOriginalReference() : item.getPspReference();
+        return payment != null ? payment.hashCode() : 0;
+    }
+
+    private void commit(boolean force, boolean closing) throws IOException {
+        flush();
+        if (dirty && force) {
+            force();
+        }
+        if (!closing && channel.position() >= segmentSizeBytes) {
+            force();
+            openSegment(segment + 1, 0);
+        }
+    }
+
+    private void write(Object entry) throws IOException {
+        var length = encode(entry, sequence + 1);
+        if (length < 0) {
+            return;
+        }
+        sequence++;
+        if (out.remaining() < record.position()) {
+            flush();
+        }
+        record.flip();
+        if (record.remaining() > out.capacity()) {
+            writeFully(record);
+        } else {
+            out.put(record);
+        }
+        appended++;
+        dirty = true;
+    }
+
+    // Encodes into the reusable record buffer, growing it for unusually large items
+    private int encode(Object entry, long sequence) {
+        while (true) {
+            try {
+                record.clear();
+                record.position(HEADER_SIZE);
+                record.putLong(sequence);
+                if (entry instanceof TokenRemoval removal) {
+                    // Same partition as the RECURRING_CONTRACT items of the shopper, so it is replayed after them
+                    record.putInt(removal.shopperReference() != null ? removal.shopperReference().hashCode() : 0);
+                    record.put((byte) TOKEN_REMOVAL);
+                    writeString(record, removal.recurringDetailReference());
+                    writeString(record, removal.shopperReference());
+                } else {
+                    var item = (NotificationRequestItem) entry;
+                    record.putInt(partition(item));
+                    writeItem(record, item);
+                }
+                var length = record.position() - HEADER_SIZE;
+                crc.reset();
+                crc.update(record.array(), HEADER_SIZE, length);
+                record.putInt(0, length);
+                record.putInt(4, (int) crc.getValue());
+                return length;
+            } catch (BufferOverflowException e) {
+                if (record.capacity() >= 64 * 1024 * 1024) {
+                    log.warn("Not logging webhook item larger than 64 MB - PspReference {}", ((NotificationRequestItem) entry).getPspReference());
+                    return -1;
+                }
+                record = ByteBuffer.allocate(record.capacity() * 2);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        writeFully(out);
+        out.clear();
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void force() throws IOException {
+        channel.force(false);
+        dirty = false;
+    }
+
+    private void openSegment(long segment, long end) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        this.segment = segment;
+        channel = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Cut off a torn tail, so appends continue on a clean file
+        if (channel.size() > end) {
+            channel.truncate(end);
+        }
+        channel.position(end);
+    }
+
+    private static ScanResult scan(Path path, Consumer<Event> consumer) throws IOException {
+        try (var in = FileChannel.open(path, StandardOpenOption.READ)) {
+            var size = in.size();
+            var position = 0L;
+            var records = 0L;
+            var lastSequence = 0L;
+            var crc = new CRC32();
+            MappedByteBuffer window = null;
+            var windowStart = 0L;
+
+            while (position + HEADER_SIZE <= size) {
+                if (window == null || position + HEADER_SIZE > windowStart + window.limit()) {
+                    windowStart = position;
+                    window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, READ_WINDOW_SIZE));
+                }
+                var length = window.getInt((int) (position - windowStart));
+                if (length < 12 || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+                if (position + HEADER_SIZE + length > windowStart + window.limit()) {
+                    windowStart = position;
+                    window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, READ_WINDOW_SIZE));
+                }
+
+                var offset = (int) (position - windowStart);
+                var checksum = window.getInt(offset + 4);
+                var body = window.slice(offset + HEADER_SIZE, length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Webhook event log {} has a corrupt record at offset {}, ignoring the rest of the file", path, position);
+                    break;
+                }
+
+                lastSequence = body.getLong(0);
+                if (consumer != null) {
+                    consumer.accept(new Event(lastSequence, body.getInt(8), body.slice(12, length - 12)));
+                }
+                position += HEADER_SIZE + length;
+                records++;
+            }
+            return new ScanResult(records, position, lastSequence);
+        }
+    }
+
+    private static void writeItem(ByteBuffer buffer, NotificationRequestItem item) {
+        var amount = item.getAmount();
+        var flags = (item.isSuccess() ? SUCCESS : 0)
+                | (amount != null ? HAS_AMOUNT : 0)
+                | (amount != null && amount.getValue() != null ? HAS_AMOUNT_VALUE : 0)
+                | (item.getEventDate() != null ? HAS_EVENT_DATE : 0);
+        buffer.put((byte) flags);
+        if (item.getEventDate() != null) {
+            buffer.putLong(item.getEventDate().getTime());
+        }
+        if (amount != null) {
+            writeString(buffer, amount.getCurrency());
+            if (amount.getValue() != null) {
+                buffer.putLong(amount.getValue());
+            }
+        }
+        writeString(buffer, item.getEventCode());
+        writeString(buffer, item.getPspReference());
+        writeString(buffer, item.getOriginalReference());
+        writeString(buffer, item.getMerchantAccountCode());
+        writeString(buffer, item.getMerchantReference());
+        writeString(buffer, item.getPaymentMethod());
+        writeString(buffer, item.getReason());
+
+        var operations = item.getOperations();
+        writeVarInt(buffer, operations == null ? 0 : operations.size() + 1);
+        if (operations != null) {
+            for (var operation : operations) {
+                writeString(buffer, operation);
+            }
+        }
+        var additionalData = item.getAdditionalData();
+        writeVarInt(buffer, additionalData == null ? 0 : additionalData.size() + 1);
+        if (additionalData != null) {
+            for (var entry : additionalData.entrySet()) {
+                writeString(buffer, entry.getKey());
+                writeString(buffer, entry.getValue());
+            }
+        }
+    }
+
+    private static NotificationRequestItem decode(ByteBuffer buffer) {
+        var item = new NotificationRequestItem();
+        var flags = buffer.get();
+        item.setSuccess((flags & SUCCESS) != 0);
+        if ((flags & HAS_EVENT_DATE) != 0) {
+            item.setEventDate(new Date(buffer.getLong()));
+        }
+        if ((flags & HAS_AMOUNT) != 0) {
+            var amount = new Amount();
+            amount.setCurrency(readString(buffer));
+            if ((flags & HAS_AMOUNT_VALUE) != 0) {
+                amount.setValue(buffer.getLong());
+            }
+            item.setAmount(amount);
+        }
+        item.setEventCode(readString(buffer));
+        item.setPspReference(readString(buffer));
+        item.setOriginalReference(readString(buffer));
+        item.setMerchantAccountCode(readString(buffer));
+        item.setMerchantReference(readString(buffer));
+        item.setPaymentMethod(readString(buffer));
+        item.setReason(readString(buffer));
+
+        var operations = readVarInt(buffer) - 1;
+        if (operations >= 0) {
+            var values = new ArrayList<String>(operations);
+            for (int i = 0; i < operations; i++) {
+                values.add(readString(buffer));
+            }
+            item.setOperations(values);
+        }
+        var entries = readVarInt(buffer) - 1;
+        if (entries >= 0) {
+            var additionalData = new HashMap<String, String>(entries * 4 / 3 + 1);
+            for (int i = 0; i < entries; i++) {
+                additionalData.put(readString(buffer), readString(buffer));
+            }
+            item.setAdditionalData(additionalData);
+        }
+        return item;
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(buffer, bytes.length + 1);
+        buffer.put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        var length = readVarInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Unsigned LEB128: 7 bits per byte, the high bit set on all but the last byte
+    private static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        var value = 0;
+        for (int shift = 0; ; shift += 7) {
+            var b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        var name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted((a, b) -> Long.compare(segmentOf(a), segmentOf(b)))
+                    .toList();
+        }
+    }
+
+    private static long segmentOf(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
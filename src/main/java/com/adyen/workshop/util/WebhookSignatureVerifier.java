@@ -0,0 +1,219 @@
+package com.adyen.workshop.util;
+
+import com.adyen.model.notification.NotificationRequestItem;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Verifies the HMAC signature of webhook items, computing the same signature as the library's HMACValidator:
+HmacSHA256 over pspReference:originalReference:merchantAccountCode:merchantReference:value:currency:eventCode:success.
+Unlike HMACValidator it does not decode the key and create a Mac for every item, and builds no Strings:
+a verifying thread borrows a Scratch (initialised Macs plus reusable buffers) from a pool and returns it afterwards.
+A pool rather than a ThreadLocal, so it also stays small when requests run on virtual threads.
+
+Several keys can be active at once to rotate the HMAC key without rejecting webhooks:
+signatures made with the current key or with one of the previous keys are accepted.
+ */
+public class WebhookSignatureVerifier {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_LENGTH = 44; // Base64 of a 32 byte HmacSHA256
+
+    private static final class Scratch {
+        private final Mac[] macs;
+        private final byte[] digest = new byte[32];
+        private final byte[] signature = new byte[SIGNATURE_LENGTH];
+        private byte[] payload = new byte[256];
+        private int length;
+
+        Scratch(SecretKeySpec[] keys) throws GeneralSecurityException {
+            macs = new Mac[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                macs[i] = Mac.getInstance(ALGORITHM);
+                macs[i].init(keys[i]);
+            }
+        }
+    }
+
+    // Replaced as a whole on rotation, Scratches of the previous key set are dropped with it
+    private record KeySet(SecretKeySpec[] keys, ConcurrentLinkedQueue<Scratch> pool) {
+    }
+
+    private volatile KeySet keySet;
+
+    private final LongAdder previousKeyMatches = new LongAdder();
+
+    /**
+     * @param hexKeys the current HMAC key first, followed by the previous keys that are still accepted
+     */
+    public WebhookSignatureVerifier(List<String> hexKeys) {
+        setKeys(hexKeys);
+    }
+
+    /**
+     * Replaces the accepted keys, e.g. to start or finish a key rotation.
+     */
+    public void setKeys(List<String> hexKeys) {
+        var keys = hexKeys.stream()
+                .filter(key -> key != null && !key.isBlank())
+                .map(key -> new SecretKeySpec(HexFormat.of().parseHex(key.trim()), ALGORITHM))
+                .toArray(SecretKeySpec[]::new);
+        keySet = new KeySet(keys, new ConcurrentLinkedQueue<>());
+    }
+
+    public int getKeyCount() {
+        return keySet.keys().length;
+    }
+
+    /**
+     * Signatures that only matched a previous key. Once this stops growing, the previous keys can be removed.
+     */
+    public long getPreviousKeyMatches() {
+        return previousKeyMatches.sum();
+    }
+
+    /**
+     * @return true when the hmacSignature in the additional data was made with one of the keys
+     * @throws IllegalStateException when no key is configured
+     */
+    public boolean verify(NotificationRequestItem item) {
+        var keys = keySet;
+        if (keys.keys().length == 0) {
+            throw new IllegalStateException("No HMAC key configured");
+        }
+        var expected = item.getAdditionalData() != null ? item.getAdditionalData().get("hmacSignature") : null;
+        if (expected == null || expected.length() != SIGNATURE_LENGTH) {
+            return false;
+        }
+
+        var scratch = borrow(keys);
+        try {
+            writePayload(scratch, item);
+            for (int i = 0; i < scratch.macs.length; i++) {
+                if (matches(scratch, scratch.macs[i], expected)) {
+                    if (i > 0) {
+                        previousKeyMatches.increment();
+                    }
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            keys.pool().offer(scratch);
+        }
+    }
+
+    private static Scratch borrow(KeySet keys) {
+        var scratch = keys.pool().poll();
+        if (scratch != null) {
+            return scratch;
+        }
+        try {
+            return new Scratch(keys.keys());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not initialise " + ALGORITHM, e);
+        }
+    }
+
+    private static boolean matches(Scratch scratch, Mac mac, String expected) {
+        try {
+            mac.update(scratch.payload, 0, scratch.length);
+            mac.doFinal(scratch.digest, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not compute " + ALGORITHM, e);
+        }
+        Base64.getEncoder().encode(scratch.digest, scratch.signature);
+
+        // Constant time: always compare every character
+        var difference = 0;
+        for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+            difference |= scratch.signature[i] ^ expected.charAt(i);
+        }
+        return difference == 0;
+    }
+
+    private static void writePayload(Scratch scratch, NotificationRequestItem item) {
+        scratch.length = 0;
+        var amount = item.getAmount();
+        write(scratch, item.getPspReference());
+        write(scratch, ':');
+        write(scratch, item.getOriginalReference());
+        write(scratch, ':');
+        write(scratch, item.getMerchantAccountCode());
+        write(scratch, ':');
+        write(scratch, item.getMerchantReference());
+        write(scratch, ':');
+        if (amount != null && amount.getValue() != null) {
+            write(scratch, amount.getValue());
+        }
+        write(scratch, ':');
+        write(scratch, amount != null ? amount.getCurrency() : null);
+        write(scratch, ':');
+        write(scratch, item.getEventCode());
+        write(scratch, ':');
+        write(scratch, item.isSuccess() ? "true" : "false");
+    }
+
+    private static void write(Scratch scratch, String value) {
+        if (value == null) {
+            return;
+        }
+        ensureCapacity(scratch, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c >= 0x80) {
+                // Rare non-ASCII value: rewind and encode the whole value properly
+                scratch.length -= i;
+                var bytes = value.getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(scratch, bytes.length);
+                System.arraycopy(bytes, 0, scratch.payload, scratch.length, bytes.length);
+                scratch.length += bytes.length;
+                return;
+            }
+            scratch.payload[scratch.length++] = (byte) c;
+        }
+    }
+
+    private static void write(Scratch scratch, char c) {
+        ensureCapacity(scratch, 1);
+        scratch.payload[scratch.length++] = (byte) c;
+    }
+
+    private static void write(Scratch scratch, long value) {
+        if (value == Long.MIN_VALUE) {
+            write(scratch, Long.toString(value));
+            return;
+        }
+        ensureCapacity(scratch, 20);
+        if (value < 0) {
+            scratch.payload[scratch.length++] = '-';
+            value = -value;
+        }
+        var start = scratch.length;
+        do {
+            scratch.payload[scratch.length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first
+        for (int i = start, j = scratch.length - 1; i < j; i++, j--) {
+            var digit = scratch.payload[i];
+            scratch.payload[i] = scratch.payload[j];
+            scratch.payload[j] = digit;
+        }
+    }
+
+    private static void ensureCapacity(Scratch scratch, int additional) {
+        if (scratch.length + additional > scratch.payload.length) {
+            scratch.payload = Arrays.copyOf(scratch.payload, Math.max(scratch.payload.length * 2, scratch.length + additional));
+        }
+    }
+}
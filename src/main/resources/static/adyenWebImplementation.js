@@ -1,5 +1,7 @@
 const clientKey = document.getElementById("clientKey").innerHTML;
 const { AdyenCheckout, Dropin } = window.AdyenWeb;
+// The merchantReference of the session, so the result page can show the state of the payment
+let merchantReference;
 
 // Starts the (Adyen.Web) AdyenCheckout with your specified configuration by calling the `/paymentMethods` endpoint.
 async function startCheckout() {
@@ -11,6 +13,7 @@ async function startCheckout() {
                 "Content-Type": "application/json",
             }
         }).then(response => response.json());
+        merchantReference = session.reference;
 
         const configuration = {
             clientKey,
@@ -92,18 +95,22 @@ async function startCheckout() {
     }
 }
 
+function resultUrl(type) {
+    return "/result/" + type + (merchantReference ? "?reference=" + encodeURIComponent(merchantReference) : "");
+}
+
 // Step 10 - Function to handle payment completion redirects
 function handleOnPaymentCompleted(response) {
     switch (response.resultCode) {
         case "Authorised":
-            window.location.href = "/result/success";
+            window.location.href = resultUrl("success");
             break;
         case "Pending":
         case "Received":
-            window.location.href = "/result/pending";
+            window.location.href = resultUrl("pending");
             break;
         default:
-            window.location.href = "/result/error";
+            window.location.href = resultUrl("error");
             break;
     }
 }
@@ -113,10 +120,10 @@ function handleOnPaymentFailed(response) {
     switch (response.resultCode) {
         case "Cancelled":
         case "Refused":
-            window.location.href = "/result/failed";
+            window.location.href = resultUrl("failed");
             break;
         default:
-            window.location.href = "/result/error";
+            window.location.href = resultUrl("error");
             break;
     }
 }
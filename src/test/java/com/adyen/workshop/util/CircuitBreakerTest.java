@@ -0,0 +1,75 @@
+package com.adyen.workshop.util;
+
+import com.adyen.workshop.util.CircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensOnceTheFailureRateReachesTheThreshold() {
+        var breaker = new CircuitBreaker(new CircuitBreaker.Settings(10, 4, 0.5, Duration.ofMinutes(1), 1));
+        breaker.onSuccess(breaker.tryAcquire());
+        breaker.onFailure(breaker.tryAcquire());
+        breaker.onSuccess(breaker.tryAcquire());
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+
+        breaker.onFailure(breaker.tryAcquire());
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.NOT_PERMITTED);
+    }
+
+    @Test
+    void closesAfterSuccessfulTrialCalls() {
+        var breaker = openBreaker(2);
+        var first = breaker.tryAcquire();
+        var second = breaker.tryAcquire();
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.NOT_PERMITTED);
+
+        breaker.onSuccess(first);
+        breaker.onSuccess(second);
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    void ignoresOutcomesOfCallsPermittedInAnEarlierState() {
+        var breaker = new CircuitBreaker(new CircuitBreaker.Settings(10, 1, 0.5, Duration.ZERO, 1));
+        var slow = breaker.tryAcquire();
+        breaker.onFailure(breaker.tryAcquire());
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+
+        var trial = breaker.tryAcquire();
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        // The call made while CLOSED finishes now, it is not taken for the trial call
+        breaker.onSuccess(slow);
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        breaker.onFailure(slow);
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+
+        breaker.onSuccess(trial);
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    void releaseDoesNotGrantMoreTrialCallsThanConfigured() {
+        var breaker = openBreaker(1);
+        var trial = breaker.tryAcquire();
+        breaker.release(trial);
+        breaker.release(trial);
+
+        assertThat(breaker.tryAcquire()).isNotEqualTo(CircuitBreaker.NOT_PERMITTED);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.NOT_PERMITTED);
+    }
+
+    // Opened with an open duration of 0, so the next call is a trial call
+    private static CircuitBreaker openBreaker(int halfOpenCalls) {
+        var breaker = new CircuitBreaker(new CircuitBreaker.Settings(10, 1, 0.5, Duration.ZERO, halfOpenCalls));
+        breaker.onFailure(breaker.tryAcquire());
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        return breaker;
+    }
+}
@@ -0,0 +1,47 @@
+package com.adyen.workshop.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeduplicationIndexTest {
+
+    @Test
+    void recognisesKeysSeenBefore() {
+        var index = new DeduplicationIndex(100, 1, TimeUnit.HOURS);
+        assertThat(index.add("psp-1:AUTHORISATION")).isTrue();
+        assertThat(index.add("psp-1:AUTHORISATION")).isFalse();
+
+        assertThat(index.contains("psp-1:AUTHORISATION")).isTrue();
+        assertThat(index.contains("psp-1:CAPTURE")).isFalse();
+        assertThat(index.getHits()).isEqualTo(1);
+        assertThat(index.getMisses()).isEqualTo(1);
+
+        index.remove("psp-1:AUTHORISATION");
+        assertThat(index.contains("psp-1:AUTHORISATION")).isFalse();
+    }
+
+    @Test
+    void evictsTheOldestKeysOnceFull() {
+        var index = new DeduplicationIndex(4096, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 10_000; i++) {
+            index.add("psp-" + i);
+        }
+
+        assertThat(index.size()).isLessThanOrEqualTo(4096);
+        assertThat(index.contains("psp-0")).isFalse();
+        assertThat(index.contains("psp-9999")).isTrue();
+    }
+
+    @Test
+    void forgetsKeysOlderThanTheTtl() throws InterruptedException {
+        var index = new DeduplicationIndex(100, 10, TimeUnit.MILLISECONDS);
+        index.add("psp-1");
+        Thread.sleep(20);
+
+        assertThat(index.contains("psp-1")).isFalse();
+        assertThat(index.add("psp-1")).isTrue();
+    }
+}
@@ -0,0 +1,110 @@
+package com.adyen.workshop.util;
+
+import com.adyen.workshop.util.PaymentLedger.Source;
+import com.adyen.workshop.util.PaymentLedger.Status;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PaymentLedgerTest {
+
+    // The ledger keeps at least two chunks of 4096
+    private static final int CHUNK_SIZE = 4096;
+
+    @Test
+    void findsPaymentsByEitherReferenceAfterTheOldestChunkIsDropped() {
+        var ledger = new PaymentLedger(2 * CHUNK_SIZE, 2 * CHUNK_SIZE);
+        var payments = 3 * CHUNK_SIZE;
+        for (int i = 0; i < payments; i++) {
+            ledger.record("psp-" + i, "order-" + i, Status.AUTHORISED, Source.API, "EUR", (long) i);
+        }
+
+        assertThat(ledger.getPaymentCount()).isEqualTo(2 * CHUNK_SIZE);
+        assertThat(ledger.get("psp-0")).isNull();
+        assertThat(ledger.get("order-" + (CHUNK_SIZE - 1))).isNull();
+        for (int i = CHUNK_SIZE; i < payments; i++) {
+            var byPspReference = ledger.get("psp-" + i);
+            assertThat(byPspReference).isNotNull();
+            assertThat(byPspReference.merchantReference()).isEqualTo("order-" + i);
+            assertThat(byPspReference.amount()).isEqualTo(i);
+            assertThat(ledger.get("order-" + i).pspReference()).isEqualTo("psp-" + i);
+        }
+    }
+
+    @Test
+    void keepsTheHistoryOfRecentPaymentsWhenOldEventsAreDropped() {
+        var ledger = new PaymentLedger(4 * CHUNK_SIZE, 2 * CHUNK_SIZE);
+        for (int i = 0; i < 3 * CHUNK_SIZE; i++) {
+            ledger.record("psp-" + i, null, Status.AUTHORISED, Source.API, null, null);
+        }
+        ledger.record("psp-last", "order-last", Status.PENDING, Source.API, null, null);
+        ledger.record("psp-last", null, Status.AUTHORISED, Source.WEBHOOK, null, null);
+
+        assertThat(ledger.getEventCount()).isLessThanOrEqualTo(2 * CHUNK_SIZE);
+        assertThat(ledger.history("psp-0")).isEmpty();
+        assertThat(ledger.history("order-last"))
+                .extracting(PaymentLedger.Event::status)
+                .containsExactly(Status.PENDING, Status.AUTHORISED);
+    }
+
+    @Test
+    void statusOnlyMovesToTheSameOrALaterStage() {
+        var ledger = new PaymentLedger(CHUNK_SIZE, CHUNK_SIZE);
+        ledger.record("psp", null, Status.AUTHORISED, Source.WEBHOOK, "EUR", 100L);
+        // The API response arrives after the webhook
+        ledger.record("psp", "order", Status.PENDING, Source.API, "EUR", 100L);
+        assertThat(ledger.get("psp").status()).isEqualTo(Status.AUTHORISED);
+
+        ledger.record("psp", null, Status.CAPTURED, Source.WEBHOOK, null, null);
+        ledger.record("psp", null, Status.AUTHORISED, Source.WEBHOOK, null, null);
+        assertThat(ledger.get("psp").status()).isEqualTo(Status.CAPTURED);
+
+        ledger.record("psp", null, Status.REFUNDED, Source.WEBHOOK, null, null);
+        assertThat(ledger.get("order").status()).isEqualTo(Status.REFUNDED);
+        // Every event is kept, also the ones that did not change the status
+        assertThat(ledger.history("psp"))
+                .extracting(PaymentLedger.Event::status)
+                .containsExactly(Status.AUTHORISED, Status.PENDING, Status.CAPTURED, Status.AUTHORISED, Status.REFUNDED);
+    }
+
+    @Test
+    void laterEventOfTheSameStageWins() {
+        var ledger = new PaymentLedger(CHUNK_SIZE, CHUNK_SIZE);
+        ledger.record("psp", null, Status.AUTHORISED, Source.API, null, null);
+        ledger.record("psp", null, Status.REFUSED, Source.WEBHOOK, null, null);
+
+        assertThat(ledger.get("psp").status()).isEqualTo(Status.REFUSED);
+    }
+
+    @Test
+    void keepsTheFirstMerchantReferenceOfAPayment() {
+        var ledger = new PaymentLedger(CHUNK_SIZE, CHUNK_SIZE);
+        ledger.record(null, "order", Status.PENDING, Source.API, "EUR", 100L);
+        ledger.record("psp", "order", Status.AUTHORISED, Source.WEBHOOK, "EUR", 100L);
+        ledger.record("psp", "capture-reference", Status.CAPTURED, Source.WEBHOOK, "EUR", 100L);
+
+        var payment = ledger.get("psp");
+        assertThat(payment.merchantReference()).isEqualTo("order");
+        assertThat(ledger.get("order").pspReference()).isEqualTo("psp");
+        assertThat(ledger.get("capture-reference")).isNull();
+        assertThat(ledger.getPaymentCount()).isEqualTo(1);
+    }
+
+    @Test
+    void pagesThroughPaymentsAndEventsWithTimeCursors() {
+        var ledger = new PaymentLedger(CHUNK_SIZE, CHUNK_SIZE);
+        for (int i = 0; i < 5; i++) {
+            ledger.record("psp-" + i, null, Status.AUTHORISED, Source.API, null, null);
+        }
+
+        var first = ledger.payments(null, null, 2);
+        assertThat(first).extracting(PaymentLedger.Payment::pspReference).containsExactly("psp-4", "psp-3");
+        var second = ledger.payments(null, first.get(1).createdAt(), 2);
+        assertThat(second).extracting(PaymentLedger.Payment::pspReference).containsExactly("psp-2", "psp-1");
+
+        var events = ledger.events(null, null, 3);
+        assertThat(events).extracting(PaymentLedger.Event::pspReference).containsExactly("psp-0", "psp-1", "psp-2");
+        var next = ledger.events(events.get(2).time().plusNanos(1000), null, 3);
+        assertThat(next).extracting(PaymentLedger.Event::pspReference).containsExactly("psp-3", "psp-4");
+    }
+}
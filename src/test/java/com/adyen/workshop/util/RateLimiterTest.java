@@ -0,0 +1,63 @@
+package com.adyen.workshop.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RateLimiterTest {
+
+    @Test
+    void permitsABurstThenRefusesWithTheWaitUntilTheNextPermit() {
+        var limiter = new RateLimiter(new RateLimiter.Settings(1, 5, 100));
+        for (int i = 0; i < 5; i++) {
+            assertThat(limiter.tryAcquire("10.0.0.1")).isZero();
+        }
+
+        assertThat(limiter.tryAcquire("10.0.0.1")).isPositive().isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+        // Every key has its own bucket
+        assertThat(limiter.tryAcquire("10.0.0.2")).isZero();
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() throws InterruptedException {
+        var limiter = new RateLimiter(new RateLimiter.Settings(10, 1, 100));
+        assertThat(limiter.tryAcquire("10.0.0.1")).isZero();
+        assertThat(limiter.tryAcquire("10.0.0.1")).isPositive();
+
+        Thread.sleep(150);
+        assertThat(limiter.tryAcquire("10.0.0.1")).isZero();
+    }
+
+    @Test
+    void keepsAtMostMaxKeysBuckets() {
+        var limiter = new RateLimiter(new RateLimiter.Settings(1, 1, 100));
+        for (int i = 0; i < 1000; i++) {
+            limiter.tryAcquire("10.0.0." + i);
+        }
+
+        assertThat(limiter.size()).isLessThanOrEqualTo(100);
+        assertThat(limiter.getEvictions()).isGreaterThanOrEqualTo(900);
+    }
+
+    @Test
+    void evictsBucketsThatAreFullAgainFirst() throws InterruptedException {
+        var limiter = new RateLimiter(new RateLimiter.Settings(1000, 1, 10));
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire("10.0.0." + i);
+        }
+        Thread.sleep(10);
+
+        limiter.tryAcquire("10.0.1.0");
+        assertThat(limiter.size()).isEqualTo(1);
+        assertThat(limiter.getEvictions()).isEqualTo(10);
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        assertThatThrownBy(() -> new RateLimiter(new RateLimiter.Settings(0, 1, 1))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new RateLimiter(new RateLimiter.Settings(1, 0, 1))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
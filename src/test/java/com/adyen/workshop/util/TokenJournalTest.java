@@ -0,0 +1,128 @@
+package com.adyen.workshop.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class TokenJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysAddsAndRemovesAfterARestart() throws IOException {
+        var repository = new TokenRepository();
+        var journal = open(repository, 1L << 30);
+        for (int i = 0; i < 100; i++) {
+            repository.add(new Token("token-" + i, "visa", "shopper-" + i % 10));
+        }
+        for (int i = 0; i < 10; i++) {
+            repository.remove("token-" + i, "shopper-" + i % 10);
+        }
+        journal.close();
+
+        var replayed = new TokenRepository();
+        open(replayed, 1L << 30).close();
+        assertThat(replayed.size()).isEqualTo(90);
+        assertThat(replayed.get("token-0")).isNull();
+        assertThat(replayed.get("token-99")).isEqualTo(new Token("token-99", "visa", "shopper-9"));
+        assertThat(replayed.getByShopperReference("shopper-9")).hasSize(9);
+    }
+
+    @Test
+    void replayStopsAtATornRecordAndAppendsAfterTheLastValidOne() throws IOException {
+        var repository = new TokenRepository();
+        var journal = open(repository, 1L << 30);
+        for (int i = 0; i < 10; i++) {
+            repository.add(new Token("token-" + i, "visa", "shopper"));
+        }
+        journal.close();
+        tearLastRecord(directory.resolve("tokens-1.journal"));
+
+        var replayed = new TokenRepository();
+        journal = open(replayed, 1L << 30);
+        assertThat(replayed.size()).isEqualTo(9);
+        assertThat(replayed.get("token-9")).isNull();
+        replayed.add(new Token("token-10", "visa", "shopper"));
+        journal.close();
+
+        var again = new TokenRepository();
+        open(again, 1L << 30).close();
+        assertThat(again.size()).isEqualTo(10);
+        assertThat(again.get("token-10")).isNotNull();
+    }
+
+    @Test
+    void compactsIntoASnapshot() throws IOException {
+        var repository = new TokenRepository();
+        var journal = open(repository, 1024);
+        for (int i = 0; i < 200; i++) {
+            repository.add(new Token("token-" + i, "visa", "shopper"));
+        }
+        await().atMost(Duration.ofSeconds(10)).until(() -> Files.exists(directory.resolve("tokens.snapshot")));
+        repository.remove("token-0", "shopper");
+        journal.close();
+
+        var replayed = new TokenRepository();
+        open(replayed, 1024).close();
+        assertThat(replayed.size()).isEqualTo(199);
+    }
+
+    @Test
+    void stopsListeningOnceTheWriterHasFailed() throws IOException {
+        // The snapshot cannot be written, so the first compaction fails
+        Files.createDirectories(directory.resolve("tokens.snapshot.tmp"));
+        var repository = new TokenRepository();
+        var journal = open(repository, 64);
+        for (int i = 0; i < 10; i++) {
+            repository.add(new Token("token-" + i, "visa", "shopper"));
+        }
+        await().atMost(Duration.ofSeconds(10)).until(journal::isFailed);
+
+        for (int i = 10; i < 1000; i++) {
+            repository.add(new Token("token-" + i, "visa", "shopper"));
+        }
+        assertThat(journal.getPendingCount()).isZero();
+        journal.close();
+    }
+
+    // Flips a byte in the body of the last record, as if the write of it was torn by a crash
+    private static void tearLastRecord(Path journal) throws IOException {
+        try (var channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = ByteBuffer.allocate(4);
+            var position = 0L;
+            var last = -1L;
+            while (true) {
+                header.clear();
+                channel.read(header, position);
+                var length = header.getInt(0);
+                if (length <= 0) {
+                    break;
+                }
+                last = position;
+                position += 8 + length;
+            }
+            assertThat(last).isNotNegative();
+            var body = ByteBuffer.allocate(1);
+            channel.read(body, last + 8);
+            body.put(0, (byte) (body.get(0) ^ 0xFF));
+            channel.write(body.rewind(), last + 8);
+        }
+    }
+
+    private TokenJournal open(TokenRepository repository, long compactionThresholdBytes) throws IOException {
+        var journal = new TokenJournal(directory, repository, 1, compactionThresholdBytes);
+        journal.open();
+        return journal;
+    }
+}
@@ -0,0 +1,51 @@
+package com.adyen.workshop.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenReplicatorTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsRemovalsAcrossARestart() throws IOException {
+        var repository = new TokenRepository();
+        var replicator = open(repository);
+        for (int i = 0; i < 100; i++) {
+            repository.add(new Token("token-" + i, "visa", "shopper"));
+        }
+        repository.remove("token-0", "shopper");
+        replicator.close();
+
+        // The tokens themselves come back from the journal
+        var restarted = new TokenRepository();
+        for (int i = 1; i < 100; i++) {
+            restarted.add(new Token("token-" + i, "visa", "shopper"));
+        }
+        replicator = open(restarted);
+        assertThat(replicator.restore(new Token("token-0", "visa", "shopper"))).isFalse();
+        assertThat(replicator.restore(new Token("token-1", "mc", "shopper"))).isFalse();
+        assertThat(replicator.restore(new Token("token-100", "visa", "shopper"))).isTrue();
+        assertThat(restarted.get("token-0")).isNull();
+        assertThat(restarted.get("token-1").paymentMethod()).isEqualTo("visa");
+        assertThat(restarted.size()).isEqualTo(100);
+        replicator.close();
+    }
+
+    private TokenReplicator open(TokenRepository repository) throws IOException {
+        var replicator = new TokenReplicator(new TokenReplicator.Settings("node-0", new InetSocketAddress("127.0.0.1", 0), List.of(),
+                "secret", Duration.ofSeconds(1), Duration.ofSeconds(5), 1000, Duration.ofHours(1),
+                directory.resolve("tokens.versions")), repository);
+        replicator.open();
+        return replicator;
+    }
+}
@@ -0,0 +1,91 @@
+package com.adyen.workshop.util;
+
+import com.adyen.model.notification.Amount;
+import com.adyen.model.notification.NotificationRequestItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class WebhookEventLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackItemsAndTokenRemovalsInOrder() throws IOException {
+        var eventLog = new WebhookEventLog(directory, 1, 1L << 20);
+        eventLog.open();
+        eventLog.append(item("psp-1", "AUTHORISATION"));
+        eventLog.appendTokenRemoval("token-1", "shopper-1");
+        eventLog.close();
+
+        var events = readAll();
+        assertThat(events).extracting(WebhookEventLog.Event::sequence).containsExactly(1L, 2L);
+        var item = events.get(0).item();
+        assertThat(item.getPspReference()).isEqualTo("psp-1");
+        assertThat(item.getEventCode()).isEqualTo("AUTHORISATION");
+        assertThat(item.isSuccess()).isTrue();
+        assertThat(item.getAmount().getValue()).isEqualTo(1000L);
+        assertThat(item.getAmount().getCurrency()).isEqualTo("EUR");
+        assertThat(item.getAdditionalData()).containsEntry("recurring.shopperReference", "shopper-1");
+        assertThat(events.get(0).tokenRemoval()).isNull();
+
+        assertThat(events.get(1).item()).isNull();
+        assertThat(events.get(1).tokenRemoval()).isEqualTo(new WebhookEventLog.TokenRemoval("token-1", "shopper-1"));
+        // Same partition as the items of the shopper
+        assertThat(events.get(1).partition()).isEqualTo(events.get(0).partition());
+    }
+
+    @Test
+    void continuesTheSequenceWhenTheNewestSegmentIsEmpty() throws IOException {
+        // Every commit that wrote something starts a new segment
+        var eventLog = new WebhookEventLog(directory, 1, 1);
+        eventLog.open();
+        for (int i = 1; i <= 3; i++) {
+            eventLog.append(item("psp-" + i, "AUTHORISATION"));
+        }
+        await().atMost(Duration.ofSeconds(10)).until(() -> segments() > 1);
+        eventLog.close();
+
+        var reopened = new WebhookEventLog(directory, 1, 1L << 20);
+        reopened.open();
+        reopened.append(item("psp-4", "CAPTURE"));
+        reopened.close();
+
+        assertThat(readAll()).extracting(WebhookEventLog.Event::sequence).containsExactly(1L, 2L, 3L, 4L);
+    }
+
+    private ArrayList<WebhookEventLog.Event> readAll() throws IOException {
+        var events = new ArrayList<WebhookEventLog.Event>();
+        WebhookEventLog.read(directory, events::add);
+        return events;
+    }
+
+    private long segments() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static NotificationRequestItem item(String pspReference, String eventCode) {
+        var amount = new Amount();
+        amount.setCurrency("EUR");
+        amount.setValue(1000L);
+        var item = new NotificationRequestItem();
+        item.setPspReference(pspReference);
+        item.setEventCode(eventCode);
+        item.setSuccess(true);
+        item.setAmount(amount);
+        item.setAdditionalData(Map.of("recurring.shopperReference", "shopper-1"));
+        return item;
+    }
+}